@@ -0,0 +1,135 @@
+package org.steamflake.benchmarks.metamodel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steamflake.metamodel.api.elements.Ref;
+import org.steamflake.metamodel.api.structure.entities.INamespace;
+import org.steamflake.metamodel.api.structure.entities.IRootNamespace;
+import org.steamflake.metamodel.impl.registry.NullElementRegistry;
+import org.steamflake.metamodel.impl.structure.entities.RootNamespace;
+import org.steamflake.utilities.revisions.StmTransactionContext;
+import org.steamflake.utilities.uuids.Uuids;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building a model of many namespaces under one root, in transactions of modest batches. JMH reports the
+ * time to build the model; after each build the retained heap per namespace is printed to the benchmark's output.
+ * The forked JVM gets a heap large enough for the default million namespaces. Run with a single thread, e.g.
+ * gradlew :SteamflakeBenchmarks:jmh -PjmhThreads=1 -PjmhInclude=NamespaceHeap
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx4g" )
+@State( Scope.Benchmark )
+public class NamespaceHeapBenchmark {
+
+    @Benchmark
+    public INamespace[] buildModel() throws Exception {
+
+        INamespace[] namespaces = new INamespace[this.namespaceCount];
+
+        // Create the namespaces in modest batches.
+        for ( int start = 0; start < this.namespaceCount; start += BATCH_SIZE ) {
+            final int batchStart = start;
+            StmTransactionContext.doInTransaction( 0, () -> {
+                for ( int i = batchStart; i < Math.min( batchStart + BATCH_SIZE, this.namespaceCount ); i += 1 ) {
+                    namespaces[i] = this.root.makeNamespace( Uuids.makeUuid(), "ns" + i, "Namespace " + i );
+                }
+            } );
+        }
+
+        // Keep the model reachable until measured.
+        this.namespaces = namespaces;
+
+        return namespaces;
+
+    }
+
+    @Setup( Level.Iteration )
+    public void setUp() throws Exception {
+
+        NullElementRegistry registry = new NullElementRegistry();
+
+        this.namespaces = null;
+        StmTransactionContext.doInTransaction( 0, () -> {
+            this.root = new RootNamespace( Ref.byId( registry, Uuids.makeUuid(), IRootNamespace.class ), "Root namespace" );
+        } );
+
+        this.startBytes = usedHeapBytes();
+
+    }
+
+    @TearDown( Level.Iteration )
+    public void tearDown() throws Exception {
+
+        // One more transaction lets the background reclaimer clean up the last batch's older revisions (while the
+        // heap settles below).
+        StmTransactionContext.doInTransaction( 0, () -> {
+        } );
+
+        long usedBytes = usedHeapBytes() - this.startBytes;
+
+        System.out.println( "namespaces " + this.namespaceCount + ", retained bytes/namespace " + usedBytes / this.namespaceCount );
+
+        this.namespaces = null;
+        this.root = null;
+
+    }
+
+    /**
+     * @return the heap in use after encouraging a full collection.
+     */
+    private static long usedHeapBytes() throws InterruptedException {
+
+        Runtime runtime = Runtime.getRuntime();
+
+        for ( int i = 0; i < 5; i += 1 ) {
+            System.gc();
+            Thread.sleep( 100L );
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+
+    }
+
+    /**
+     * The number of namespaces in the model.
+     */
+    @Param( "1000000" )
+    public int namespaceCount;
+
+    /**
+     * The model built by the latest iteration, kept reachable until its heap is measured.
+     */
+    private INamespace[] namespaces;
+
+    /**
+     * The root of the model.
+     */
+    private IRootNamespace root;
+
+    /**
+     * The heap in use before building the model.
+     */
+    private long startBytes;
+
+    /**
+     * The number of namespaces created per transaction.
+     */
+    private static final int BATCH_SIZE = 10000;
+
+}
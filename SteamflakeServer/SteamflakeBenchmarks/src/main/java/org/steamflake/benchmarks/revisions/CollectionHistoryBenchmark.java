@@ -0,0 +1,126 @@
+package org.steamflake.benchmarks.revisions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steamflake.utilities.revisions.StmSnapshot;
+import org.steamflake.utilities.revisions.StmTransactionContext;
+import org.steamflake.utilities.revisions.VList;
+import org.steamflake.utilities.revisions.VSet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading versioned sets and lists whose revision chains have grown long because an old snapshot stays
+ * pinned while the collections are written over and over. Readers of the latest revision find it first; readers of
+ * the pinned snapshot walk the whole history.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class CollectionHistoryBenchmark {
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+
+        // Fill the collections.
+        StmTransactionContext.doInTransaction( 0, () -> {
+            this.list = new VList<>();
+            this.set = new VSet<>();
+            for ( int i = 0; i < COLLECTION_SIZE; i += 1 ) {
+                this.list.add( i );
+                this.set.add( i );
+            }
+        } );
+
+        // Pin the current revision, then build up the history behind it one commit at a time.
+        this.snapshot = StmTransactionContext.openSnapshot();
+        for ( int i = 0; i < this.historyLength; i += 1 ) {
+            final int value = COLLECTION_SIZE + i;
+            StmTransactionContext.doInTransaction( 0, () -> {
+                this.list.add( value );
+                this.list.remove( value );
+                this.set.add( value );
+                this.set.remove( value );
+            } );
+        }
+
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        this.snapshot.close();
+    }
+
+    @Benchmark
+    public int readLatestList() {
+
+        int[] result = new int[1];
+
+        StmTransactionContext.doInReadOnlyTransaction( () -> result[0] = this.list.get().size() );
+
+        return result[0];
+
+    }
+
+    @Benchmark
+    public int readLatestSet() {
+
+        int[] result = new int[1];
+
+        StmTransactionContext.doInReadOnlyTransaction( () -> result[0] = this.set.get().size() );
+
+        return result[0];
+
+    }
+
+    @Benchmark
+    public int readPinnedList() {
+        return this.snapshot.call( () -> this.list.get().size() );
+    }
+
+    @Benchmark
+    public int readPinnedSet() {
+        return this.snapshot.call( () -> this.set.get().size() );
+    }
+
+    /**
+     * The number of items in each collection.
+     */
+    private static final int COLLECTION_SIZE = 1000;
+
+    /**
+     * The number of revisions committed after the pinned snapshot.
+     */
+    @Param( { "1", "100", "10000" } )
+    public int historyLength;
+
+    /**
+     * The list read.
+     */
+    private VList<Integer> list;
+
+    /**
+     * The set read.
+     */
+    private VSet<Integer> set;
+
+    /**
+     * The snapshot pinning the start of the history.
+     */
+    private StmSnapshot snapshot;
+
+}
@@ -0,0 +1,87 @@
+package org.steamflake.benchmarks.revisions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steamflake.utilities.revisions.StmTransactionContext;
+import org.steamflake.utilities.revisions.V;
+import org.steamflake.utilities.revisions.VCounter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks commit throughput when each thread writes its own item (disjoint) and when all threads write the same
+ * item (contended), the latter both as read-modify-write and as commutative increments. Run at several thread
+ * counts (see the jmh task, e.g. -PjmhThreads=1,2,4,8,16,32,64) to see how each scales.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class CommitThroughputBenchmark {
+
+    @Benchmark
+    public void contendedIncrements( SharedItems state ) throws Exception {
+        StmTransactionContext.doInTransaction( MAX_RETRIES, () -> state.counter.increment() );
+    }
+
+    @Benchmark
+    public void contendedWrites( SharedItems state ) throws Exception {
+        StmTransactionContext.doInTransaction( MAX_RETRIES, () -> state.item.set( state.item.get() + 1 ) );
+    }
+
+    @Benchmark
+    public void disjointWrites( OwnItem state ) throws Exception {
+        StmTransactionContext.doInTransaction( MAX_RETRIES, () -> state.item.set( state.item.get() + 1 ) );
+    }
+
+    /**
+     * A versioned item written by one thread only.
+     */
+    @State( Scope.Thread )
+    public static class OwnItem {
+
+        @Setup( Level.Trial )
+        public void setUp() throws Exception {
+            StmTransactionContext.doInTransaction( 0, () -> this.item = new V<>( 0 ) );
+        }
+
+        V<Integer> item;
+
+    }
+
+    /**
+     * Versioned items written by all threads.
+     */
+    @State( Scope.Benchmark )
+    public static class SharedItems {
+
+        @Setup( Level.Trial )
+        public void setUp() throws Exception {
+            StmTransactionContext.doInTransaction( 0, () -> {
+                this.counter = new VCounter( 0L );
+                this.item = new V<>( 0 );
+            } );
+        }
+
+        VCounter counter;
+
+        V<Integer> item;
+
+    }
+
+    /**
+     * Retries allowed per operation; effectively unlimited so that contention shows up as lower throughput.
+     */
+    private static final int MAX_RETRIES = Integer.MAX_VALUE - 1;
+
+}
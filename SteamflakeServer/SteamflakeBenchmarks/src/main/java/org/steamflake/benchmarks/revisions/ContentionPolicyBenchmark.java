@@ -0,0 +1,125 @@
+package org.steamflake.benchmarks.revisions;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steamflake.utilities.revisions.BackoffContentionPolicy;
+import org.steamflake.utilities.revisions.IContentionPolicy;
+import org.steamflake.utilities.revisions.OldestWinsContentionPolicy;
+import org.steamflake.utilities.revisions.SerializingContentionPolicy;
+import org.steamflake.utilities.revisions.StmTransactionContext;
+import org.steamflake.utilities.revisions.V;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks commit throughput and abort rate under each contention policy for threads incrementing two of a
+ * handful of shared (hot) versioned items per transaction. The aborted attempts are reported as a secondary rate
+ * alongside the commits. Run at several thread counts (see the jmh task) to see how each policy copes.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ContentionPolicyBenchmark {
+
+    @Benchmark
+    public void incrementHotItems( HotItems state, Attempts attempts ) throws Exception {
+
+        // Each transaction increments two of the hot items.
+        int first = ThreadLocalRandom.current().nextInt( HOT_ITEM_COUNT );
+        int second = ( first + 1 + ThreadLocalRandom.current().nextInt( HOT_ITEM_COUNT - 1 ) ) % HOT_ITEM_COUNT;
+
+        long[] attemptCount = new long[1];
+
+        StmTransactionContext.doInTransaction( MAX_RETRIES, state.policy, () -> {
+            attemptCount[0] += 1;
+            state.items.get( first ).set( state.items.get( first ).get() + 1 );
+            state.items.get( second ).set( state.items.get( second ).get() + 1 );
+        } );
+
+        attempts.aborts += attemptCount[0] - 1;
+
+    }
+
+    /**
+     * The aborted attempts of one thread, reported per unit of time like the commits.
+     */
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    public static class Attempts {
+
+        @Setup( Level.Iteration )
+        public void setUp() {
+            this.aborts = 0L;
+        }
+
+        public long aborts;
+
+    }
+
+    /**
+     * The versioned items contended for, and the policy resolving the conflicts.
+     */
+    @State( Scope.Benchmark )
+    public static class HotItems {
+
+        @Setup( Level.Trial )
+        public void setUp() throws Exception {
+
+            switch ( this.policyName ) {
+                case "backoff":
+                    this.policy = new BackoffContentionPolicy();
+                    break;
+                case "oldest-wins":
+                    this.policy = new OldestWinsContentionPolicy();
+                    break;
+                case "serializing":
+                    this.policy = new SerializingContentionPolicy( 3, new BackoffContentionPolicy() );
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Unknown contention policy: " + this.policyName );
+            }
+
+            StmTransactionContext.doInTransaction( 0, () -> {
+                for ( int i = 0; i < HOT_ITEM_COUNT; i += 1 ) {
+                    this.items.add( new V<>( 0 ) );
+                }
+            } );
+
+        }
+
+        final List<V<Integer>> items = new ArrayList<>( HOT_ITEM_COUNT );
+
+        IContentionPolicy policy;
+
+        @Param( {"backoff", "oldest-wins", "serializing"} )
+        public String policyName;
+
+    }
+
+    /**
+     * The number of shared items contended for.
+     */
+    private static final int HOT_ITEM_COUNT = 4;
+
+    /**
+     * Retries allowed per operation; effectively unlimited so that contention shows up as lower throughput.
+     */
+    private static final int MAX_RETRIES = Integer.MAX_VALUE - 1;
+
+}
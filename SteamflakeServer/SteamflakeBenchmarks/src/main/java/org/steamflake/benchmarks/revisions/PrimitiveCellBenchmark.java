@@ -0,0 +1,105 @@
+package org.steamflake.benchmarks.revisions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steamflake.utilities.revisions.StmTransactionContext;
+import org.steamflake.utilities.revisions.V;
+import org.steamflake.utilities.revisions.VDouble;
+import org.steamflake.utilities.revisions.VInt;
+import org.steamflake.utilities.revisions.VLong;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a transactional increment of a boxed V&lt;Integer&gt;, V&lt;Long&gt;, or V&lt;Double&gt; against the
+ * same increment of its primitive-specialized counterpart, plus an empty transaction as the baseline. Compare the
+ * bytes allocated per operation (gc.alloc.rate.norm, reported by the jmh task's GC profiler).
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PrimitiveCellBenchmark {
+
+    @Benchmark
+    public void emptyTransaction() throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> {
+        } );
+    }
+
+    @Benchmark
+    public void incrementVDouble( Cells state ) throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> state.primitiveDouble.set( state.primitiveDouble.get() + 1.0 ) );
+    }
+
+    @Benchmark
+    public void incrementVInt( Cells state ) throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> state.primitiveInt.set( state.primitiveInt.get() + 1 ) );
+    }
+
+    @Benchmark
+    public void incrementVLong( Cells state ) throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> state.primitiveLong.set( state.primitiveLong.get() + 1L ) );
+    }
+
+    @Benchmark
+    public void incrementVOfDouble( Cells state ) throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> state.boxedDouble.set( state.boxedDouble.get() + 1.0 ) );
+    }
+
+    @Benchmark
+    public void incrementVOfInteger( Cells state ) throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> state.boxedInt.set( state.boxedInt.get() + 1 ) );
+    }
+
+    @Benchmark
+    public void incrementVOfLong( Cells state ) throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> state.boxedLong.set( state.boxedLong.get() + 1L ) );
+    }
+
+    /**
+     * One cell of each kind, written by one thread only.
+     */
+    @State( Scope.Thread )
+    public static class Cells {
+
+        @Setup( Level.Trial )
+        public void setUp() throws Exception {
+
+            // Start well above the range of cached boxes.
+            StmTransactionContext.doInTransaction( 0, () -> {
+                this.boxedDouble = new V<>( 1000000.5 );
+                this.boxedInt = new V<>( 1000000 );
+                this.boxedLong = new V<>( 1000000L );
+                this.primitiveDouble = new VDouble( 1000000.5 );
+                this.primitiveInt = new VInt( 1000000 );
+                this.primitiveLong = new VLong( 1000000L );
+            } );
+
+        }
+
+        V<Double> boxedDouble;
+
+        V<Integer> boxedInt;
+
+        V<Long> boxedLong;
+
+        VDouble primitiveDouble;
+
+        VInt primitiveInt;
+
+        VLong primitiveLong;
+
+    }
+
+}
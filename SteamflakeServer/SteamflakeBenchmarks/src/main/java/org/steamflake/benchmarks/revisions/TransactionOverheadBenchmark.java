@@ -0,0 +1,101 @@
+package org.steamflake.benchmarks.revisions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steamflake.utilities.revisions.StmTransaction;
+import org.steamflake.utilities.revisions.StmTransactionContext;
+import org.steamflake.utilities.revisions.V;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the fixed cost of transactions: beginning and committing one that does nothing, and running read-only
+ * and read-write transactions that read a handful of items without writing.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class TransactionOverheadBenchmark {
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        StmTransactionContext.doInTransaction( 0, () -> {
+            for ( int i = 0; i < ITEM_COUNT; i += 1 ) {
+                this.items[i] = new V<>( i );
+            }
+        } );
+    }
+
+    @Benchmark
+    public void beginAndCommit() {
+        StmTransaction transaction = StmTransactionContext.beginTransaction();
+        StmTransactionContext.commitTransaction( transaction );
+    }
+
+    @Benchmark
+    public void emptyReadOnlyTransaction() {
+        StmTransactionContext.doInReadOnlyTransaction( () -> {
+        } );
+    }
+
+    @Benchmark
+    public int readOnlyTransactionReadingItems() {
+
+        int[] result = new int[1];
+
+        StmTransactionContext.doInReadOnlyTransaction( () -> result[0] = this.sumItems() );
+
+        return result[0];
+
+    }
+
+    @Benchmark
+    public int readWriteTransactionReadingItems() throws Exception {
+
+        int[] result = new int[1];
+
+        StmTransactionContext.doInTransaction( 0, () -> result[0] = this.sumItems() );
+
+        return result[0];
+
+    }
+
+    /**
+     * @return the sum of the items (read in the current transaction).
+     */
+    private int sumItems() {
+
+        int result = 0;
+
+        for ( V<Integer> item : this.items ) {
+            result += item.get();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * The number of items read per transaction.
+     */
+    private static final int ITEM_COUNT = 10;
+
+    /**
+     * The items read.
+     */
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    private final V<Integer>[] items = new V[ITEM_COUNT];
+
+}
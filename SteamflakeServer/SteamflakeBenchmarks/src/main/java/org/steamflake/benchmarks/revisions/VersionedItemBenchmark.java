@@ -0,0 +1,102 @@
+package org.steamflake.benchmarks.revisions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.steamflake.utilities.revisions.StmTransaction;
+import org.steamflake.utilities.revisions.StmTransactionContext;
+import org.steamflake.utilities.revisions.V;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cost of reading and writing a versioned item, both within a transaction already open and as a
+ * whole transaction of its own.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class VersionedItemBenchmark {
+
+    @Benchmark
+    public Integer getInOpenTransaction( OpenTransaction state ) {
+        return state.item.get();
+    }
+
+    @Benchmark
+    public Integer getInReadOnlyTransaction( OwnItem state ) {
+
+        Integer[] result = new Integer[1];
+
+        StmTransactionContext.doInReadOnlyTransaction( () -> result[0] = state.item.get() );
+
+        return result[0];
+
+    }
+
+    @Benchmark
+    public void setInOpenTransaction( OpenTransaction state ) {
+        state.value += 1;
+        state.item.set( state.value );
+    }
+
+    @Benchmark
+    public void setInTransaction( OwnItem state ) throws Exception {
+        state.value += 1;
+        StmTransactionContext.doInTransaction( 0, () -> state.item.set( state.value ) );
+    }
+
+    /**
+     * A versioned item read and written inside a transaction left open for the whole iteration.
+     */
+    @State( Scope.Thread )
+    public static class OpenTransaction {
+
+        @Setup( Level.Iteration )
+        public void setUp() throws Exception {
+            StmTransactionContext.doInTransaction( 0, () -> this.item = new V<>( 0 ) );
+            this.transaction = StmTransactionContext.beginTransaction();
+        }
+
+        @TearDown( Level.Iteration )
+        public void tearDown() {
+            StmTransactionContext.abortTransaction( this.transaction );
+        }
+
+        V<Integer> item;
+
+        StmTransaction transaction;
+
+        int value;
+
+    }
+
+    /**
+     * A versioned item written by one thread only.
+     */
+    @State( Scope.Thread )
+    public static class OwnItem {
+
+        @Setup( Level.Trial )
+        public void setUp() throws Exception {
+            StmTransactionContext.doInTransaction( 0, () -> this.item = new V<>( 0 ) );
+        }
+
+        V<Integer> item;
+
+        int value;
+
+    }
+
+}
@@ -4,6 +4,7 @@ import org.steamflake.metamodel.api.elements.IEntity;
 import org.steamflake.metamodel.api.elements.Ref;
 import org.steamflake.metamodel.impl.elements.AbstractElement;
 import org.steamflake.utilities.revisions.V;
+import org.steamflake.utilities.revisions.VBoolean;
 
 /**
  * Abstract base class for classes implementing IEntity.
@@ -25,7 +26,7 @@ public abstract class AbstractEntity<ISelf extends IEntity>
         this.summary = new V<>( summary );
 
         // TBD: will eventually want to be able to resurrect elements that have been persistently destroyed
-        this.destroyed = new V<>( false );
+        this.destroyed = new VBoolean( false );
 
     }
 
@@ -65,7 +66,7 @@ public abstract class AbstractEntity<ISelf extends IEntity>
     /**
      * Whether this element has been destroyed.
      */
-    private final V<Boolean> destroyed;
+    private final VBoolean destroyed;
 
     /**
      * A short summary of this entity.
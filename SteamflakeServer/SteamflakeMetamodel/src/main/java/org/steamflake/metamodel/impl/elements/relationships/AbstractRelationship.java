@@ -4,7 +4,7 @@ import org.steamflake.metamodel.api.elements.IEntity;
 import org.steamflake.metamodel.api.elements.IRelationship;
 import org.steamflake.metamodel.api.elements.Ref;
 import org.steamflake.metamodel.impl.elements.AbstractElement;
-import org.steamflake.utilities.revisions.V;
+import org.steamflake.utilities.revisions.VBoolean;
 
 /**
  * Abstract base class for relationship implementations.
@@ -21,7 +21,7 @@ public abstract class AbstractRelationship<ISelf extends IRelationship, IFrom ex
         this.to = to;
 
         // TBD: will eventually want to be able to resurrect elements that have been persistently destroyed
-        this.destroyed = new V<Boolean>( false );
+        this.destroyed = new VBoolean( false );
 
     }
 
@@ -59,7 +59,7 @@ public abstract class AbstractRelationship<ISelf extends IRelationship, IFrom ex
     /**
      * Whether this element has been destroyed.
      */
-    private final V<Boolean> destroyed;
+    private final VBoolean destroyed;
 
     private final Ref<IFrom> from;
 
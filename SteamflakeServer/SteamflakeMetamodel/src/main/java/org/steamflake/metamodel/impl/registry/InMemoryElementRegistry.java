@@ -3,13 +3,15 @@ package org.steamflake.metamodel.impl.registry;
 import org.steamflake.metamodel.api.elements.IElement;
 import org.steamflake.metamodel.api.elements.Ref;
 import org.steamflake.metamodel.api.registry.IElementRegistry;
+import org.steamflake.utilities.revisions.VMap;
 
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Hash-table based registry of elements.
+ * Versioned hash-table based registry of elements. Registration and unregistration are transactional: they
+ * become visible to other transactions only when the registering transaction commits, and they vanish if it aborts.
+ * Transactions registering different elements do not conflict. Looking up an unknown id keeps nothing in memory, and
+ * an unregistered element is forgotten once no transaction can still see it.
  */
 public final class InMemoryElementRegistry
     extends AbstractElementRegistryDecorator {
@@ -28,7 +30,7 @@ public final class InMemoryElementRegistry
      */
     public InMemoryElementRegistry( IElementRegistry delegate ) {
         super( delegate );
-        this.elements = new ConcurrentHashMap<>();   // TBD: VMap<> - versioned map
+        this.elements = new VMap<>();
     }
 
     @SuppressWarnings("unchecked")
@@ -62,8 +64,8 @@ public final class InMemoryElementRegistry
     }
 
     /**
-     * The underlying hash table that implements the look up.
+     * The underlying versioned hash table that implements the look up.
      */
-    private final Map<UUID, Ref<? extends IElement>> elements;
+    private final VMap<UUID, Ref<? extends IElement>> elements;
 
 }
@@ -3,7 +3,7 @@ package org.steamflake.metamodel.impl.structure.entities;
 import org.steamflake.metamodel.api.elements.Ref;
 import org.steamflake.metamodel.api.structure.entities.IParameter;
 import org.steamflake.metamodel.impl.elements.entities.AbstractNamedEntity;
-import org.steamflake.utilities.revisions.V;
+import org.steamflake.utilities.revisions.VInt;
 
 /**
  * Implementation of IParemeter.
@@ -22,7 +22,7 @@ public final class Parameter
      */
     public Parameter( Ref<IParameter> self, String name, String summary, int sequence ) {
         super( self, name, summary );
-        this.sequence = new V<>( sequence );
+        this.sequence = new VInt( sequence );
     }
 
     @Override
@@ -39,6 +39,6 @@ public final class Parameter
     /**
      * Class representing the versioned state of a module.
      */
-    private final V<Integer> sequence;
+    private final VInt sequence;
 
 }
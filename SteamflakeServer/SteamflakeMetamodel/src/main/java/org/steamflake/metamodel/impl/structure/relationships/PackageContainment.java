@@ -5,7 +5,7 @@ import org.steamflake.metamodel.api.structure.entities.IAbstractPackage;
 import org.steamflake.metamodel.api.structure.entities.IPackage;
 import org.steamflake.metamodel.api.structure.relationships.IPackageContainment;
 import org.steamflake.metamodel.impl.elements.relationships.AbstractRelationship;
-import org.steamflake.utilities.revisions.V;
+import org.steamflake.utilities.revisions.VBoolean;
 
 /**
  * Concrete implementation of package containment relationship.
@@ -16,7 +16,7 @@ public class PackageContainment
 
     protected PackageContainment( Ref<IPackageContainment> self, Ref<IAbstractPackage> containingPackage, Ref<IPackage> containedPackage, boolean isExported ) {
         super( self, containingPackage, containedPackage );
-        this.isExported = new V<>( isExported );
+        this.isExported = new VBoolean( isExported );
     }
 
     @Override
@@ -30,6 +30,6 @@ public class PackageContainment
         return this;
     }
 
-    private final V<Boolean> isExported;
+    private final VBoolean isExported;
 
 }
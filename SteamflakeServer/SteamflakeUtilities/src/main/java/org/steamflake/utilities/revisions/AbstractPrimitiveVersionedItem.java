@@ -0,0 +1,250 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Base class of the versioned items holding a single primitive value (VBoolean, VInt, VLong, VDouble). Keeps the
+ * chain of revisions and does all the transactional work of reading, writing, linking, and reclaiming them; each
+ * subclass contributes just a revision class with its unboxed value field and the equality of two such values.
+ *
+ * @param <R> the type of revision of the subclass.
+ */
+abstract class AbstractPrimitiveVersionedItem<R extends AbstractPrimitiveVersionedItem.PrimitiveRevision<R>>
+    extends AbstractVersionedItem {
+
+    /**
+     * Constructs a new versioned item with given starting revision for the current transaction.
+     *
+     * @param initialRevision the revision holding the initial value.
+     */
+    AbstractPrimitiveVersionedItem( R initialRevision ) {
+
+        // Track everything through the current transaction.
+        StmTransaction currentTransaction = StmTransactionContext.getWritableTransactionOfCurrentThread();
+
+        // The chain stays empty until the transaction commits.
+        this.latestRevision = null;
+
+        // Buffer the initial value as a write of the current transaction.
+        currentTransaction.addPendingRevision( this, initialRevision );
+
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    final Object copyPendingRevision( Object pendingRevision ) {
+        return ( (R) pendingRevision ).copy();
+    }
+
+    @Override
+    final void ensureNotWrittenByOtherTransaction( StmTransaction currentTransaction ) {
+
+        // Only committing transactions link revisions, so any revision newer than our source is a conflict.
+        R revision = this.latestRevision;
+        if ( revision != null && revision.revisionNumber > currentTransaction.getSourceRevisionNumber() ) {
+            throw new WriteConflictException( this );
+        }
+
+    }
+
+    @Override
+    final long getLatestRevisionNumber() {
+        R revision = this.latestRevision;
+        return revision != null ? revision.revisionNumber : 0L;
+    }
+
+    @Override
+    final void linkRevision( Object pendingRevision, long revisionNumber ) {
+
+        @SuppressWarnings("unchecked")
+        R revision = (R) pendingRevision;
+
+        // Stamp the revision before it becomes reachable from the chain.
+        revision.revisionNumber = revisionNumber;
+        revision.priorRevision = this.latestRevision;
+
+        // The committing transaction holds our commit lock, so nobody else changes the head concurrently. (The
+        // volatile write publishes the revision's fields to readers.)
+        this.latestRevision = revision;
+
+    }
+
+    /**
+     * Finds the latest revision published as committed without joining a transaction (see V.peekCommitted).
+     *
+     * @return the latest published revision.
+     * @throws IllegalStateException if the transaction creating the item has not committed.
+     */
+    final R peekRevision() {
+
+        while ( true ) {
+
+            // Note what has been published as committed before looking at the chain, so that no revision we skip
+            // can have been published (and its predecessors reclaimed) unnoticed.
+            long lastCommittedRevNumber = StmTransaction.getLastCommittedRevisionNumber();
+
+            // Skip revisions already linked by a committing transaction but not yet published.
+            R revision = this.latestRevision;
+            while ( revision != null && revision.revisionNumber > lastCommittedRevNumber ) {
+                revision = revision.priorRevision;
+            }
+
+            if ( revision != null ) {
+                return revision;
+            }
+
+            // An item only becomes visible to others once its creating transaction commits; if more has been
+            // published meanwhile, look again.
+            if ( StmTransaction.getLastCommittedRevisionNumber() == lastCommittedRevNumber ) {
+                throw new IllegalStateException( "Versioned item not yet committed." );
+            }
+
+        }
+
+    }
+
+    /**
+     * Finds the revision relevant for the transaction active in the currently running thread.
+     *
+     * @return the revision as of the start of the transaction or else as written by the transaction.
+     */
+    final R readRevision() {
+
+        // Track everything through the current transaction.
+        StmTransaction currentTransaction = StmTransactionContext.getTransactionOfCurrentThread();
+
+        // If written by the current transaction, read back the written value.
+        R pendingRevision = currentTransaction.getPendingRevision( this );
+        if ( pendingRevision != null ) {
+            return pendingRevision;
+        }
+
+        // Work within the transaction of the current thread.
+        long sourceRevisionNumber = currentTransaction.getSourceRevisionNumber();
+
+        // Loop through the revisions.
+        for ( R revision = this.latestRevision; revision != null; revision = revision.priorRevision ) {
+
+            // If written and committed by some other transaction, note that our transaction is already poised for
+            // a write conflict if it writes anything. I.e. fail early for a write conflict.
+            if ( revision.revisionNumber > sourceRevisionNumber ) {
+                currentTransaction.setNewerRevisionSeen( this );
+            }
+
+            // If revision is older or equal to our source revision, read it.
+            else {
+                // Keep track of everything we've read.
+                currentTransaction.addVersionedItemRead( this );
+
+                // Return the revision found for the source revision or earlier.
+                return revision;
+            }
+
+        }
+
+        throw new NullPointerException( "No revision found for transaction." );
+
+    }
+
+    @Override
+    final void removeUnusedRevisions( Object linkedRevision ) {
+
+        // Truncate the revisions older than the given one, wherever it now is in the chain.
+        ( (PrimitiveRevision<?>) linkedRevision ).priorRevision = null;
+
+    }
+
+    /**
+     * Writes a new revision of the item for the transaction active in the currently running thread.
+     *
+     * @param newRevision the unlinked revision holding the new value.
+     */
+    final void writeRevision( R newRevision ) {
+
+        // Work within the transaction of the current thread.
+        StmTransaction currentTransaction = StmTransactionContext.getWritableTransactionOfCurrentThread();
+
+        // If previously written by the current transaction, just update to the newer value.
+        R pendingRevision = currentTransaction.getPendingRevision( this );
+        if ( pendingRevision != null ) {
+            pendingRevision.assign( newRevision );
+            return;
+        }
+
+        long sourceRevisionNumber = currentTransaction.getSourceRevisionNumber();
+
+        // Loop through the revisions ...
+        for ( R revision = this.latestRevision; revision != null; revision = revision.priorRevision ) {
+
+            // If revision is older or equal to our source revision, check for no change ...
+            if ( revision.revisionNumber <= sourceRevisionNumber ) {
+
+                // ... and if not changed, treat as a read.
+                if ( newRevision.hasSameValue( revision ) ) {
+                    currentTransaction.addVersionedItemRead( this );
+                    return;
+                }
+
+                break;
+
+            }
+
+        }
+
+        // Buffer the new revision until the transaction commits.
+        currentTransaction.addPendingRevision( this, newRevision );
+
+    }
+
+    /**
+     * Internal record structure for revisions in the linked list of revisions. Subclasses add the value.
+     *
+     * @param <R> the type of revision of the subclass.
+     */
+    abstract static class PrimitiveRevision<R extends PrimitiveRevision<R>> {
+
+        PrimitiveRevision() {
+            this.priorRevision = null;
+            this.revisionNumber = 0L;
+        }
+
+        /**
+         * Overwrites the value of this (pending) revision.
+         *
+         * @param that the revision with the value to copy.
+         */
+        abstract void assign( R that );
+
+        /**
+         * @return an unlinked revision with the same value.
+         */
+        abstract R copy();
+
+        /**
+         * Determines whether two revisions hold the same value.
+         *
+         * @param that the revision to compare with.
+         * @return true if the values are equal.
+         */
+        abstract boolean hasSameValue( R that );
+
+        /**
+         * A reference to the previous revision of the versioned item. Set before the revision is published and
+         * later only cleared when no transaction can need the older revisions, so a plain field suffices.
+         */
+        R priorRevision;
+
+        /**
+         * The revision number of this revision (uniquely from the transaction that wrote it). Zero while the
+         * revision is buffered in its transaction; assigned before the revision is linked into the chain.
+         */
+        long revisionNumber;
+
+    }
+
+    /**
+     * Reference to the latest revision. Revisions are kept in a custom linked list with the newest revision at
+     * the head of the list. Only committed revisions are ever linked into the list, and only by the transaction
+     * holding the commit lock, so a volatile field suffices.
+     */
+    private volatile R latestRevision;
+
+}
@@ -1,21 +1,21 @@
 package org.steamflake.utilities.revisions;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
- * Interface to a versioned value that supports clean up of obsolete or aborted versions.
- * <p>
- * TODO: make versioned items observable:
- * void subscribe( boolean insideTransaction, Subscriber subscriber );
- * void unsubscribe( Subscriber subscriber );
+ * Interface to a versioned value that supports clean up of obsolete versions. (Changes to versioned items are
+ * observable through StmTransactionContext.subscribe.)
  */
-abstract class AbstractVersionedItem {
+abstract class AbstractVersionedItem
+    implements IVersionedItem {
 
     /**
      * Constructs a new abstract versioned item with unique identity.
      */
     protected AbstractVersionedItem() {
         this.hashCode = lastHashCode.incrementAndGet();
+        this.committingTransaction = null;
     }
 
     @SuppressWarnings("SimplifiableIfStatement")
@@ -40,23 +40,132 @@ abstract class AbstractVersionedItem {
     }
 
     /**
-     * Ensures that this item has been written by no transaction other than the currently running one.
+     * Copies a revision buffered by a transaction, so that the copy is unaffected by the transaction's further
+     * writes. Used to keep the writes as of a savepoint for rolling back to later.
      *
+     * @param pendingRevision the revision buffered by the transaction.
+     * @return an equivalent revision, also not yet linked.
+     */
+    abstract Object copyPendingRevision( Object pendingRevision );
+
+    /**
+     * Ensures that this item has been written by no transaction other than the given one.
+     *
+     * @param currentTransaction the transaction validating its reads and writes.
      * @throws WriteConflictException if there has been another transaction writing this item.
      */
-    abstract void ensureNotWrittenByOtherTransaction();
+    abstract void ensureNotWrittenByOtherTransaction( StmTransaction currentTransaction );
+
+    @Override
+    public final void ensureUnchanged() {
+        StmTransactionContext.getTransactionOfCurrentThread().addVersionedItemToValidate( this );
+    }
+
+    /**
+     * @return the transaction currently holding the commit lock of this item (null if none).
+     */
+    final StmTransaction getCommittingTransaction() {
+        return this.committingTransaction;
+    }
+
+    /**
+     * @return the revision number of the latest revision linked into this item's chain (zero if none).
+     */
+    abstract long getLatestRevisionNumber();
 
     /**
-     * Removes an aborted revision from this versioned item.
+     * @return the versioned item reported to commit subscribers when this item is written: normally this item itself
+     * but the enclosing collection for the value underlying a VSet, VList, or VMap.
      */
-    abstract void removeAbortedRevision();
+    IVersionedItem getObservableItem() {
+        return this;
+    }
+
+    /**
+     * Determines whether a revision buffered by a transaction was produced only by commutative operations, which
+     * are merged with concurrent changes at commit rather than conflicting with them.
+     *
+     * @param pendingRevision the revision buffered by the transaction.
+     * @return true if the write needs no write-write validation.
+     */
+    boolean isCommutative( Object pendingRevision ) {
+        return false;
+    }
+
+    /**
+     * Determines whether some transaction other than the given one is in the middle of committing a new revision
+     * of this item.
+     *
+     * @param transaction the transaction asking.
+     * @return true if another transaction holds the commit lock of this item.
+     */
+    final boolean isLockedForCommitByOtherTransaction( StmTransaction transaction ) {
+        StmTransaction owner = this.committingTransaction;
+        return owner != null && owner != transaction;
+    }
 
     /**
-     * Removes any revisions older than the given one
+     * Links a revision buffered by a committing transaction in at the head of this item's chain of revisions. Called
+     * only by the transaction holding the commit lock of this item.
      *
-     * @param oldestUsableRevisionNumber the oldest revision number that can still be of any use.
+     * @param pendingRevision the revision buffered by the transaction.
+     * @param revisionNumber  the revision number reserved by the transaction.
      */
-    abstract void removeUnusedRevisions( long oldestUsableRevisionNumber );
+    abstract void linkRevision( Object pendingRevision, long revisionNumber );
+
+    /**
+     * Repeats the commutative operations that produced a revision buffered by a committing transaction against the
+     * latest committed value, readying the revision for linking. Called only by the transaction holding the commit
+     * lock of this item, for all its writes before it links any, so that an operation failing leaves every chain
+     * untouched. Does nothing by default.
+     *
+     * @param pendingRevision the revision buffered by the transaction.
+     */
+    void mergeCommutativeWrite( Object pendingRevision ) {
+    }
+
+    /**
+     * Cleans up whatever this item keeps that no transaction can read any more, while a transaction commits a write of
+     * this item. The committing transaction holds its commit locks and is flagged as committing, so no irrevocable
+     * transaction runs meanwhile. Must not fail. Does nothing by default.
+     *
+     * @param transaction the committing transaction.
+     */
+    void reclaimWhileCommitting( StmTransaction transaction ) {
+    }
+
+    /**
+     * Removes any revisions older than the given one. The revision is located directly rather than by walking the
+     * chain from its head, so the cost does not grow with the number of newer revisions.
+     *
+     * @param linkedRevision a revision previously linked by linkRevision, now the oldest that can be of any use.
+     */
+    abstract void removeUnusedRevisions( Object linkedRevision );
+
+    /**
+     * Attempts to acquire the commit lock of this item without waiting.
+     *
+     * @param transaction the committing transaction.
+     * @return true if the lock was acquired; false if some other transaction is committing this item.
+     */
+    final boolean tryLockForCommit( StmTransaction transaction ) {
+        return committingTransactionUpdater.compareAndSet( this, null, transaction );
+    }
+
+    /**
+     * Releases the commit lock of this item.
+     *
+     * @param transaction the committing transaction that previously acquired the lock.
+     */
+    final void unlockForCommit( StmTransaction transaction ) {
+        committingTransactionUpdater.compareAndSet( this, transaction, null );
+    }
+
+    /**
+     * Atomic access to the commit lock of versioned items.
+     */
+    private static final AtomicReferenceFieldUpdater<AbstractVersionedItem, StmTransaction> committingTransactionUpdater =
+        AtomicReferenceFieldUpdater.newUpdater( AbstractVersionedItem.class, StmTransaction.class, "committingTransaction" );
 
     /**
      * The last used hash code.
@@ -64,7 +173,12 @@ abstract class AbstractVersionedItem {
     private static AtomicInteger lastHashCode = new AtomicInteger( 0 );
 
     /**
-     * The sequential hash code of this versioned item.
+     * The transaction currently committing a revision of this item (null when not locked).
+     */
+    private volatile StmTransaction committingTransaction;
+
+    /**
+     * The sequential hash code of this versioned item. Also serves as the global order for acquiring commit locks.
      */
     private final int hashCode;
 
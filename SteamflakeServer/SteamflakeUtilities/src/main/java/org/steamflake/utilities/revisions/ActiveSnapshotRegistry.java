@@ -0,0 +1,246 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Registry of the source revision numbers in use by running transactions. Each running transaction occupies one
+ * slot of a fixed array; slots are padded to separate cache lines so that transactions beginning and ending on
+ * different cores do not contend. Registering and releasing a snapshot allocates nothing and takes no lock; finding
+ * the oldest revision in use is a scan of the slots. Each slot also flags whether its transaction is in the middle of
+ * committing, which lets an irrevocable transaction wait for commits already under way, and notes the transaction
+ * itself so that the watchdog can look over every running transaction. When every slot is occupied
+ * (e.g. by many asynchronous transactions suspended between steps), further snapshots go to an overflow registry
+ * chained after this one.
+ */
+final class ActiveSnapshotRegistry {
+
+    /**
+     * Constructs a new registry with room for at least the given number of concurrent snapshots before it overflows.
+     *
+     * @param minimumSlotCount the minimum number of slots to allocate.
+     */
+    ActiveSnapshotRegistry( int minimumSlotCount ) {
+
+        // Round up to a power of two for cheap probing.
+        int slotCount = 1;
+        while ( slotCount < minimumSlotCount ) {
+            slotCount *= 2;
+        }
+
+        this.slotMask = slotCount - 1;
+        this.overflow = null;
+
+        // Leave a padding stride before the first slot and after the last one.
+        this.slots = new AtomicLongArray( ( slotCount + 2 ) * SLOT_STRIDE );
+        this.transactions = new AtomicReferenceArray<>( ( slotCount + 2 ) * SLOT_STRIDE );
+        for ( int slot = 0; slot < slotCount; slot += 1 ) {
+            this.slots.set( indexOf( slot ), FREE_SLOT );
+        }
+
+    }
+
+    /**
+     * Visits every registered transaction along with the revision number it has in use. A transaction registering
+     * or releasing concurrently may or may not be visited.
+     *
+     * @param action the visit of a transaction and its revision number.
+     */
+    void forEachTransaction( ObjLongConsumer<StmTransaction> action ) {
+
+        for ( int slot = 0; slot <= this.slotMask; slot += 1 ) {
+            StmTransaction transaction = this.transactions.get( indexOf( slot ) );
+            if ( transaction != null ) {
+                long revisionNumber = this.slots.get( indexOf( slot ) );
+                if ( revisionNumber != FREE_SLOT ) {
+                    action.accept( transaction, revisionNumber );
+                }
+            }
+        }
+
+        // Include any snapshots that overflowed.
+        ActiveSnapshotRegistry overflowRegistry = this.overflow;
+        if ( overflowRegistry != null ) {
+            overflowRegistry.forEachTransaction( action );
+        }
+
+    }
+
+    /**
+     * Computes the oldest revision number in use by any registered snapshot.
+     *
+     * @param defaultRevisionNumber the revision number to return if it is older than any in use (or none are
+     *                              in use); must have been read before calling this method.
+     * @return the oldest revision number still needed.
+     */
+    long getOldestRevisionInUse( long defaultRevisionNumber ) {
+
+        long result = defaultRevisionNumber;
+
+        for ( int slot = 0; slot <= this.slotMask; slot += 1 ) {
+            long revisionNumber = this.slots.get( indexOf( slot ) );
+            if ( revisionNumber < result ) {
+                result = revisionNumber;
+            }
+        }
+
+        // Include any snapshots that overflowed.
+        ActiveSnapshotRegistry overflowRegistry = this.overflow;
+        if ( overflowRegistry != null ) {
+            result = overflowRegistry.getOldestRevisionInUse( result );
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Determines whether any transaction is in the middle of committing.
+     *
+     * @return true if some slot is flagged as committing.
+     */
+    boolean isCommitInProgress() {
+
+        for ( int slot = 0; slot <= this.slotMask; slot += 1 ) {
+            if ( this.slots.get( indexOf( slot ) + COMMITTING_OFFSET ) != 0L ) {
+                return true;
+            }
+        }
+
+        // Include any snapshots that overflowed.
+        ActiveSnapshotRegistry overflowRegistry = this.overflow;
+        return overflowRegistry != null && overflowRegistry.isCommitInProgress();
+
+    }
+
+    /**
+     * Claims a free slot and records the given revision number in it.
+     *
+     * @param revisionNumber the source revision number of a starting transaction.
+     * @param transaction    the starting transaction.
+     * @return the slot claimed (to be passed to update and release).
+     */
+    int register( long revisionNumber, StmTransaction transaction ) {
+
+        // Start probing from a position derived from the thread so that threads tend to keep to their own slots.
+        int slot = (int) ( Thread.currentThread().getId() * 0x9E3779B9L ) & this.slotMask;
+
+        for ( int probe = 0; probe <= this.slotMask; probe += 1 ) {
+            if ( this.slots.compareAndSet( indexOf( slot ), FREE_SLOT, revisionNumber ) ) {
+                this.transactions.lazySet( indexOf( slot ), transaction );
+                return slot;
+            }
+            slot = ( slot + 1 ) & this.slotMask;
+        }
+
+        // All slots are occupied; rather than wait for transactions that may be suspended indefinitely, number the
+        // slots of the overflow registry after our own.
+        ActiveSnapshotRegistry overflowRegistry = this.overflow;
+        if ( overflowRegistry == null ) {
+            overflowUpdater.compareAndSet( this, null, new ActiveSnapshotRegistry( this.slotMask + 1 ) );
+            overflowRegistry = this.overflow;
+        }
+
+        return this.slotMask + 1 + overflowRegistry.register( revisionNumber, transaction );
+
+    }
+
+    /**
+     * Frees a slot claimed by a completed transaction.
+     *
+     * @param slot the slot returned by register.
+     */
+    void release( int slot ) {
+        if ( slot > this.slotMask ) {
+            this.overflow.release( slot - this.slotMask - 1 );
+        }
+        else {
+            this.transactions.lazySet( indexOf( slot ), null );
+            this.slots.set( indexOf( slot ), FREE_SLOT );
+        }
+    }
+
+    /**
+     * Flags whether the transaction in a claimed slot is in the middle of committing.
+     *
+     * @param slot       the slot returned by register.
+     * @param committing true when starting to commit; false when done.
+     */
+    void setCommitting( int slot, boolean committing ) {
+        if ( slot > this.slotMask ) {
+            this.overflow.setCommitting( slot - this.slotMask - 1, committing );
+        }
+        else {
+            this.slots.set( indexOf( slot ) + COMMITTING_OFFSET, committing ? 1L : 0L );
+        }
+    }
+
+    /**
+     * Changes the revision number recorded in a claimed slot.
+     *
+     * @param slot           the slot returned by register.
+     * @param revisionNumber the new revision number.
+     */
+    void update( int slot, long revisionNumber ) {
+        if ( slot > this.slotMask ) {
+            this.overflow.update( slot - this.slotMask - 1, revisionNumber );
+        }
+        else {
+            this.slots.set( indexOf( slot ), revisionNumber );
+        }
+    }
+
+    /**
+     * Maps a slot number to its padded position in the underlying array.
+     *
+     * @param slot the slot number.
+     * @return the array index of the slot.
+     */
+    private static int indexOf( int slot ) {
+        return ( slot + 1 ) * SLOT_STRIDE;
+    }
+
+    /**
+     * The offset within a slot of its committing flag.
+     */
+    private static final int COMMITTING_OFFSET = 1;
+
+    /**
+     * The value of a slot not in use (greater than any revision number).
+     */
+    private static final long FREE_SLOT = Long.MAX_VALUE;
+
+    /**
+     * Atomic updater for creating the overflow registry once.
+     */
+    private static final AtomicReferenceFieldUpdater<ActiveSnapshotRegistry, ActiveSnapshotRegistry> overflowUpdater =
+        AtomicReferenceFieldUpdater.newUpdater( ActiveSnapshotRegistry.class, ActiveSnapshotRegistry.class, "overflow" );
+
+    /**
+     * The number of longs from one slot to the next (one 64-byte cache line).
+     */
+    private static final int SLOT_STRIDE = 8;
+
+    /**
+     * The registry for snapshots beyond our own slots (null until first needed; then kept for reuse).
+     */
+    private volatile ActiveSnapshotRegistry overflow;
+
+    /**
+     * Mask for wrapping slot numbers (slot count minus one).
+     */
+    private final int slotMask;
+
+    /**
+     * The padded array of revision numbers in use.
+     */
+    private final AtomicLongArray slots;
+
+    /**
+     * The transactions registered in the slots, padded alike.
+     */
+    private final AtomicReferenceArray<StmTransaction> transactions;
+
+}
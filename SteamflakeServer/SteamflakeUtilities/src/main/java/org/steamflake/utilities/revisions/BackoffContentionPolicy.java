@@ -0,0 +1,73 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Contention policy that pauses for a random time after each write conflict. The upper bound of the pause doubles
+ * with each successive conflict (up to a maximum); the random jitter keeps conflicting transactions from retrying in
+ * lock step.
+ */
+public final class BackoffContentionPolicy
+    implements IContentionPolicy {
+
+    /**
+     * Constructs a new back off policy.
+     *
+     * @param minimumPauseNanos the upper bound of the pause after the first conflict.
+     * @param maximumPauseNanos the largest upper bound of any pause.
+     */
+    public BackoffContentionPolicy( long minimumPauseNanos, long maximumPauseNanos ) {
+
+        // Sanity check the input.
+        if ( minimumPauseNanos <= 0 || maximumPauseNanos < minimumPauseNanos ) {
+            throw new IllegalArgumentException( "Pause bounds must be positive and in order." );
+        }
+
+        this.minimumPauseNanos = minimumPauseNanos;
+        this.maximumPauseNanos = maximumPauseNanos;
+
+    }
+
+    /**
+     * Constructs a new back off policy with pauses from one microsecond up to one millisecond.
+     */
+    public BackoffContentionPolicy() {
+        this( 1000L, 1000000L );
+    }
+
+    @Override
+    public void afterWriteConflict( int attempt ) {
+
+        // Double the bound for each earlier conflict, up to the maximum.
+        long bound = this.minimumPauseNanos;
+        for ( int i = 0; i < attempt && bound < this.maximumPauseNanos; i += 1 ) {
+            bound *= 2;
+        }
+        bound = Math.min( bound, this.maximumPauseNanos );
+
+        LockSupport.parkNanos( ThreadLocalRandom.current().nextLong( bound ) + 1 );
+
+    }
+
+    @Override
+    public boolean beforeAttempt( int attempt ) {
+        return false;
+    }
+
+    @Override
+    public boolean shouldWaitForCommitLock( long startTime, long holderStartTime ) {
+        return false;
+    }
+
+    /**
+     * The largest upper bound of any pause.
+     */
+    private final long maximumPauseNanos;
+
+    /**
+     * The upper bound of the pause after the first conflict.
+     */
+    private final long minimumPauseNanos;
+
+}
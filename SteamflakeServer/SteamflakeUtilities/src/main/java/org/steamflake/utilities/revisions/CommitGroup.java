@@ -0,0 +1,205 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A batch of transactions committing together under one revision number. Each member locks and validates its own
+ * writes as usual, but instead of reserving a revision number of its own it shares the number of the open group
+ * (provided no later number has been reserved since the member took its locks, which keeps conflicting commits
+ * ordered as they would be alone). The leader who opened the group keeps it open for a short window, then publishes
+ * the revision, with a single change set, once every member has finished.
+ */
+final class CommitGroup {
+
+    /**
+     * Constructs a new group with its leader as the only member. The leader reserves the group's revision number
+     * once the group is in place for others to find.
+     *
+     * @param leader         the transaction opening the group.
+     * @param maxMemberCount the most transactions the group may hold.
+     * @param windowNanos    how long the group stays open for more members.
+     */
+    CommitGroup( StmTransaction leader, int maxMemberCount, long windowNanos ) {
+        this.finishedMemberCount = new AtomicInteger( 0 );
+        this.leader = leader;
+        this.maxMemberCount = maxMemberCount;
+        this.memberItemsWritten = new ConcurrentLinkedQueue<>();
+        this.memberState = new AtomicInteger( 1 );
+        this.openedTime = System.nanoTime();
+        this.revisionNumber = 0L;
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Waits for the leader to reserve the group's revision number (a matter of moments after opening the group).
+     *
+     * @return the revision number shared by the members of the group.
+     */
+    long awaitRevisionNumber() {
+
+        long result = this.revisionNumber;
+
+        while ( result == 0L ) {
+            Thread.yield();
+            result = this.revisionNumber;
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Closes the group to new members once its window has passed (or it is full), then waits for the members still
+     * validating or linking their revisions. Called only by the leader, after finishing its own part.
+     *
+     * @return the combined changes of the members that committed (null if none or if nobody subscribes).
+     */
+    StmChangeSet close() {
+
+        // Let others join for the rest of the window unless the group fills up first.
+        while ( System.nanoTime() - this.openedTime < this.windowNanos && this.memberState.get() < this.maxMemberCount ) {
+            LockSupport.parkNanos( this, WINDOW_POLLING_NANOS );
+        }
+
+        // Seal the group.
+        int memberCount = this.memberState.getAndUpdate( state -> state | SEALED );
+
+        // Wait for the (very short) remainder of the members' commits.
+        while ( this.finishedMemberCount.get() < memberCount ) {
+            Thread.yield();
+        }
+
+        // Combine the changes into one set (an item written commutatively by several members appears once).
+        if ( this.memberItemsWritten.isEmpty() ) {
+            return null;
+        }
+
+        Set<IVersionedItem> itemsWritten = new LinkedHashSet<>();
+        for ( IVersionedItem[] memberItems : this.memberItemsWritten ) {
+            Collections.addAll( itemsWritten, memberItems );
+        }
+
+        return new StmChangeSet( this.revisionNumber, Collections.unmodifiableList( new ArrayList<>( itemsWritten ) ) );
+
+    }
+
+    /**
+     * Records that a member has finished validating and linking its revisions (successfully or not).
+     *
+     * @param itemsWritten the observable items written by the member if it committed and anyone subscribes to
+     *                     changes; null otherwise.
+     */
+    void finish( IVersionedItem[] itemsWritten ) {
+
+        if ( itemsWritten != null ) {
+            this.memberItemsWritten.add( itemsWritten );
+        }
+
+        this.finishedMemberCount.incrementAndGet();
+
+    }
+
+    /**
+     * @return the revision number shared by the members of the group.
+     */
+    long getRevisionNumber() {
+        return this.revisionNumber;
+    }
+
+    /**
+     * Determines whether a given transaction leads this group.
+     *
+     * @param transaction the transaction in question.
+     * @return true if the transaction opened the group.
+     */
+    boolean isLedBy( StmTransaction transaction ) {
+        return this.leader == transaction;
+    }
+
+    /**
+     * Sets the revision number reserved by the leader for the whole group.
+     *
+     * @param revisionNumber the newly reserved revision number.
+     */
+    void setRevisionNumber( long revisionNumber ) {
+        this.revisionNumber = revisionNumber;
+    }
+
+    /**
+     * Adds a member to the group if it is still open and has room.
+     *
+     * @return true if the caller has joined the group.
+     */
+    boolean tryJoin() {
+
+        int state = this.memberState.get();
+
+        while ( state < this.maxMemberCount ) {
+            if ( this.memberState.compareAndSet( state, state + 1 ) ) {
+                return true;
+            }
+            state = this.memberState.get();
+        }
+
+        // The group is sealed or full.
+        return false;
+
+    }
+
+    /**
+     * Flag in the member state marking a group closed to new members (large enough to exceed any member count).
+     */
+    private static final int SEALED = 1 << 30;
+
+    /**
+     * How long the leader pauses between checks of the window.
+     */
+    private static final long WINDOW_POLLING_NANOS = 10000L;
+
+    /**
+     * The number of members that have finished their part of the commit.
+     */
+    private final AtomicInteger finishedMemberCount;
+
+    /**
+     * The transaction that opened the group and publishes its revision.
+     */
+    private final StmTransaction leader;
+
+    /**
+     * The most transactions the group may hold.
+     */
+    private final int maxMemberCount;
+
+    /**
+     * The observable items written by each member that committed.
+     */
+    private final ConcurrentLinkedQueue<IVersionedItem[]> memberItemsWritten;
+
+    /**
+     * The number of members joined so far, plus the SEALED flag once the group is closed.
+     */
+    private final AtomicInteger memberState;
+
+    /**
+     * When the group was opened (System.nanoTime()).
+     */
+    private final long openedTime;
+
+    /**
+     * The revision number shared by the members (zero until the leader reserves it).
+     */
+    private volatile long revisionNumber;
+
+    /**
+     * How long the group stays open for more members.
+     */
+    private final long windowNanos;
+
+}
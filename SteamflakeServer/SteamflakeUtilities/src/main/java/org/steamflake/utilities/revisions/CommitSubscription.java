@@ -0,0 +1,124 @@
+package org.steamflake.utilities.revisions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A subscriber's registration for commit notifications. Committing transactions queue their change sets in a
+ * bounded ring buffer per subscription and never wait for the subscriber: when the buffer is full the change set is
+ * dropped for this subscriber and counted instead. Queued change sets are delivered by a task run on the
+ * subscription's executor, which keeps draining while more arrive.
+ */
+public final class CommitSubscription
+    implements AutoCloseable {
+
+    /**
+     * Constructs a new subscription.
+     *
+     * @param subscriber the callback receiving change sets.
+     * @param executor   the executor running the deliveries (should not run tasks in the calling thread).
+     * @param capacity   the number of change sets that may be queued before some are dropped.
+     */
+    CommitSubscription( ICommitSubscriber subscriber, Executor executor, int capacity ) {
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.changeSets = new RingBuffer<>( capacity );
+        this.droppedCount = new AtomicLong( 0L );
+        this.deliveryScheduled = new AtomicBoolean( false );
+    }
+
+    /**
+     * Stops further notifications. Change sets already queued may still be delivered.
+     */
+    @Override
+    public void close() {
+        StmTransaction.removeCommitSubscription( this );
+    }
+
+    /**
+     * Queues a change set for delivery without waiting. Called by committing transactions in revision order.
+     *
+     * @param changeSet the change set of a committed transaction.
+     */
+    void offer( StmChangeSet changeSet ) {
+        if ( !this.changeSets.offer( changeSet ) ) {
+            this.droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Starts a delivery task unless one is already running.
+     */
+    void scheduleDelivery() {
+        if ( this.deliveryScheduled.compareAndSet( false, true ) ) {
+            this.executor.execute( this::deliver );
+        }
+    }
+
+    /**
+     * Delivers queued change sets until none remain.
+     */
+    private void deliver() {
+
+        do {
+
+            try {
+
+                // Report any gap first.
+                long dropped = this.droppedCount.getAndSet( 0L );
+                if ( dropped > 0L ) {
+                    this.subscriber.onChangeSetsDropped( dropped );
+                }
+
+                for ( StmChangeSet changeSet = this.changeSets.poll(); changeSet != null; changeSet = this.changeSets.poll() ) {
+                    this.subscriber.onCommit( changeSet );
+                }
+
+            }
+            catch ( RuntimeException e ) {
+                LOG.error( "Commit subscriber failed.", e );
+            }
+            finally {
+                this.deliveryScheduled.set( false );
+            }
+
+            // Go around again if something arrived after the last poll but before the flag was cleared.
+        } while ( ( !this.changeSets.isEmpty() || this.droppedCount.get() > 0L ) && this.deliveryScheduled.compareAndSet( false, true ) );
+
+    }
+
+    /**
+     * The change sets awaiting delivery.
+     */
+    private final RingBuffer<StmChangeSet> changeSets;
+
+    /**
+     * Whether a delivery task is running or about to run.
+     */
+    private final AtomicBoolean deliveryScheduled;
+
+    /**
+     * The number of change sets dropped since the last delivery.
+     */
+    private final AtomicLong droppedCount;
+
+    /**
+     * The executor running the deliveries.
+     */
+    private final Executor executor;
+
+    /**
+     * The callback receiving change sets.
+     */
+    private final ICommitSubscriber subscriber;
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+}
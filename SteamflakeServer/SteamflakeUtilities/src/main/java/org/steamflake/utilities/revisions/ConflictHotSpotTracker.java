@@ -0,0 +1,131 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sampled tally of the versioned items found in write conflicts. Only one conflict in every so many is counted, and
+ * only a bounded number of distinct items is tracked, so the cost stays low however hot the contention. Items are
+ * reported as the observable items they belong to (e.g. a whole VQueue rather than one of its cells) and are held
+ * until the tally is reset.
+ */
+final class ConflictHotSpotTracker {
+
+    /**
+     * Constructs a new empty tracker.
+     */
+    ConflictHotSpotTracker() {
+        this.conflictCounts = new ConcurrentHashMap<>();
+        this.samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+    }
+
+    /**
+     * Lists the items found in the most conflicts sampled.
+     *
+     * @param limit the most items to list.
+     * @return the sampled conflict counts of the items, from the highest count down.
+     */
+    Map<IVersionedItem, Long> getHotSpots( int limit ) {
+
+        // Take a stable copy of the counts.
+        List<Map.Entry<IVersionedItem, Long>> entries = new ArrayList<>();
+        for ( Map.Entry<IVersionedItem, LongAdder> entry : this.conflictCounts.entrySet() ) {
+            entries.add( new AbstractMap.SimpleImmutableEntry<>( entry.getKey(), entry.getValue().sum() ) );
+        }
+
+        entries.sort( ( entry1, entry2 ) -> Long.compare( entry2.getValue(), entry1.getValue() ) );
+
+        Map<IVersionedItem, Long> result = new LinkedHashMap<>();
+        for ( Map.Entry<IVersionedItem, Long> entry : entries ) {
+            if ( result.size() >= limit ) {
+                break;
+            }
+            result.put( entry.getKey(), entry.getValue() );
+        }
+
+        return result;
+
+    }
+
+    /**
+     * @return how many conflicts pass for each one counted.
+     */
+    int getSamplingInterval() {
+        return this.samplingInterval;
+    }
+
+    /**
+     * Counts a conflict if it falls in the sample.
+     *
+     * @param versionedItem the item found in conflict (null if unknown).
+     */
+    void recordConflict( AbstractVersionedItem versionedItem ) {
+
+        if ( versionedItem == null ) {
+            return;
+        }
+
+        // Skip all but a random sample.
+        int interval = this.samplingInterval;
+        if ( interval > 1 && ThreadLocalRandom.current().nextInt( interval ) != 0 ) {
+            return;
+        }
+
+        IVersionedItem item = versionedItem.getObservableItem();
+
+        // Stop taking on new items once at capacity.
+        LongAdder count = this.conflictCounts.get( item );
+        if ( count == null ) {
+            if ( this.conflictCounts.size() >= MAX_TRACKED_ITEMS ) {
+                return;
+            }
+            count = this.conflictCounts.computeIfAbsent( item, key -> new LongAdder() );
+        }
+
+        count.increment();
+
+    }
+
+    /**
+     * Forgets all conflicts counted (and the items involved).
+     */
+    void reset() {
+        this.conflictCounts.clear();
+    }
+
+    /**
+     * Changes how many conflicts pass for each one counted.
+     *
+     * @param samplingInterval the sampling interval (one to count every conflict).
+     */
+    void setSamplingInterval( int samplingInterval ) {
+        this.samplingInterval = samplingInterval;
+    }
+
+    /**
+     * By default, one conflict in this many is counted.
+     */
+    private static final int DEFAULT_SAMPLING_INTERVAL = 8;
+
+    /**
+     * The most distinct items tracked.
+     */
+    private static final int MAX_TRACKED_ITEMS = 1024;
+
+    /**
+     * The sampled number of conflicts for each item.
+     */
+    private final ConcurrentHashMap<IVersionedItem, LongAdder> conflictCounts;
+
+    /**
+     * How many conflicts pass for each one counted.
+     */
+    private volatile int samplingInterval;
+
+}
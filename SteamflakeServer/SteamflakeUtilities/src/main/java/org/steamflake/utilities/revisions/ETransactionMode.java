@@ -0,0 +1,31 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Mode of a transaction.
+ */
+public enum ETransactionMode {
+
+    /**
+     * The transaction may read and write versioned items; commit validates everything read.
+     */
+    READ_WRITE,
+
+    /**
+     * The transaction reads a fixed snapshot with no read tracking or commit validation; writes are not allowed.
+     */
+    READ_ONLY,
+
+    /**
+     * The transaction may read and write versioned items; commit validates only the items written (plus any read
+     * items passed to ensureUnchanged), so concurrent changes to other items read do not cause conflicts.
+     */
+    SNAPSHOT_ISOLATION,
+
+    /**
+     * The transaction holds the exclusive commit token: no other transaction commits while it runs, so it cannot
+     * conflict, and it neither tracks nor validates what it reads. It has no deadline. Every other transaction trying
+     * to commit meanwhile blocks until it finishes, then validates as usual (conflicting if it wrote what they read).
+     */
+    IRREVOCABLE;
+
+}
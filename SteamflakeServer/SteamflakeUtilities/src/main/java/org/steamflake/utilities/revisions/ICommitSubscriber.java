@@ -0,0 +1,24 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Callback interface for observers of committed transactions. Calls to one subscriber come from its executor one at
+ * a time, in the order of revision numbers.
+ */
+public interface ICommitSubscriber {
+
+    /**
+     * Receives the changes made by one committed transaction.
+     *
+     * @param changeSet the revision number and the versioned items written by the transaction.
+     */
+    void onCommit( StmChangeSet changeSet );
+
+    /**
+     * Learns that change sets were dropped because this subscriber fell too far behind. Any state derived from the
+     * change sets (e.g. a cache) must be treated as stale.
+     *
+     * @param droppedCount the number of change sets dropped since the last delivery.
+     */
+    void onChangeSetsDropped( long droppedCount );
+
+}
@@ -0,0 +1,39 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Service provider interface for deciding what happens when transactions conflict. A contention policy is consulted
+ * by StmTransactionContext.doInTransaction before each attempt of a transactional task and after each write
+ * conflict, and by a committing transaction that finds an item it wrote locked by another committing transaction.
+ * Policies are shared by all threads and must be thread safe.
+ */
+public interface IContentionPolicy {
+
+    /**
+     * Called after an attempt of a transactional task ends in a write conflict and before the next attempt. Typically
+     * pauses to let the conflicting transactions finish.
+     *
+     * @param attempt the zero-based number of the attempt that failed.
+     */
+    void afterWriteConflict( int attempt );
+
+    /**
+     * Called before each attempt of a transactional task. May block.
+     *
+     * @param attempt the zero-based number of the attempt about to start (also the number of earlier write conflicts).
+     * @return true if the attempt is to run irrevocably, i.e. holding the exclusive commit token so that it cannot
+     * conflict with any other transaction.
+     */
+    boolean beforeAttempt( int attempt );
+
+    /**
+     * Decides whether a committing transaction that finds the commit lock of an item it wrote held by another
+     * committing transaction waits for the lock or else aborts. (Commit locks are acquired in a global order, so
+     * waiting cannot deadlock.)
+     *
+     * @param startTime       the time (System.nanoTime()) when the first attempt of the waiting task started.
+     * @param holderStartTime the time when the first attempt of the lock holder's task started.
+     * @return true to wait; false to abort with a write conflict.
+     */
+    boolean shouldWaitForCommitLock( long startTime, long holderStartTime );
+
+}
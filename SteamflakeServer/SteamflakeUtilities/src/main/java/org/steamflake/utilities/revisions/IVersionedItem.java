@@ -0,0 +1,17 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Common interface of all versioned items (V, VMap, VSet, VList, and the primitive cells). Versioned items are
+ * identified by identity; a change set lists the versioned items written by a committed transaction.
+ */
+public interface IVersionedItem {
+
+    /**
+     * Requires that this item not be changed by any other transaction committing between the start and the commit of
+     * the current transaction. Transactions in snapshot isolation mode otherwise validate only the items they write;
+     * this restores serializability for reads that need it. (In a read-write transaction every item read is already
+     * validated; in a read-only transaction there is nothing to validate.)
+     */
+    void ensureUnchanged();
+
+}
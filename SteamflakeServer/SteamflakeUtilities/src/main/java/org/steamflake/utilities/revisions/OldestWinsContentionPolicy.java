@@ -0,0 +1,27 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Contention policy giving priority to the transactional task that started first. A task keeps the time stamp of
+ * its first attempt across retries, so a task that keeps losing grows older than its competitors and eventually
+ * wins. At commit time an older transaction waits for a commit lock held by a younger one instead of aborting.
+ */
+public final class OldestWinsContentionPolicy
+    implements IContentionPolicy {
+
+    @Override
+    public void afterWriteConflict( int attempt ) {
+        // Just let the winner finish.
+        Thread.yield();
+    }
+
+    @Override
+    public boolean beforeAttempt( int attempt ) {
+        return false;
+    }
+
+    @Override
+    public boolean shouldWaitForCommitLock( long startTime, long holderStartTime ) {
+        return startTime - holderStartTime < 0;
+    }
+
+}
@@ -0,0 +1,595 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable hash map implemented as a hash array mapped trie (HAMT). Each node branches 32 ways on five bits of
+ * the key's hash code. An update copies only the nodes on the path to the changed entry and shares every other node
+ * with the original map, so both look ups and updates take O(log32 n) time. Keys and values must not be null.
+ *
+ * @param <K> the type of the keys.
+ * @param <T> the type of the values.
+ */
+final class PersistentHashMap<K, T>
+    implements Iterable<Map.Entry<K, T>> {
+
+    /**
+     * Constructs a new map with given root node.
+     *
+     * @param root the root of the trie.
+     * @param size the number of entries in the trie.
+     */
+    private PersistentHashMap( Node root, int size ) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return the (shared) empty map.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, T> PersistentHashMap<K, T> empty() {
+        return (PersistentHashMap<K, T>) EMPTY;
+    }
+
+    /**
+     * Determines whether the map contains a given key.
+     *
+     * @param key the key to look for.
+     * @return true if the key is present.
+     */
+    boolean containsKey( Object key ) {
+        return this.root.find( hashOf( key ), 0, key ) != NOT_FOUND;
+    }
+
+    /**
+     * Looks up the value for a given key.
+     *
+     * @param key the key to look for.
+     * @return the value found or null if the key is not present.
+     */
+    @SuppressWarnings("unchecked")
+    T get( Object key ) {
+        Object result = this.root.find( hashOf( key ), 0, key );
+        return result == NOT_FOUND ? null : (T) result;
+    }
+
+    /**
+     * @return whether the map has no entries.
+     */
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return an iterator over the entries of the map in hash order.
+     */
+    @Override
+    public Iterator<Map.Entry<K, T>> iterator() {
+        return new TrieIterator<>( this.root, false );
+    }
+
+    /**
+     * @return an unmodifiable set view of the keys of this map.
+     */
+    Set<K> keySet() {
+        return new KeySetView<>( this );
+    }
+
+    /**
+     * @return the number of entries in the map.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Makes a map with one entry added or replaced.
+     *
+     * @param key   the key of the entry.
+     * @param value the value of the entry.
+     * @return the new map (or this map if the entry was already present).
+     */
+    PersistentHashMap<K, T> with( K key, T value ) {
+
+        Objects.requireNonNull( key );
+        Objects.requireNonNull( value );
+
+        boolean[] added = new boolean[1];
+        Node newRoot = this.root.with( hashOf( key ), 0, key, value, added );
+
+        if ( newRoot == this.root ) {
+            return this;
+        }
+
+        return new PersistentHashMap<>( newRoot, added[0] ? this.size + 1 : this.size );
+
+    }
+
+    /**
+     * Makes a map with one entry removed.
+     *
+     * @param key the key of the entry to remove.
+     * @return the new map (or this map if the key was not present).
+     */
+    PersistentHashMap<K, T> without( Object key ) {
+
+        Node newRoot = this.root.without( hashOf( key ), 0, key );
+
+        if ( newRoot == this.root ) {
+            return this;
+        }
+
+        if ( newRoot == null ) {
+            return empty();
+        }
+
+        return new PersistentHashMap<>( newRoot, this.size - 1 );
+
+    }
+
+    /**
+     * Computes the position within a node's bitmap for the given hash at the given level.
+     */
+    private static int bitPosition( int hash, int shift ) {
+        return 1 << ( ( hash >>> shift ) & 0x1f );
+    }
+
+    /**
+     * Copies an array with one element changed.
+     */
+    private static Object[] copyAndSet( Object[] array, int index, Object element ) {
+        Object[] result = array.clone();
+        result[index] = element;
+        return result;
+    }
+
+    /**
+     * Computes the hash code for a key, spreading higher bits into the lower bits used first by the trie.
+     */
+    private static int hashOf( Object key ) {
+        int h = key.hashCode();
+        return h ^ ( h >>> 16 );
+    }
+
+    /**
+     * Builds a node holding two entries with different keys.
+     */
+    private static Node makeNode( int shift, Object key1, Object value1, int hash2, Object key2, Object value2 ) {
+
+        int hash1 = hashOf( key1 );
+
+        if ( hash1 == hash2 ) {
+            return new CollisionNode( hash1, new Object[]{key1, value1, key2, value2} );
+        }
+
+        boolean[] added = new boolean[1];
+        return BitmapIndexedNode.EMPTY
+            .with( hash1, shift, key1, value1, added )
+            .with( hash2, shift, key2, value2, added );
+
+    }
+
+    /**
+     * Node of the trie. Entries are kept in an array of pairs: a key and its value, or else null and a child node.
+     */
+    private abstract static class Node {
+
+        /**
+         * Constructs a node with given array of pairs.
+         */
+        Node( Object[] array ) {
+            this.array = array;
+        }
+
+        /**
+         * Looks up the value for a key.
+         *
+         * @return the value found or NOT_FOUND.
+         */
+        abstract Object find( int hash, int shift, Object key );
+
+        /**
+         * Makes a node with an entry added or replaced; sets added[0] if the entry is new.
+         *
+         * @return the new node or this node if unchanged.
+         */
+        abstract Node with( int hash, int shift, Object key, Object value, boolean[] added );
+
+        /**
+         * Makes a node with an entry removed.
+         *
+         * @return the new node, this node if unchanged, or null if the node became empty.
+         */
+        abstract Node without( int hash, int shift, Object key );
+
+        /**
+         * The key/value or null/child pairs of this node.
+         */
+        final Object[] array;
+
+    }
+
+    /**
+     * Interior node with a bitmap of which of its 32 branches are occupied.
+     */
+    private static final class BitmapIndexedNode
+        extends Node {
+
+        BitmapIndexedNode( int bitmap, Object[] array ) {
+            super( array );
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object find( int hash, int shift, Object key ) {
+
+            int bit = bitPosition( hash, shift );
+            if ( ( this.bitmap & bit ) == 0 ) {
+                return NOT_FOUND;
+            }
+
+            int index = this.indexOf( bit );
+            Object keyOrNull = this.array[2 * index];
+            Object valueOrNode = this.array[2 * index + 1];
+
+            if ( keyOrNull == null ) {
+                return ( (Node) valueOrNode ).find( hash, shift + 5, key );
+            }
+
+            if ( key.equals( keyOrNull ) ) {
+                return valueOrNode;
+            }
+
+            return NOT_FOUND;
+
+        }
+
+        @Override
+        Node with( int hash, int shift, Object key, Object value, boolean[] added ) {
+
+            int bit = bitPosition( hash, shift );
+            int index = this.indexOf( bit );
+
+            // Branch not yet occupied: insert a new pair.
+            if ( ( this.bitmap & bit ) == 0 ) {
+                int count = Integer.bitCount( this.bitmap );
+                Object[] newArray = new Object[2 * ( count + 1 )];
+                System.arraycopy( this.array, 0, newArray, 0, 2 * index );
+                newArray[2 * index] = key;
+                newArray[2 * index + 1] = value;
+                System.arraycopy( this.array, 2 * index, newArray, 2 * ( index + 1 ), 2 * ( count - index ) );
+                added[0] = true;
+                return new BitmapIndexedNode( this.bitmap | bit, newArray );
+            }
+
+            Object keyOrNull = this.array[2 * index];
+            Object valueOrNode = this.array[2 * index + 1];
+
+            // Child node: recurse.
+            if ( keyOrNull == null ) {
+                Node newChild = ( (Node) valueOrNode ).with( hash, shift + 5, key, value, added );
+                if ( newChild == valueOrNode ) {
+                    return this;
+                }
+                return new BitmapIndexedNode( this.bitmap, copyAndSet( this.array, 2 * index + 1, newChild ) );
+            }
+
+            // Same key: replace the value.
+            if ( key.equals( keyOrNull ) ) {
+                if ( value == valueOrNode ) {
+                    return this;
+                }
+                return new BitmapIndexedNode( this.bitmap, copyAndSet( this.array, 2 * index + 1, value ) );
+            }
+
+            // Different key in the same branch: push both down into a new child.
+            Object[] newArray = this.array.clone();
+            newArray[2 * index] = null;
+            newArray[2 * index + 1] = makeNode( shift + 5, keyOrNull, valueOrNode, hash, key, value );
+            added[0] = true;
+            return new BitmapIndexedNode( this.bitmap, newArray );
+
+        }
+
+        @Override
+        Node without( int hash, int shift, Object key ) {
+
+            int bit = bitPosition( hash, shift );
+            if ( ( this.bitmap & bit ) == 0 ) {
+                return this;
+            }
+
+            int index = this.indexOf( bit );
+            Object keyOrNull = this.array[2 * index];
+            Object valueOrNode = this.array[2 * index + 1];
+
+            if ( keyOrNull == null ) {
+                Node newChild = ( (Node) valueOrNode ).without( hash, shift + 5, key );
+                if ( newChild == valueOrNode ) {
+                    return this;
+                }
+                if ( newChild != null ) {
+                    return new BitmapIndexedNode( this.bitmap, copyAndSet( this.array, 2 * index + 1, newChild ) );
+                }
+            }
+            else if ( !key.equals( keyOrNull ) ) {
+                return this;
+            }
+
+            // Remove the pair altogether.
+            if ( this.bitmap == bit ) {
+                return null;
+            }
+
+            Object[] newArray = new Object[this.array.length - 2];
+            System.arraycopy( this.array, 0, newArray, 0, 2 * index );
+            System.arraycopy( this.array, 2 * ( index + 1 ), newArray, 2 * index, newArray.length - 2 * index );
+            return new BitmapIndexedNode( this.bitmap ^ bit, newArray );
+
+        }
+
+        /**
+         * Computes the position in the array of pairs for a given occupied branch.
+         */
+        private int indexOf( int bit ) {
+            return Integer.bitCount( this.bitmap & ( bit - 1 ) );
+        }
+
+        /**
+         * The empty node.
+         */
+        static final BitmapIndexedNode EMPTY = new BitmapIndexedNode( 0, new Object[0] );
+
+        /**
+         * Which of the 32 branches are occupied.
+         */
+        private final int bitmap;
+
+    }
+
+    /**
+     * Leaf node holding entries whose keys have identical hash codes.
+     */
+    private static final class CollisionNode
+        extends Node {
+
+        CollisionNode( int hash, Object[] array ) {
+            super( array );
+            this.hash = hash;
+        }
+
+        @Override
+        Object find( int hash, int shift, Object key ) {
+
+            int index = this.indexOf( key );
+            if ( index < 0 ) {
+                return NOT_FOUND;
+            }
+
+            return this.array[index + 1];
+
+        }
+
+        @Override
+        Node with( int hash, int shift, Object key, Object value, boolean[] added ) {
+
+            // A different hash code means this node must move down under a new interior node.
+            if ( hash != this.hash ) {
+                return new BitmapIndexedNode( bitPosition( this.hash, shift ), new Object[]{null, this} )
+                    .with( hash, shift, key, value, added );
+            }
+
+            int index = this.indexOf( key );
+
+            if ( index >= 0 ) {
+                if ( value == this.array[index + 1] ) {
+                    return this;
+                }
+                return new CollisionNode( this.hash, copyAndSet( this.array, index + 1, value ) );
+            }
+
+            Object[] newArray = new Object[this.array.length + 2];
+            System.arraycopy( this.array, 0, newArray, 0, this.array.length );
+            newArray[this.array.length] = key;
+            newArray[this.array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode( this.hash, newArray );
+
+        }
+
+        @Override
+        Node without( int hash, int shift, Object key ) {
+
+            int index = this.indexOf( key );
+            if ( index < 0 ) {
+                return this;
+            }
+
+            if ( this.array.length == 2 ) {
+                return null;
+            }
+
+            Object[] newArray = new Object[this.array.length - 2];
+            System.arraycopy( this.array, 0, newArray, 0, index );
+            System.arraycopy( this.array, index + 2, newArray, index, newArray.length - index );
+            return new CollisionNode( this.hash, newArray );
+
+        }
+
+        /**
+         * Finds the array position of a given key.
+         *
+         * @return the index of the key or -1 if not present.
+         */
+        private int indexOf( Object key ) {
+            for ( int i = 0; i < this.array.length; i += 2 ) {
+                if ( key.equals( this.array[i] ) ) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * The hash code shared by all the keys.
+         */
+        private final int hash;
+
+    }
+
+    /**
+     * Unmodifiable set view of the keys of a map.
+     */
+    private static final class KeySetView<K>
+        extends AbstractSet<K> {
+
+        KeySetView( PersistentHashMap<K, ?> map ) {
+            this.map = map;
+        }
+
+        @Override
+        public boolean contains( Object key ) {
+            return key != null && this.map.containsKey( key );
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new TrieIterator<>( this.map.root, true );
+        }
+
+        @Override
+        public int size() {
+            return this.map.size;
+        }
+
+        /**
+         * The map viewed.
+         */
+        private final PersistentHashMap<K, ?> map;
+
+    }
+
+    /**
+     * Depth-first iterator over the keys or the entries of a trie.
+     */
+    private static final class TrieIterator<E>
+        implements Iterator<E> {
+
+        TrieIterator( Node root, boolean keysOnly ) {
+            this.keysOnly = keysOnly;
+            this.arrays = new Object[MAX_DEPTH][];
+            this.positions = new int[MAX_DEPTH];
+            this.depth = 0;
+            this.arrays[0] = root.array;
+            this.positions[0] = 0;
+            this.advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.depth >= 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public E next() {
+
+            if ( this.depth < 0 ) {
+                throw new NoSuchElementException();
+            }
+
+            Object[] array = this.arrays[this.depth];
+            int position = this.positions[this.depth];
+            E result = this.keysOnly ? (E) array[position] : (E) new AbstractMap.SimpleImmutableEntry<>( array[position], array[position + 1] );
+
+            this.positions[this.depth] = position + 2;
+            this.advance();
+
+            return result;
+
+        }
+
+        /**
+         * Moves to the next key/value pair (or sets depth to -1 when there are none left).
+         */
+        private void advance() {
+
+            while ( this.depth >= 0 ) {
+
+                Object[] array = this.arrays[this.depth];
+                int position = this.positions[this.depth];
+
+                if ( position >= array.length ) {
+                    // Done with this node; pop back to its parent.
+                    this.depth -= 1;
+                }
+                else if ( array[position] == null ) {
+                    // Descend into a child node.
+                    this.positions[this.depth] = position + 2;
+                    this.depth += 1;
+                    this.arrays[this.depth] = ( (Node) array[position + 1] ).array;
+                    this.positions[this.depth] = 0;
+                }
+                else {
+                    return;
+                }
+
+            }
+
+        }
+
+        /**
+         * Deepest possible trie: seven levels of five bits each, plus a collision node.
+         */
+        private static final int MAX_DEPTH = 8;
+
+        /**
+         * The arrays of pairs of the nodes on the path to the current entry.
+         */
+        private final Object[][] arrays;
+
+        /**
+         * The index of the topmost node on the path.
+         */
+        private int depth;
+
+        /**
+         * Whether to iterate just the keys instead of whole entries.
+         */
+        private final boolean keysOnly;
+
+        /**
+         * The position within each node on the path.
+         */
+        private final int[] positions;
+
+    }
+
+    /**
+     * The empty map.
+     */
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<>( BitmapIndexedNode.EMPTY, 0 );
+
+    /**
+     * Sentinel for a key not found (distinct from any value).
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * The root node of the trie.
+     */
+    private final Node root;
+
+    /**
+     * The number of entries in the map.
+     */
+    private final int size;
+
+}
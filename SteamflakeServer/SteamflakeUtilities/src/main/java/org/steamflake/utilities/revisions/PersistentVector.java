@@ -0,0 +1,307 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Immutable vector implemented as a 32-way trie of arrays with a separate tail array. Appending copies at most the
+ * tail plus one path of the trie, sharing everything else with the original vector; indexed reads are O(log32 n).
+ * Elements must not be null.
+ *
+ * @param <T> the type of the elements.
+ */
+final class PersistentVector<T>
+    implements Iterable<T> {
+
+    /**
+     * Constructs a vector with given trie.
+     *
+     * @param size  the number of elements.
+     * @param shift the bit shift of the root level of the trie.
+     * @param root  the root of the trie (holding all but the tail).
+     * @param tail  the last 1 to 32 elements (or none for an empty vector).
+     */
+    private PersistentVector( int size, int shift, Object[] root, Object[] tail ) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * @return the (shared) empty vector.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    /**
+     * @return an unmodifiable list view of this vector.
+     */
+    List<T> asList() {
+        return new ListView<>( this );
+    }
+
+    /**
+     * Reads one element.
+     *
+     * @param index the index of the element.
+     * @return the element at the given index.
+     */
+    @SuppressWarnings("unchecked")
+    T get( int index ) {
+
+        if ( index < 0 || index >= this.size ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + this.size );
+        }
+
+        return (T) this.arrayFor( index )[index & 0x1f];
+
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new ElementIterator<>( this );
+    }
+
+    /**
+     * @return the number of elements.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Makes a vector with one more element at the end.
+     *
+     * @param element the element to append.
+     * @return the new vector.
+     */
+    PersistentVector<T> with( T element ) {
+
+        Objects.requireNonNull( element );
+
+        // Room in the tail: copy just the tail.
+        if ( this.size - this.tailOffset() < 32 ) {
+            Object[] newTail = new Object[this.tail.length + 1];
+            System.arraycopy( this.tail, 0, newTail, 0, this.tail.length );
+            newTail[this.tail.length] = element;
+            return new PersistentVector<>( this.size + 1, this.shift, this.root, newTail );
+        }
+
+        // Full tail: push it into the trie, growing a new root level if the trie is full.
+        Object[] newRoot;
+        int newShift = this.shift;
+        if ( ( this.size >>> 5 ) > ( 1 << this.shift ) ) {
+            newRoot = new Object[32];
+            newRoot[0] = this.root;
+            newRoot[1] = newPath( this.shift, this.tail );
+            newShift += 5;
+        }
+        else {
+            newRoot = this.pushTail( this.shift, this.root, this.tail );
+        }
+
+        return new PersistentVector<>( this.size + 1, newShift, newRoot, new Object[]{element} );
+
+    }
+
+    /**
+     * Makes a vector with every occurrence of a given element removed. (Finding the occurrences requires a scan
+     * anyway, so the remaining elements are simply appended to a fresh vector.)
+     *
+     * @param element the element to remove.
+     * @return the new vector (or this vector if the element was not present).
+     */
+    PersistentVector<T> withoutAll( Object element ) {
+
+        PersistentVector<T> result = empty();
+        boolean found = false;
+
+        for ( T e : this ) {
+            if ( e.equals( element ) ) {
+                found = true;
+            }
+            else {
+                result = result.with( e );
+            }
+        }
+
+        return found ? result : this;
+
+    }
+
+    /**
+     * Finds the leaf array holding the element with given index.
+     */
+    private Object[] arrayFor( int index ) {
+
+        if ( index >= this.tailOffset() ) {
+            return this.tail;
+        }
+
+        Object[] node = this.root;
+        for ( int level = this.shift; level > 0; level -= 5 ) {
+            node = (Object[]) node[( index >>> level ) & 0x1f];
+        }
+
+        return node;
+
+    }
+
+    /**
+     * Builds a chain of single-child nodes down to a given leaf.
+     */
+    private static Object[] newPath( int level, Object[] node ) {
+
+        if ( level == 0 ) {
+            return node;
+        }
+
+        Object[] result = new Object[32];
+        result[0] = newPath( level - 5, node );
+        return result;
+
+    }
+
+    /**
+     * Copies the path to the last leaf of the trie with the given full tail added as a new leaf.
+     */
+    private Object[] pushTail( int level, Object[] parent, Object[] tailNode ) {
+
+        int subIndex = ( ( this.size - 1 ) >>> level ) & 0x1f;
+        Object[] result = parent.clone();
+
+        if ( level == 5 ) {
+            result[subIndex] = tailNode;
+        }
+        else {
+            Object[] child = (Object[]) parent[subIndex];
+            result[subIndex] = child != null ? this.pushTail( level - 5, child, tailNode ) : newPath( level - 5, tailNode );
+        }
+
+        return result;
+
+    }
+
+    /**
+     * @return the index of the first element in the tail.
+     */
+    private int tailOffset() {
+        return this.size < 32 ? 0 : ( ( this.size - 1 ) >>> 5 ) << 5;
+    }
+
+    /**
+     * Iterator stepping through the leaf arrays in order.
+     */
+    private static final class ElementIterator<T>
+        implements Iterator<T> {
+
+        ElementIterator( PersistentVector<T> vector ) {
+            this.vector = vector;
+            this.index = 0;
+            this.array = vector.size > 0 ? vector.arrayFor( 0 ) : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.index < this.vector.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+
+            if ( this.index >= this.vector.size ) {
+                throw new NoSuchElementException();
+            }
+
+            if ( this.index > 0 && ( this.index & 0x1f ) == 0 ) {
+                this.array = this.vector.arrayFor( this.index );
+            }
+
+            T result = (T) this.array[this.index & 0x1f];
+            this.index += 1;
+            return result;
+
+        }
+
+        /**
+         * The leaf array holding the next element.
+         */
+        private Object[] array;
+
+        /**
+         * The index of the next element.
+         */
+        private int index;
+
+        /**
+         * The vector iterated.
+         */
+        private final PersistentVector<T> vector;
+
+    }
+
+    /**
+     * Unmodifiable list view of a vector.
+     */
+    private static final class ListView<T>
+        extends AbstractList<T> {
+
+        ListView( PersistentVector<T> vector ) {
+            this.vector = vector;
+        }
+
+        @Override
+        public T get( int index ) {
+            return this.vector.get( index );
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return this.vector.iterator();
+        }
+
+        @Override
+        public int size() {
+            return this.vector.size;
+        }
+
+        /**
+         * The vector viewed.
+         */
+        private final PersistentVector<T> vector;
+
+    }
+
+    /**
+     * The empty vector.
+     */
+    private static final PersistentVector<Object> EMPTY = new PersistentVector<>( 0, 5, new Object[32], new Object[0] );
+
+    /**
+     * The root of the trie.
+     */
+    private final Object[] root;
+
+    /**
+     * The bit shift of the root level of the trie.
+     */
+    private final int shift;
+
+    /**
+     * The number of elements.
+     */
+    private final int size;
+
+    /**
+     * The last 1 to 32 elements.
+     */
+    private final Object[] tail;
+
+}
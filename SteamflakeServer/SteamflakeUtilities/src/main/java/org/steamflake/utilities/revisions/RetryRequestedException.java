@@ -0,0 +1,16 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Exception signaling that a transactional task has called StmTransactionContext.retry: the attempt is to be
+ * abandoned and run again once something it read has changed.
+ */
+class RetryRequestedException
+    extends RuntimeException {
+
+    /**
+     * Constructs a new retry request.
+     */
+    RetryRequestedException() {
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A thread parked after its transaction called StmTransactionContext.retry, waiting for another transaction to commit
+ * a change to one of the items it read.
+ */
+final class RetryWaiter {
+
+    /**
+     * Constructs a new waiter for the current thread.
+     *
+     * @param itemsRead the items read by the retrying transaction (copied, since the transaction is about to abort).
+     */
+    RetryWaiter( Collection<AbstractVersionedItem> itemsRead ) {
+        this.itemsWatched = itemsRead.toArray( new AbstractVersionedItem[itemsRead.size()] );
+        this.thread = Thread.currentThread();
+        this.woken = false;
+    }
+
+    /**
+     * Parks the waiting thread until woken.
+     *
+     * @throws CancellationException if the thread is interrupted while waiting (leaving it interrupted).
+     */
+    void await() {
+
+        while ( !this.woken ) {
+
+            LockSupport.park( this );
+
+            if ( Thread.currentThread().isInterrupted() ) {
+                throw new CancellationException( "Interrupted while waiting to retry a transaction." );
+            }
+
+        }
+
+    }
+
+    /**
+     * @return the items whose change wakes this waiter.
+     */
+    AbstractVersionedItem[] getItemsWatched() {
+        return this.itemsWatched;
+    }
+
+    /**
+     * Wakes the waiting thread (if not already woken).
+     */
+    void wake() {
+        if ( !this.woken ) {
+            this.woken = true;
+            LockSupport.unpark( this.thread );
+        }
+    }
+
+    /**
+     * The items whose change wakes this waiter.
+     */
+    private final AbstractVersionedItem[] itemsWatched;
+
+    /**
+     * The waiting thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Whether a change has been seen.
+     */
+    private volatile boolean woken;
+
+}
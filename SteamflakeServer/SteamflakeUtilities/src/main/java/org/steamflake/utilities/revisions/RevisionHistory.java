@@ -0,0 +1,282 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Retention policy and bookkeeping for historical revisions kept for time-travel reads. Superseded revisions are
+ * normally reclaimed as soon as no running transaction needs them; while history is retained, reclamation also
+ * spares the revisions needed to read as of any of the most recent revisions (bounded by count and optionally by
+ * age). The oldest retained revision number only ever advances as the revision reclaimer trims the history.
+ */
+final class RevisionHistory {
+
+    /**
+     * Constructs a new history retaining nothing.
+     */
+    RevisionHistory() {
+        this.oldestRetainedRevisionNumber = new AtomicLong( 0L );
+        this.retention = new Retention( 0, Long.MAX_VALUE );
+        this.configuredRetention = this.retention;
+    }
+
+    /**
+     * Advances the oldest retained revision as far as the retention policy allows.
+     *
+     * @param lastCommittedRevisionNumber the latest committed revision number.
+     * @return the oldest revision that must remain readable.
+     */
+    long advanceOldestRetainedRevisionNumber( long lastCommittedRevisionNumber ) {
+
+        Retention retention = this.retention;
+        long result = this.oldestRetainedRevisionNumber.get();
+
+        // Keep no more than the retained number of revisions.
+        long candidate = Math.max( result, lastCommittedRevisionNumber - retention.revisionCount );
+
+        // Keep nothing older than needed to read as of the start of the age window.
+        if ( retention.maxAgeMillis != Long.MAX_VALUE ) {
+            long cutoffTime = System.currentTimeMillis() - retention.maxAgeMillis;
+            while ( candidate < lastCommittedRevisionNumber && retention.getCommitTime( candidate + 1 ) <= cutoffTime ) {
+                candidate += 1;
+            }
+        }
+
+        // Never move backwards (another thread may have advanced further meanwhile).
+        while ( candidate > result ) {
+            if ( this.oldestRetainedRevisionNumber.compareAndSet( result, candidate ) ) {
+                return candidate;
+            }
+            result = this.oldestRetainedRevisionNumber.get();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Changes the retention policy, effective with the next commit. Revisions already reclaimed stay gone; a longer
+     * window fills up as new revisions are committed.
+     *
+     * @param revisionCount the number of most recent revisions to keep readable (zero to retain no history).
+     * @param maxAgeMillis  the age beyond which revisions need not be kept readable (Long.MAX_VALUE for no limit).
+     */
+    void configure( int revisionCount, long maxAgeMillis ) {
+        this.configuredRetention = new Retention( revisionCount, maxAgeMillis );
+    }
+
+    /**
+     * Finds the latest revision committed at or before a given time.
+     *
+     * @param epochMillis                 the time of interest.
+     * @param lastCommittedRevisionNumber the source of the latest committed revision number.
+     * @return the revision number current at the given time.
+     * @throws IllegalArgumentException if the time is older than the history retained.
+     * @throws IllegalStateException    if no history is retained.
+     */
+    long findRevisionNumberAsOf( long epochMillis, LongSupplier lastCommittedRevisionNumber ) {
+
+        while ( true ) {
+
+            if ( this.configuredRetention.revisionCount == 0 ) {
+                throw new IllegalStateException( "No revision history is retained." );
+            }
+
+            // Fail if history has been configured but no commit has adopted it yet.
+            Retention retention = this.retention;
+            if ( retention.revisionCount == 0 ) {
+                throw new IllegalArgumentException( "No revision retained as of time " + epochMillis + "." );
+            }
+
+            long high = lastCommittedRevisionNumber.getAsLong();
+
+            // Search only revisions whose commit times are still in the ring: the oldest retained revision lags
+            // behind between reclaimer passes while commits keep overwriting the oldest times. (The ring holds
+            // more than twice the retained count, leaving room for the commit in progress and a few more.)
+            long oldestRetained = this.oldestRetainedRevisionNumber.get();
+            long oldestKnown = Math.max( oldestRetained, retention.firstTimedRevisionNumber );
+            long low = Math.max( oldestKnown, high - retention.revisionCount );
+
+            // Fail if no commit time is known yet.
+            long result = low <= high ? retention.findRevisionNumberAsOf( epochMillis, low, high ) : -1L;
+
+            // Trust the result unless commits have meanwhile wrapped around onto the times searched (or adopted
+            // another retention); otherwise look again.
+            long wrappedRevisionNumber = lastCommittedRevisionNumber.getAsLong() - retention.capacityMask;
+            if ( wrappedRevisionNumber < low && this.retention == retention ) {
+                if ( result < 0L ) {
+                    throw new IllegalArgumentException( "No revision retained as of time " + epochMillis + "." );
+                }
+                return result;
+            }
+
+        }
+
+    }
+
+    /**
+     * @return the oldest revision number that can still be read.
+     */
+    long getOldestRetainedRevisionNumber() {
+        return this.oldestRetainedRevisionNumber.get();
+    }
+
+    /**
+     * Records the time when a revision became visible. Called in revision number order by the committing
+     * transactions, one at a time.
+     *
+     * @param revisionNumber the newly committed revision number.
+     */
+    void recordCommitTime( long revisionNumber ) {
+
+        Retention retention = this.retention;
+
+        // Adopt a newly configured retention here, where no other commit time can be recorded meanwhile, carrying
+        // over the times already recorded.
+        Retention configuredRetention = this.configuredRetention;
+        if ( configuredRetention != retention ) {
+            configuredRetention.copyCommitTimes( retention, revisionNumber );
+            this.retention = configuredRetention;
+            retention = configuredRetention;
+        }
+
+        if ( retention.revisionCount > 0 ) {
+            retention.setCommitTime( revisionNumber, System.currentTimeMillis() );
+        }
+
+    }
+
+    /**
+     * Immutable retention settings together with the commit times of the revisions they may retain.
+     */
+    private static final class Retention {
+
+        Retention( int revisionCount, long maxAgeMillis ) {
+
+            this.maxAgeMillis = maxAgeMillis;
+            this.revisionCount = revisionCount;
+
+            // Room for the commit times of the retained revisions plus the newest one, twice over, so that
+            // lookups rarely see their times overwritten by concurrent commits.
+            int capacity = 1;
+            while ( capacity <= 2 * revisionCount ) {
+                capacity *= 2;
+            }
+            this.capacityMask = capacity - 1;
+            this.commitTimes = revisionCount > 0 ? new AtomicLongArray( capacity ) : null;
+            this.firstTimedRevisionNumber = Long.MAX_VALUE;
+
+        }
+
+        /**
+         * Takes over the commit times recorded in the retention being replaced, as far as both rings hold them.
+         * Called only while adopting this retention.
+         *
+         * @param that               the retention being replaced.
+         * @param nextRevisionNumber the first revision number to be recorded in this retention.
+         */
+        void copyCommitTimes( Retention that, long nextRevisionNumber ) {
+
+            long first = nextRevisionNumber;
+
+            // Copy what the old ring holds and the new one can hold alongside the next revision.
+            if ( this.revisionCount > 0 && that.revisionCount > 0 ) {
+                long copyCount = Math.min( this.capacityMask, that.capacityMask + 1 );
+                first = Math.max( that.firstTimedRevisionNumber, nextRevisionNumber - copyCount );
+                for ( long revisionNumber = first; revisionNumber < nextRevisionNumber; revisionNumber += 1 ) {
+                    this.setCommitTime( revisionNumber, that.getCommitTime( revisionNumber ) );
+                }
+            }
+
+            // Lookups older than that fail.
+            this.firstTimedRevisionNumber = first;
+
+        }
+
+        /**
+         * Binary searches the recorded commit times for the last revision committed by a given time.
+         *
+         * @param epochMillis the time of interest.
+         * @param low         the oldest revision number that may be the result.
+         * @param high        the latest committed revision number.
+         * @return the revision number current at the given time, or -1 if even the oldest is too new.
+         */
+        long findRevisionNumberAsOf( long epochMillis, long low, long high ) {
+
+            // Nothing has changed since the given time.
+            if ( low >= high || this.getCommitTime( high ) <= epochMillis ) {
+                return high;
+            }
+
+            // Binary search for the last revision committed by the given time.
+            while ( high - low > 1 ) {
+                long middle = low + ( high - low ) / 2;
+                if ( this.getCommitTime( middle ) <= epochMillis ) {
+                    low = middle;
+                }
+                else {
+                    high = middle;
+                }
+            }
+
+            // Fail if even the oldest retained revision is too new.
+            if ( this.getCommitTime( low ) > epochMillis ) {
+                return -1L;
+            }
+
+            return low;
+
+        }
+
+        long getCommitTime( long revisionNumber ) {
+            return this.commitTimes.get( (int) revisionNumber & this.capacityMask );
+        }
+
+        void setCommitTime( long revisionNumber, long epochMillis ) {
+            this.commitTimes.lazySet( (int) revisionNumber & this.capacityMask, epochMillis );
+        }
+
+        /**
+         * Mask for mapping revision numbers to positions in the array of commit times (capacity minus one).
+         */
+        final int capacityMask;
+
+        /**
+         * The commit times (System.currentTimeMillis()) of recent revisions, indexed by revision number.
+         */
+        final AtomicLongArray commitTimes;
+
+        /**
+         * The oldest revision number whose commit time is recorded here (Long.MAX_VALUE until adopted).
+         */
+        long firstTimedRevisionNumber;
+
+        /**
+         * The age beyond which revisions need not be kept readable.
+         */
+        final long maxAgeMillis;
+
+        /**
+         * The number of most recent revisions to keep readable.
+         */
+        final int revisionCount;
+
+    }
+
+    /**
+     * The oldest revision number that can still be read (monotone increasing).
+     */
+    private final AtomicLong oldestRetainedRevisionNumber;
+
+    /**
+     * The retention settings most recently configured, adopted by the next commit.
+     */
+    private volatile Retention configuredRetention;
+
+    /**
+     * The current retention settings.
+     */
+    private volatile Retention retention;
+
+}
@@ -0,0 +1,130 @@
+package org.steamflake.utilities.revisions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated low-priority thread reclaiming superseded revisions in batches, keeping the clean up off the commit path.
+ * Each pass handles every transaction queued for clean up since the last one. The reclaimer wakes periodically (so
+ * that an aging history window or a finished long-running reader is noticed) and when committing transactions prod
+ * it about a batch building up; a committer falling far ahead waits for a pass to complete.
+ */
+final class RevisionReclaimer {
+
+    /**
+     * Constructs and starts a new reclaimer.
+     *
+     * @param reclamationPass the clean up of all revisions no longer needed.
+     */
+    RevisionReclaimer( Runnable reclamationPass ) {
+
+        this.completedPassCount = 0L;
+        this.idle = false;
+        this.reclamationPass = reclamationPass;
+        this.startedPassCount = 0L;
+
+        this.thread = new Thread( this::reclaimContinually, "steamflake-revision-reclaimer" );
+        this.thread.setDaemon( true );
+        this.thread.setPriority( Thread.MIN_PRIORITY );
+        this.thread.start();
+
+    }
+
+    /**
+     * Waits until a reclamation pass starting after this call has completed. Used as back-pressure by transactions
+     * committing faster than revisions are reclaimed.
+     */
+    void awaitPass() {
+
+        // Any pass already under way may have started before the caller's work was queued.
+        long passCount = this.startedPassCount;
+
+        this.wake();
+
+        while ( this.completedPassCount <= passCount ) {
+            LockSupport.parkNanos( this, PASS_POLLING_NANOS );
+        }
+
+    }
+
+    /**
+     * Prompts an idle reclaimer to start its next pass now rather than at the end of its interval. Cheap when the
+     * reclaimer is already busy. (A prod racing with the reclaimer going idle may be lost; the interval bounds the
+     * delay.)
+     */
+    void wake() {
+        if ( this.idle ) {
+            LockSupport.unpark( this.thread );
+        }
+    }
+
+    /**
+     * Runs reclamation passes for the life of the process.
+     */
+    private void reclaimContinually() {
+
+        while ( true ) {
+
+            this.startedPassCount += 1L;
+
+            try {
+                this.reclamationPass.run();
+            }
+            catch ( Throwable e ) {
+                LOG.error( "Revision reclamation failed.", e );
+            }
+
+            this.completedPassCount += 1L;
+
+            // Rest until prodded or the interval elapses.
+            this.idle = true;
+            LockSupport.parkNanos( this, PASS_INTERVAL_NANOS );
+            this.idle = false;
+
+        }
+
+    }
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * The longest the reclaimer rests between passes.
+     */
+    private static final long PASS_INTERVAL_NANOS = 10000000L;
+
+    /**
+     * How long a throttled committer pauses between checks for the completion of a pass.
+     */
+    private static final long PASS_POLLING_NANOS = 50000L;
+
+    /**
+     * The number of reclamation passes finished (written only by the reclaimer thread).
+     */
+    private volatile long completedPassCount;
+
+    /**
+     * Whether the reclaimer is resting between passes.
+     */
+    private volatile boolean idle;
+
+    /**
+     * The clean up of all revisions no longer needed.
+     */
+    private final Runnable reclamationPass;
+
+    /**
+     * The number of reclamation passes begun (written only by the reclaimer thread).
+     */
+    private volatile long startedPassCount;
+
+    /**
+     * The reclaimer thread.
+     */
+    private final Thread thread;
+
+}
@@ -0,0 +1,138 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer. Each slot carries a sequence number telling
+ * whether it is ready for the producer or the consumer of a given position, so offering takes one compare-and-set
+ * and polling takes none. A full buffer rejects the offer rather than blocking the producer.
+ *
+ * @param <E> the type of the elements queued.
+ */
+final class RingBuffer<E> {
+
+    /**
+     * Constructs a new ring buffer.
+     *
+     * @param minimumCapacity the minimum number of elements the buffer can hold (rounded up to a power of two).
+     */
+    RingBuffer( int minimumCapacity ) {
+
+        // Sanity check the input.
+        if ( minimumCapacity <= 0 ) {
+            throw new IllegalArgumentException( "Capacity must be positive." );
+        }
+
+        int capacity = 1;
+        while ( capacity < minimumCapacity ) {
+            capacity *= 2;
+        }
+
+        this.mask = capacity - 1;
+        this.elements = new AtomicReferenceArray<>( capacity );
+        this.sequences = new AtomicLongArray( capacity );
+        for ( int i = 0; i < capacity; i += 1 ) {
+            this.sequences.set( i, i );
+        }
+
+        this.head = new AtomicLong( 0L );
+        this.tail = new AtomicLong( 0L );
+
+    }
+
+    /**
+     * @return whether the buffer is empty (a snapshot when called by other than the consumer).
+     */
+    boolean isEmpty() {
+        return this.head.get() == this.tail.get();
+    }
+
+    /**
+     * Adds an element at the tail of the buffer if there is room. May be called by any thread.
+     *
+     * @param element the element to add.
+     * @return true if added; false if the buffer was full.
+     */
+    boolean offer( E element ) {
+
+        long position = this.tail.get();
+
+        while ( true ) {
+
+            int index = (int) position & this.mask;
+            long difference = this.sequences.get( index ) - position;
+
+            // The slot is free for this position: claim it.
+            if ( difference == 0L ) {
+                if ( this.tail.compareAndSet( position, position + 1 ) ) {
+                    this.elements.set( index, element );
+                    this.sequences.set( index, position + 1 );
+                    return true;
+                }
+            }
+
+            // The slot still holds the element from one lap ago: full.
+            else if ( difference < 0L ) {
+                return false;
+            }
+
+            position = this.tail.get();
+
+        }
+
+    }
+
+    /**
+     * Removes the element at the head of the buffer. Must be called by only one thread at a time.
+     *
+     * @return the element removed or null if the buffer is empty.
+     */
+    E poll() {
+
+        long position = this.head.get();
+        int index = (int) position & this.mask;
+
+        // Not yet filled (or still being filled) by a producer.
+        if ( this.sequences.get( index ) != position + 1 ) {
+            return null;
+        }
+
+        E result = this.elements.get( index );
+        this.elements.set( index, null );
+
+        // Free the slot for the producer one lap ahead.
+        this.sequences.set( index, position + this.mask + 1 );
+        this.head.set( position + 1 );
+
+        return result;
+
+    }
+
+    /**
+     * The queued elements.
+     */
+    private final AtomicReferenceArray<E> elements;
+
+    /**
+     * The position of the next element to poll.
+     */
+    private final AtomicLong head;
+
+    /**
+     * Mask for wrapping positions to indexes (capacity minus one).
+     */
+    private final int mask;
+
+    /**
+     * Per slot, the position whose producer may fill it (equal) or whose consumer may empty it (one more).
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * The position of the next element to offer.
+     */
+    private final AtomicLong tail;
+
+}
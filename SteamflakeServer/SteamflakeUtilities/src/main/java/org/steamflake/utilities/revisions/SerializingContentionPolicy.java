@@ -0,0 +1,60 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.Objects;
+
+/**
+ * Contention policy that falls back to running a transactional task irrevocably after a given number of write
+ * conflicts. The irrevocable attempt holds the exclusive commit token: it waits for commits already in progress,
+ * then every other committer blocks until it finishes, so it cannot conflict. Until the fallback, another policy
+ * governs. Only serializable tasks fall back (asynchronous ones never do; see
+ * StmTransactionContext.doInTransactionAsync). An irrevocable attempt whose task calls retry gives way at once to a
+ * serializable attempt, which waits as usual.
+ */
+public final class SerializingContentionPolicy
+    implements IContentionPolicy {
+
+    /**
+     * Constructs a new serializing policy.
+     *
+     * @param conflictsBeforeSerializing the number of write conflicts to tolerate before running irrevocably.
+     * @param delegate                   the policy to follow before falling back.
+     */
+    public SerializingContentionPolicy( int conflictsBeforeSerializing, IContentionPolicy delegate ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( delegate );
+        if ( conflictsBeforeSerializing < 0 ) {
+            throw new IllegalArgumentException( "Conflict count must be greater than or equal to zero." );
+        }
+
+        this.conflictsBeforeSerializing = conflictsBeforeSerializing;
+        this.delegate = delegate;
+
+    }
+
+    @Override
+    public void afterWriteConflict( int attempt ) {
+        this.delegate.afterWriteConflict( attempt );
+    }
+
+    @Override
+    public boolean beforeAttempt( int attempt ) {
+        return attempt >= this.conflictsBeforeSerializing || this.delegate.beforeAttempt( attempt );
+    }
+
+    @Override
+    public boolean shouldWaitForCommitLock( long startTime, long holderStartTime ) {
+        return this.delegate.shouldWaitForCommitLock( startTime, holderStartTime );
+    }
+
+    /**
+     * The number of write conflicts to tolerate before running irrevocably.
+     */
+    private final int conflictsBeforeSerializing;
+
+    /**
+     * The policy to follow before falling back.
+     */
+    private final IContentionPolicy delegate;
+
+}
@@ -0,0 +1,46 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.List;
+
+/**
+ * The changes made by one committed transaction (or by a group of transactions committed together, see
+ * StmTransactionContext.setGroupCommit): its revision number and the versioned items it wrote.
+ */
+public final class StmChangeSet {
+
+    /**
+     * Constructs a new change set.
+     *
+     * @param revisionNumber the revision number of the committed transaction.
+     * @param itemsWritten   the (unmodifiable) list of versioned items written by the transaction.
+     */
+    StmChangeSet( long revisionNumber, List<IVersionedItem> itemsWritten ) {
+        this.revisionNumber = revisionNumber;
+        this.itemsWritten = itemsWritten;
+    }
+
+    /**
+     * @return the versioned items written by the transaction (unmodifiable).
+     */
+    public List<IVersionedItem> getItemsWritten() {
+        return this.itemsWritten;
+    }
+
+    /**
+     * @return the revision number of the committed transaction.
+     */
+    public long getRevisionNumber() {
+        return this.revisionNumber;
+    }
+
+    /**
+     * The versioned items written by the transaction.
+     */
+    private final List<IVersionedItem> itemsWritten;
+
+    /**
+     * The revision number of the committed transaction.
+     */
+    private final long revisionNumber;
+
+}
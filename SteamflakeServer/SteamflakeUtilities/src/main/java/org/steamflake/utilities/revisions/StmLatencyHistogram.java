@@ -0,0 +1,128 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, with one bucket per power of two. Each bucket is a striped counter, so
+ * threads recording concurrently do not contend; percentiles are accurate to within a factor of two.
+ */
+public final class StmLatencyHistogram {
+
+    /**
+     * Constructs a new empty histogram.
+     */
+    StmLatencyHistogram() {
+        this.buckets = new LongAdder[BUCKET_COUNT];
+        for ( int i = 0; i < BUCKET_COUNT; i += 1 ) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the number of latencies recorded in each bucket; bucket i holds those from 2^(i-1) up to 2^i - 1
+     * nanoseconds (bucket zero holds zero).
+     */
+    public long[] getBucketCounts() {
+
+        long[] result = new long[BUCKET_COUNT];
+
+        for ( int i = 0; i < BUCKET_COUNT; i += 1 ) {
+            result[i] = this.buckets[i].sum();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * @return the number of latencies recorded.
+     */
+    public long getCount() {
+
+        long result = 0L;
+
+        for ( LongAdder bucket : this.buckets ) {
+            result += bucket.sum();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Estimates a percentile of the latencies recorded.
+     *
+     * @param percentile the percentile wanted (from 0 to 100).
+     * @return the upper bound of the bucket holding the percentile in nanoseconds (zero if nothing is recorded).
+     */
+    public long getValueAtPercentile( double percentile ) {
+
+        // Sanity check the input.
+        if ( percentile < 0.0 || percentile > 100.0 ) {
+            throw new IllegalArgumentException( "Percentile must be from 0 to 100." );
+        }
+
+        long[] counts = this.getBucketCounts();
+
+        long total = 0L;
+        for ( long count : counts ) {
+            total += count;
+        }
+
+        if ( total == 0L ) {
+            return 0L;
+        }
+
+        // Find the bucket where the running count reaches the percentile.
+        long rank = Math.max( 1L, (long) Math.ceil( percentile / 100.0 * total ) );
+        long runningCount = 0L;
+        for ( int i = 0; i < BUCKET_COUNT; i += 1 ) {
+            runningCount += counts[i];
+            if ( runningCount >= rank ) {
+                return upperBoundOf( i );
+            }
+        }
+
+        return Long.MAX_VALUE;
+
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    void record( long nanos ) {
+        this.buckets[64 - Long.numberOfLeadingZeros( Math.max( 0L, nanos ) )].increment();
+    }
+
+    /**
+     * Clears all latencies recorded. (Latencies recorded concurrently may or may not survive.)
+     */
+    void reset() {
+        for ( LongAdder bucket : this.buckets ) {
+            bucket.reset();
+        }
+    }
+
+    /**
+     * Determines the largest latency held by a bucket.
+     *
+     * @param bucketIndex the index of the bucket.
+     * @return the upper bound of the bucket in nanoseconds.
+     */
+    private static long upperBoundOf( int bucketIndex ) {
+        return bucketIndex >= 63 ? Long.MAX_VALUE : ( 1L << bucketIndex ) - 1L;
+    }
+
+    /**
+     * The number of buckets (enough for any non-negative long).
+     */
+    private static final int BUCKET_COUNT = 64;
+
+    /**
+     * The count of latencies recorded in each power-of-two range.
+     */
+    private final LongAdder[] buckets;
+
+}
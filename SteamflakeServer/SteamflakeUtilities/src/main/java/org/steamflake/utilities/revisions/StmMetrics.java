@@ -0,0 +1,488 @@
+package org.steamflake.utilities.revisions;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of the STM: counts of transactions begun, committed, and aborted, of write conflicts, exhausted
+ * retries, retry waits, overdue transactions, and long-running transactions; latency histograms for beginning,
+ * committing, and aborting; a sampled tally of the items causing the most write conflicts; and gauges of revision
+ * retention. Counters are striped, so recording costs little even under heavy contention. Latencies are only timed once
+ * enabled, sparing the clock reads otherwise. Call registerMBean to export everything over JMX.
+ */
+public final class StmMetrics {
+
+    private StmMetrics() {
+        throw new UnsupportedOperationException( "Static utility class only." );
+    }
+
+    /**
+     * @return the number of transactions aborted.
+     */
+    public static long getAbortedCount() {
+        return abortedCount.sum();
+    }
+
+    /**
+     * @return the times taken to abort transactions (while timing is enabled).
+     */
+    public static StmLatencyHistogram getAbortLatencies() {
+        return abortLatencies;
+    }
+
+    /**
+     * @return the times taken to begin transactions (while timing is enabled).
+     */
+    public static StmLatencyHistogram getBeginLatencies() {
+        return beginLatencies;
+    }
+
+    /**
+     * @return the number of transactions begun.
+     */
+    public static long getBegunCount() {
+        return begunCount.sum();
+    }
+
+    /**
+     * @return the times taken to commit transactions (while timing is enabled).
+     */
+    public static StmLatencyHistogram getCommitLatencies() {
+        return commitLatencies;
+    }
+
+    /**
+     * @return the number of transactions committed.
+     */
+    public static long getCommittedCount() {
+        return committedCount.sum();
+    }
+
+    /**
+     * @return the number of write conflicts encountered (each costing a retry, of a nested transaction if in one).
+     */
+    public static long getConflictCount() {
+        return conflictCount.sum();
+    }
+
+    /**
+     * Lists the versioned items found in the most write conflicts. Conflicts are sampled (see
+     * setConflictSamplingInterval), so the counts are proportional to, not equal to, the conflicts caused.
+     *
+     * @param limit the most items to list.
+     * @return the sampled conflict counts of the items, from the highest count down.
+     */
+    public static Map<IVersionedItem, Long> getConflictHotSpots( int limit ) {
+        return conflictHotSpots.getHotSpots( limit );
+    }
+
+    /**
+     * @return the number of transactions the watchdog found running past their deadlines.
+     */
+    public static long getDeadlineExceededCount() {
+        return deadlineExceededCount.sum();
+    }
+
+    /**
+     * @return the number of transactions the watchdog reported as running past the long-running threshold.
+     */
+    public static long getLongRunningCount() {
+        return longRunningCount.sum();
+    }
+
+    /**
+     * @return the oldest revision number still read by some transaction (the last committed one if none is
+     * running).
+     */
+    public static long getOldestPinnedRevisionNumber() {
+        return StmTransaction.getOldestPinnedRevisionNumber();
+    }
+
+    /**
+     * @return the number of transactional tasks that gave up with MaximumRetriesExceededException.
+     */
+    public static long getRetriesExhaustedCount() {
+        return retriesExhaustedCount.sum();
+    }
+
+    /**
+     * @return the number of times a transactional task waited for a change after calling retry.
+     */
+    public static long getRetryWaitCount() {
+        return retryWaitCount.sum();
+    }
+
+    /**
+     * @return whether the latencies of beginning, committing, and aborting transactions are being timed.
+     */
+    public static boolean isTimingEnabled() {
+        return timingEnabled;
+    }
+
+    /**
+     * Exports the metrics over JMX through the platform MBean server (see StmMetricsMXBean). Does nothing if
+     * already registered.
+     *
+     * @throws IllegalStateException if the registration fails.
+     */
+    public static synchronized void registerMBean() {
+
+        if ( mBeanRegistered ) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean( new MXBean(), new ObjectName( OBJECT_NAME ) );
+        }
+        catch ( JMException e ) {
+            throw new IllegalStateException( "Failed to register STM metrics with JMX.", e );
+        }
+
+        mBeanRegistered = true;
+
+    }
+
+    /**
+     * Clears all counters, histograms, and conflict hot spots. (Events recorded concurrently may or may not
+     * survive.)
+     */
+    public static void reset() {
+        abortedCount.reset();
+        abortLatencies.reset();
+        beginLatencies.reset();
+        begunCount.reset();
+        commitLatencies.reset();
+        committedCount.reset();
+        conflictCount.reset();
+        conflictHotSpots.reset();
+        deadlineExceededCount.reset();
+        longRunningCount.reset();
+        retriesExhaustedCount.reset();
+        retryWaitCount.reset();
+    }
+
+    /**
+     * Changes how many write conflicts pass for each one counted toward the conflict hot spots.
+     *
+     * @param samplingInterval the sampling interval (one to count every conflict).
+     */
+    public static void setConflictSamplingInterval( int samplingInterval ) {
+
+        // Sanity check the input.
+        if ( samplingInterval < 1 ) {
+            throw new IllegalArgumentException( "Sampling interval must be at least one." );
+        }
+
+        conflictHotSpots.setSamplingInterval( samplingInterval );
+
+    }
+
+    /**
+     * Turns the timing of transaction latencies on or off.
+     *
+     * @param enabled whether to time latencies.
+     */
+    public static void setTimingEnabled( boolean enabled ) {
+        timingEnabled = enabled;
+    }
+
+    /**
+     * Records the end of an abort.
+     *
+     * @param startNanos the result of startTiming when the abort began.
+     */
+    static void recordAbort( long startNanos ) {
+        abortedCount.increment();
+        if ( startNanos != 0L ) {
+            abortLatencies.record( System.nanoTime() - startNanos );
+        }
+    }
+
+    /**
+     * Records the end of the start of a transaction.
+     *
+     * @param startNanos the result of startTiming when the transaction began.
+     */
+    static void recordBegin( long startNanos ) {
+        begunCount.increment();
+        if ( startNanos != 0L ) {
+            beginLatencies.record( System.nanoTime() - startNanos );
+        }
+    }
+
+    /**
+     * Records the end of a successful commit.
+     *
+     * @param startNanos the result of startTiming when the commit began.
+     */
+    static void recordCommit( long startNanos ) {
+        committedCount.increment();
+        if ( startNanos != 0L ) {
+            commitLatencies.record( System.nanoTime() - startNanos );
+        }
+    }
+
+    /**
+     * Records a write conflict, sampling the item involved.
+     *
+     * @param conflict the conflict encountered.
+     */
+    static void recordConflict( WriteConflictException conflict ) {
+        conflictCount.increment();
+        conflictHotSpots.recordConflict( conflict.getVersionedItem() );
+    }
+
+    /**
+     * Records a transaction found running past its deadline.
+     */
+    static void recordDeadlineExceeded() {
+        deadlineExceededCount.increment();
+    }
+
+    /**
+     * Records a transaction reported as long-running.
+     */
+    static void recordLongRunning() {
+        longRunningCount.increment();
+    }
+
+    /**
+     * Records a transactional task giving up after running out of retries.
+     */
+    static void recordRetriesExhausted() {
+        retriesExhaustedCount.increment();
+    }
+
+    /**
+     * Records a transactional task waiting for a change after calling retry.
+     */
+    static void recordRetryWait() {
+        retryWaitCount.increment();
+    }
+
+    /**
+     * Notes the start of a timed operation.
+     *
+     * @return the current time (System.nanoTime()) if timing is enabled; zero otherwise.
+     */
+    static long startTiming() {
+        return timingEnabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Summarizes a latency histogram for JMX.
+     *
+     * @param histogram the histogram to summarize.
+     * @return the count plus selected percentiles.
+     */
+    private static Map<String, Long> summarize( StmLatencyHistogram histogram ) {
+
+        Map<String, Long> result = new LinkedHashMap<>();
+
+        result.put( "count", histogram.getCount() );
+        result.put( "p50", histogram.getValueAtPercentile( 50.0 ) );
+        result.put( "p90", histogram.getValueAtPercentile( 90.0 ) );
+        result.put( "p99", histogram.getValueAtPercentile( 99.0 ) );
+        result.put( "p99.9", histogram.getValueAtPercentile( 99.9 ) );
+        result.put( "max", histogram.getValueAtPercentile( 100.0 ) );
+
+        return result;
+
+    }
+
+    /**
+     * JMX adapter for the metrics.
+     */
+    private static final class MXBean
+        implements StmMetricsMXBean {
+
+        @Override
+        public long getAbortedCount() {
+            return StmMetrics.getAbortedCount();
+        }
+
+        @Override
+        public Map<String, Long> getAbortLatencyPercentiles() {
+            return summarize( abortLatencies );
+        }
+
+        @Override
+        public Map<String, Long> getBeginLatencyPercentiles() {
+            return summarize( beginLatencies );
+        }
+
+        @Override
+        public long getBegunCount() {
+            return StmMetrics.getBegunCount();
+        }
+
+        @Override
+        public Map<String, Long> getCommitLatencyPercentiles() {
+            return summarize( commitLatencies );
+        }
+
+        @Override
+        public long getCommittedCount() {
+            return StmMetrics.getCommittedCount();
+        }
+
+        @Override
+        public long getConflictCount() {
+            return StmMetrics.getConflictCount();
+        }
+
+        @Override
+        public Map<String, Long> getConflictHotSpots() {
+
+            // Describe the items (summing any that happen to share a description).
+            Map<String, Long> result = new LinkedHashMap<>();
+            for ( Map.Entry<IVersionedItem, Long> entry : StmMetrics.getConflictHotSpots( HOT_SPOTS_REPORTED ).entrySet() ) {
+                result.merge( String.valueOf( entry.getKey() ), entry.getValue(), Long::sum );
+            }
+
+            return result;
+
+        }
+
+        @Override
+        public long getDeadlineExceededCount() {
+            return StmMetrics.getDeadlineExceededCount();
+        }
+
+        @Override
+        public long getLastCommittedRevisionNumber() {
+            return StmTransactionContext.getLastCommittedRevisionNumber();
+        }
+
+        @Override
+        public long getLongRunningCount() {
+            return StmMetrics.getLongRunningCount();
+        }
+
+        @Override
+        public long getOldestPinnedRevisionNumber() {
+            return StmMetrics.getOldestPinnedRevisionNumber();
+        }
+
+        @Override
+        public long getReclamationBacklog() {
+            return StmTransactionContext.getReclamationBacklog();
+        }
+
+        @Override
+        public long getRetainedRevisionCount() {
+            return StmTransactionContext.getRetainedRevisionCount();
+        }
+
+        @Override
+        public long getRetriesExhaustedCount() {
+            return StmMetrics.getRetriesExhaustedCount();
+        }
+
+        @Override
+        public long getRetryWaitCount() {
+            return StmMetrics.getRetryWaitCount();
+        }
+
+        @Override
+        public boolean isTimingEnabled() {
+            return StmMetrics.isTimingEnabled();
+        }
+
+        @Override
+        public void reset() {
+            StmMetrics.reset();
+        }
+
+        @Override
+        public void setTimingEnabled( boolean timingEnabled ) {
+            StmMetrics.setTimingEnabled( timingEnabled );
+        }
+
+    }
+
+    /**
+     * The number of conflict hot spots reported over JMX.
+     */
+    private static final int HOT_SPOTS_REPORTED = 20;
+
+    /**
+     * The JMX name of the metrics.
+     */
+    private static final String OBJECT_NAME = "org.steamflake.utilities.revisions:type=StmMetrics";
+
+    /**
+     * The number of transactions aborted.
+     */
+    private static final LongAdder abortedCount = new LongAdder();
+
+    /**
+     * The times taken to abort transactions.
+     */
+    private static final StmLatencyHistogram abortLatencies = new StmLatencyHistogram();
+
+    /**
+     * The times taken to begin transactions.
+     */
+    private static final StmLatencyHistogram beginLatencies = new StmLatencyHistogram();
+
+    /**
+     * The number of transactions begun.
+     */
+    private static final LongAdder begunCount = new LongAdder();
+
+    /**
+     * The times taken to commit transactions.
+     */
+    private static final StmLatencyHistogram commitLatencies = new StmLatencyHistogram();
+
+    /**
+     * The number of transactions committed.
+     */
+    private static final LongAdder committedCount = new LongAdder();
+
+    /**
+     * The number of write conflicts encountered.
+     */
+    private static final LongAdder conflictCount = new LongAdder();
+
+    /**
+     * The sampled tally of items found in write conflicts.
+     */
+    private static final ConflictHotSpotTracker conflictHotSpots = new ConflictHotSpotTracker();
+
+    /**
+     * The number of transactions found running past their deadlines.
+     */
+    private static final LongAdder deadlineExceededCount = new LongAdder();
+
+    /**
+     * The number of transactions reported as long-running.
+     */
+    private static final LongAdder longRunningCount = new LongAdder();
+
+    /**
+     * Whether the metrics have been registered with JMX.
+     */
+    private static boolean mBeanRegistered = false;
+
+    /**
+     * The number of transactional tasks that ran out of retries.
+     */
+    private static final LongAdder retriesExhaustedCount = new LongAdder();
+
+    /**
+     * The number of retry waits.
+     */
+    private static final LongAdder retryWaitCount = new LongAdder();
+
+    /**
+     * Whether latencies are being timed.
+     */
+    private static volatile boolean timingEnabled = false;
+
+}
@@ -0,0 +1,107 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.Map;
+
+/**
+ * JMX view of the STM instrumentation (see StmMetrics), registered by StmMetrics.registerMBean.
+ */
+public interface StmMetricsMXBean {
+
+    /**
+     * @return the number of transactions aborted.
+     */
+    long getAbortedCount();
+
+    /**
+     * @return selected percentiles of the time taken to abort a transaction, in nanoseconds.
+     */
+    Map<String, Long> getAbortLatencyPercentiles();
+
+    /**
+     * @return selected percentiles of the time taken to begin a transaction, in nanoseconds.
+     */
+    Map<String, Long> getBeginLatencyPercentiles();
+
+    /**
+     * @return the number of transactions begun.
+     */
+    long getBegunCount();
+
+    /**
+     * @return selected percentiles of the time taken to commit a transaction, in nanoseconds.
+     */
+    Map<String, Long> getCommitLatencyPercentiles();
+
+    /**
+     * @return the number of transactions committed.
+     */
+    long getCommittedCount();
+
+    /**
+     * @return the number of write conflicts encountered.
+     */
+    long getConflictCount();
+
+    /**
+     * @return the sampled conflict counts of the items found in the most write conflicts, keyed by description.
+     */
+    Map<String, Long> getConflictHotSpots();
+
+    /**
+     * @return the number of transactions found running past their deadlines.
+     */
+    long getDeadlineExceededCount();
+
+    /**
+     * @return the latest revision number visible to new transactions.
+     */
+    long getLastCommittedRevisionNumber();
+
+    /**
+     * @return the number of transactions reported as running past the long-running threshold.
+     */
+    long getLongRunningCount();
+
+    /**
+     * @return the oldest revision number still read by some transaction.
+     */
+    long getOldestPinnedRevisionNumber();
+
+    /**
+     * @return the number of superseded revisions awaiting the background reclaimer.
+     */
+    long getReclamationBacklog();
+
+    /**
+     * @return the number of superseded revisions still linked into revision chains.
+     */
+    long getRetainedRevisionCount();
+
+    /**
+     * @return the number of transactional tasks that gave up after running out of retries.
+     */
+    long getRetriesExhaustedCount();
+
+    /**
+     * @return the number of times a transactional task waited for a change after calling retry.
+     */
+    long getRetryWaitCount();
+
+    /**
+     * @return whether the latencies of beginning, committing, and aborting transactions are being timed.
+     */
+    boolean isTimingEnabled();
+
+    /**
+     * Clears all counters, histograms, and conflict hot spots.
+     */
+    void reset();
+
+    /**
+     * Turns the timing of transaction latencies on or off.
+     *
+     * @param timingEnabled whether to time latencies.
+     */
+    void setTimingEnabled( boolean timingEnabled );
+
+}
@@ -0,0 +1,85 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A pinned source revision that any number of threads may read at once, e.g. the workers of a fork/join task or a
+ * parallel stream. Work run through the snapshot sees the snapshot for the duration of the call only. Reads are not
+ * tracked, and any attempt to write fails. Older revisions the snapshot needs are kept until it is closed.
+ */
+public final class StmSnapshot
+    implements AutoCloseable {
+
+    /**
+     * Constructs a new snapshot.
+     *
+     * @param transaction the read-only transaction holding the snapshot's source revision.
+     */
+    StmSnapshot( StmTransaction transaction ) {
+        this.closed = false;
+        this.transaction = Objects.requireNonNull( transaction );
+    }
+
+    /**
+     * Performs the work of the given callback inside the snapshot.
+     *
+     * @param task the work to be done inside the snapshot.
+     * @param <T>  the type of result computed.
+     * @return the result of the task.
+     * @throws IllegalStateException if the snapshot has been closed or the task attempts to write a versioned item.
+     */
+    public <T> T call( Supplier<T> task ) {
+        return StmTransactionContext.resume( this.transaction, task );
+    }
+
+    /**
+     * Releases the snapshot. Must not be called until all work inside the snapshot is finished.
+     */
+    @Override
+    public synchronized void close() {
+
+        // Release the source revision just once.
+        if ( !this.closed ) {
+            this.closed = true;
+            this.transaction.commit();
+        }
+
+    }
+
+    /**
+     * @return the revision number read through this snapshot.
+     */
+    public long getRevisionNumber() {
+        return this.transaction.getSourceRevisionNumber();
+    }
+
+    /**
+     * Performs the work of the given callback inside the snapshot.
+     *
+     * @param task the work to be done inside the snapshot.
+     * @throws IllegalStateException if the snapshot has been closed or the task attempts to write a versioned item.
+     */
+    public void run( Runnable task ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( task );
+
+        StmTransactionContext.resume( this.transaction, () -> {
+            task.run();
+            return null;
+        } );
+
+    }
+
+    /**
+     * Whether the snapshot has been released.
+     */
+    private boolean closed;
+
+    /**
+     * The read-only transaction holding the snapshot's source revision.
+     */
+    private final StmTransaction transaction;
+
+}
@@ -1,12 +1,19 @@
 package org.steamflake.utilities.revisions;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Utility class for managing in-memory transactions. The code is similar to "versioned boxes", the concept
@@ -17,52 +24,289 @@ public class StmTransaction {
 
     /**
      * Constructs a new transaction.
+     *
+     * @param mode whether the transaction may write.
      */
-    StmTransaction() {
+    StmTransaction( ETransactionMode mode ) {
+
+        long startNanos = StmMetrics.startTiming();
+
+        // Start the clock on the default deadline (and note where we began if asked) before the watchdog can see us.
+        // An irrevocable transaction has no deadline, since it must not be aborted.
+        this.beginStackTrace = watchdog.isBeginStackTracesCaptured() ? new Throwable( "Transaction began here." ) : null;
+        this.beginTime = System.nanoTime();
+        this.deadlineNanos = mode == ETransactionMode.IRREVOCABLE ? Long.MAX_VALUE : watchdog.getDefaultDeadlineNanos();
+        this.escalated = false;
+        this.longRunningReported = false;
+        this.overdue = false;
+
+        // An irrevocable transaction takes the exclusive commit token and waits out commits already under way
+        // before choosing its source revision.
+        if ( mode == ETransactionMode.IRREVOCABLE ) {
+            this.acquireIrrevocableToken();
+        }
 
-        // Spin until we get a next rev number and put it in the queue of rev numbers in use w/o concurrent change.
-        // (We avoid concurrent change because if another thread bumped the revisions in use, it might also have
-        // cleaned up the revision before we said we were using it.)
-        while ( true ) {
-            long sourceRevNumber = lastCommittedRevisionNumber.get();
-            sourceRevisionsInUse.add( sourceRevNumber );
-            if ( sourceRevNumber == lastCommittedRevisionNumber.get() ) {
-                this.sourceRevisionNumber = sourceRevNumber;
-                break;
-            }
-            sourceRevisionsInUse.remove( sourceRevNumber );
+        // Record our source revision number among those in use, then spin until it is recorded w/o concurrent
+        // change. (We avoid concurrent change because if another thread bumped the revisions in use, it might also
+        // have cleaned up the revision before we said we were using it.)
+        long sourceRevNumber = lastCommittedRevisionNumber.get();
+        this.snapshotSlot = activeSnapshots.register( sourceRevNumber, this );
+        while ( sourceRevNumber != lastCommittedRevisionNumber.get() ) {
+            sourceRevNumber = lastCommittedRevisionNumber.get();
+            activeSnapshots.update( this.snapshotSlot, sourceRevNumber );
+        }
+        this.sourceRevisionNumber = sourceRevNumber;
+
+        this.mode = mode;
+
+        // The transaction starts out unbound; its creator binds it to a thread.
+        this.boundThread = null;
+        this.completed = false;
+
+        // The target revision number stays unknown until commit.
+        this.targetRevisionNumber = -1L;
+
+        // A read-only transaction needs no bookkeeping beyond its source revision.
+        if ( mode == ETransactionMode.READ_ONLY ) {
+            this.contentionPolicy = null;
+            this.startTime = 0L;
+            this.pendingRevisions = null;
+            this.versionedItemsRead = null;
+            this.nestingLevel = null;
+            this.newerRevisionItem = null;
+            this.nextTransactionAwaitingCleanUp = null;
+            StmMetrics.recordBegin( startNanos );
+            return;
         }
 
-        // Use the next negative pending revision number to mark our writes.
-        this.targetRevisionNumber = new AtomicLong( lastPendingRevisionNumber.decrementAndGet() );
+        // Resolve commit lock contention per the default policy unless told otherwise.
+        this.contentionPolicy = StmTransactionContext.getDefaultContentionPolicy();
+        this.startTime = System.nanoTime();
 
-        // Track the versioned items read and written by this transaction.
+        // Track the versioned items read by this transaction and buffer the revisions it writes.
+        this.pendingRevisions = new HashMap<>();
         this.versionedItemsRead = new HashSet<>();
-        this.versionedItemsWritten = new HashSet<>();
+
+        // The transaction starts out at the top level.
+        this.nestingLevel = null;
 
         // Flag a write conflict as early as possible.
-        this.newerRevisionSeen = false;
+        this.newerRevisionItem = null;
 
         // Establish a link for putting this transaction in a linked list of completed transactions.
         this.nextTransactionAwaitingCleanUp = new AtomicReference<>( null );
 
+        StmMetrics.recordBegin( startNanos );
+
+    }
+
+    /**
+     * Constructs a new read-only transaction reading a retained historical revision.
+     *
+     * @param sourceRevisionNumber the revision number to read.
+     * @throws IllegalArgumentException if the revision has not been committed or is no longer retained.
+     */
+    StmTransaction( long sourceRevisionNumber ) {
+
+        long startNanos = StmMetrics.startTiming();
+
+        // Sanity check the input.
+        if ( sourceRevisionNumber > lastCommittedRevisionNumber.get() ) {
+            throw new IllegalArgumentException( "Revision " + sourceRevisionNumber + " has not been committed." );
+        }
+
+        // Start the clock on the default deadline (and note where we began if asked) before the watchdog can see us.
+        this.beginStackTrace = watchdog.isBeginStackTracesCaptured() ? new Throwable( "Transaction began here." ) : null;
+        this.beginTime = System.nanoTime();
+        this.deadlineNanos = watchdog.getDefaultDeadlineNanos();
+        this.escalated = false;
+        this.longRunningReported = false;
+        this.overdue = false;
+
+        // Record our source revision number among those in use, then make sure that no clean up has passed it by.
+        // (A clean up advances the oldest retained revision before looking at those in use, so it either sees our
+        // revision or we see its advance.)
+        this.snapshotSlot = activeSnapshots.register( sourceRevisionNumber, this );
+        if ( sourceRevisionNumber < history.getOldestRetainedRevisionNumber() ) {
+            activeSnapshots.release( this.snapshotSlot );
+            throw new IllegalArgumentException( "Revision " + sourceRevisionNumber + " is no longer retained." );
+        }
+        this.sourceRevisionNumber = sourceRevisionNumber;
+
+        this.mode = ETransactionMode.READ_ONLY;
+        this.boundThread = null;
+        this.completed = false;
+        this.targetRevisionNumber = -1L;
+
+        // A read-only transaction needs no bookkeeping beyond its source revision.
+        this.contentionPolicy = null;
+        this.startTime = 0L;
+        this.pendingRevisions = null;
+        this.versionedItemsRead = null;
+        this.nestingLevel = null;
+        this.newerRevisionItem = null;
+        this.nextTransactionAwaitingCleanUp = null;
+
+        StmMetrics.recordBegin( startNanos );
+
+    }
+
+    /**
+     * Atomically commits this transaction. Commit locks are taken only on the items written, in the global order of
+     * their hash codes, so transactions writing disjoint items commit in parallel and overlapping ones cannot
+     * deadlock. The buffered revisions are linked into the shared revision chains only after validation succeeds.
+     *
+     * @throws WriteConflictException if some other transaction has written some value this transaction read or wrote.
+     */
+    private void writeTransaction() {
+
+        // Wait for any irrevocable transaction to finish, then flag that we are committing.
+        this.enterCommit();
+
+        // Acquire the commit locks of the items written in a globally consistent order.
+        AbstractVersionedItem[] itemsWritten = this.pendingRevisions.keySet().toArray( new AbstractVersionedItem[this.pendingRevisions.size()] );
+        Arrays.sort( itemsWritten, ( item1, item2 ) -> Integer.compare( item1.hashCode(), item2.hashCode() ) );
+
+        int lockCount = 0;
+        CommitGroup group = null;
+        long revisionNumber = 0L;
+        IVersionedItem[] observableItems = null;
+        StmChangeSet changeSet = null;
+
+        try {
+
+            for ( AbstractVersionedItem versionedItem : itemsWritten ) {
+                boolean commutative = versionedItem.isCommutative( this.pendingRevisions.get( versionedItem ) );
+                while ( !versionedItem.tryLockForCommit( this ) ) {
+                    // A commutative write cannot conflict, so it always waits; otherwise let the contention policy
+                    // decide whether to wait for the lock or give up.
+                    StmTransaction holder = versionedItem.getCommittingTransaction();
+                    if ( !commutative && holder != null && !this.contentionPolicy.shouldWaitForCommitLock( this.startTime, holder.startTime ) ) {
+                        throw new WriteConflictException( versionedItem );
+                    }
+                    Thread.yield();
+                }
+                lockCount += 1;
+            }
+
+            // Reserve our revision number before validating so that any later conflicting commit is ordered after us.
+            // (When grouping commits, share the number of the open group instead if it is still the latest.)
+            group = this.joinCommitGroup();
+            revisionNumber = group != null ? group.getRevisionNumber() : lastAllocatedRevisionNumber.incrementAndGet();
+
+            // An irrevocable transaction has had the commits to itself since it began, so it has nothing to validate.
+            if ( this.mode != ETransactionMode.IRREVOCABLE ) {
+
+                // Check for conflicts with items written concurrently by others (except commutative writes, merged
+                // below).
+                for ( AbstractVersionedItem versionedItem : itemsWritten ) {
+                    if ( !versionedItem.isCommutative( this.pendingRevisions.get( versionedItem ) ) ) {
+                        versionedItem.ensureNotWrittenByOtherTransaction( this );
+                    }
+                }
+
+                // Check for conflicts with items read, including those some other transaction is busy committing.
+                for ( AbstractVersionedItem versionedItem : this.versionedItemsRead ) {
+                    if ( versionedItem.isLockedForCommitByOtherTransaction( this ) ) {
+                        throw new WriteConflictException( versionedItem );
+                    }
+                    versionedItem.ensureNotWrittenByOtherTransaction( this );
+                }
+
+            }
+
+            // Merge our commutative writes with the latest committed values before linking anything, so that an operation
+            // failing abandons the revision number just like a conflict.
+            for ( AbstractVersionedItem versionedItem : itemsWritten ) {
+                versionedItem.mergeCommutativeWrite( this.pendingRevisions.get( versionedItem ) );
+            }
+
+            // Link our revisions into the shared chains; readers ignore them until the revision number is published.
+            for ( AbstractVersionedItem versionedItem : itemsWritten ) {
+                versionedItem.linkRevision( this.pendingRevisions.get( versionedItem ), revisionNumber );
+            }
+
+            this.targetRevisionNumber = revisionNumber;
+
+            // Let the items written clean up what no transaction can read any more.
+            for ( AbstractVersionedItem versionedItem : itemsWritten ) {
+                versionedItem.reclaimWhileCommitting( this );
+            }
+
+            // Describe the changes for any commit subscribers (once per collection written in several parts).
+            if ( !commitSubscriptions.isEmpty() ) {
+                Set<IVersionedItem> itemsObserved = new LinkedHashSet<>();
+                for ( AbstractVersionedItem versionedItem : itemsWritten ) {
+                    itemsObserved.add( versionedItem.getObservableItem() );
+                }
+                observableItems = itemsObserved.toArray( new IVersionedItem[itemsObserved.size()] );
+            }
+
+        }
+        finally {
+
+            // Release the commit locks.
+            for ( int i = 0; i < lockCount; i += 1 ) {
+                itemsWritten[i].unlockForCommit( this );
+            }
+
+            // Make the revision visible to new transactions once all earlier revision numbers are settled.
+            if ( group != null ) {
+                changeSet = this.finishGroupCommit( group, observableItems );
+            }
+            else if ( revisionNumber > 0L ) {
+                if ( observableItems != null ) {
+                    changeSet = new StmChangeSet( revisionNumber, Collections.unmodifiableList( Arrays.asList( observableItems ) ) );
+                }
+                publishRevisionNumber( revisionNumber, changeSet );
+            }
+
+            activeSnapshots.setCommitting( this.snapshotSlot, false );
+
+            // Get the change set delivered.
+            if ( changeSet != null ) {
+                for ( CommitSubscription subscription : commitSubscriptions ) {
+                    subscription.scheduleDelivery();
+                }
+            }
+
+            // Wake any transactions waiting to retry until something we wrote changes.
+            if ( this.targetRevisionNumber > 0L && !retryWaiters.isEmpty() ) {
+                wakeRetryWaiters( itemsWritten );
+            }
+
+        }
+
     }
 
     /**
-     * Atomically commits the given transaction.
+     * Advances the last committed revision number to the given reserved revision number. Transactions reserve
+     * revision numbers in order but may finish committing out of order; the last committed revision number only
+     * moves past a revision after every earlier revision has been committed or abandoned. This keeps the number
+     * monotone and guarantees that new transactions see consistent snapshots. It also orders change sets for
+     * commit subscribers by revision number.
      *
-     * @param transaction the transaction to commit
-     * @throws WriteConflictException if some other transaction has written some value the given transaction read.
+     * @param revisionNumber the revision number reserved by a committing transaction.
+     * @param changeSet      the changes to queue for commit subscribers (null if none or if the commit failed).
      */
-    private static synchronized void writeTransaction( StmTransaction transaction ) {
+    private static void publishRevisionNumber( long revisionNumber, StmChangeSet changeSet ) {
+
+        // Wait for the (very short) remainder of any earlier commit.
+        while ( lastCommittedRevisionNumber.get() != revisionNumber - 1 ) {
+            Thread.yield();
+        }
 
-        // Check for conflicts.
-        for ( AbstractVersionedItem versionedItem : transaction.versionedItemsRead ) {
-            versionedItem.ensureNotWrittenByOtherTransaction();
+        // Queue the change set while it is our turn (without waiting for any subscriber).
+        if ( changeSet != null ) {
+            for ( CommitSubscription subscription : commitSubscriptions ) {
+                subscription.offer( changeSet );
+            }
         }
 
-        // Set the revision number to a committed value.
-        transaction.targetRevisionNumber.set( lastCommittedRevisionNumber.incrementAndGet() );
+        // Note the time for reading as of a time later.
+        history.recordCommitTime( revisionNumber );
+
+        lastCommittedRevisionNumber.set( revisionNumber );
 
     }
 
@@ -71,19 +315,88 @@ public class StmTransaction {
      */
     void abort() {
 
-        // Revision number = 0 indicates an aborted transaction.
-        this.targetRevisionNumber.set( 0L );
+        long startNanos = StmMetrics.startTiming();
+
+        // No work may resume once the transaction finishes.
+        this.completed = true;
 
-        // Clean up aborted revisions ...
-        for ( AbstractVersionedItem versionedItem : this.versionedItemsWritten ) {
-            versionedItem.removeAbortedRevision();
+        // A read-only transaction has nothing to undo.
+        if ( this.mode == ETransactionMode.READ_ONLY ) {
+            activeSnapshots.release( this.snapshotSlot );
+            StmMetrics.recordAbort( startNanos );
+            return;
         }
 
+        // Revision number = 0 indicates an aborted transaction.
+        this.targetRevisionNumber = 0L;
+
+        // Our writes never left the buffer; just drop them (along with any unfinished nested transactions).
+        this.pendingRevisions.clear();
         this.versionedItemsRead.clear();
-        this.versionedItemsWritten.clear();
+        this.nestingLevel = null;
+
+        // Let other transactions commit again.
+        this.releaseIrrevocableToken();
+
+        // We're no longer using the source revision.
+        activeSnapshots.release( this.snapshotSlot );
+
+        StmMetrics.recordAbort( startNanos );
+
+    }
+
+    /**
+     * Ends the innermost nested transaction without effect: discards its writes. What it read may either still count
+     * as read by the enclosing transaction (as it does after a failure other than a conflict, e.g. a retry) or be
+     * forgotten (when the nested work is about to be tried again).
+     *
+     * @param keepItemsRead whether the enclosing transaction still depends on what the nested one read.
+     */
+    void abortNested( boolean keepItemsRead ) {
+
+        NestingLevel level = this.nestingLevel;
+
+        this.rollBackToSavepoint( level.savepoint );
+
+        if ( keepItemsRead ) {
+            level.enclosingItemsRead.addAll( this.versionedItemsRead );
+        }
+
+        this.versionedItemsRead = level.enclosingItemsRead;
+        this.nestingLevel = level.enclosingLevel;
+
+    }
+
+    /**
+     * Registers a subscription for the change sets of subsequently committed transactions.
+     *
+     * @param subscription the new subscription.
+     */
+    static void addCommitSubscription( CommitSubscription subscription ) {
+        commitSubscriptions.add( subscription );
+    }
+
+    /**
+     * Buffers the first revision written by this transaction for a versioned item. The revision stays private to
+     * this transaction until commit; earlier revisions of the item will be cleaned up after all transactions using
+     * them have completed.
+     *
+     * @param versionedItem   the item that has been written.
+     * @param pendingRevision the new revision of the item, not yet linked into its chain.
+     */
+    void addPendingRevision( AbstractVersionedItem versionedItem, Object pendingRevision ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( versionedItem );
+        Objects.requireNonNull( pendingRevision );
 
-        // Trigger any clean up that is possible from no longer needing our source version.
-        this.cleanUpOlderRevisions();
+        // Track all versioned items written by this transaction.
+        this.pendingRevisions.put( versionedItem, pendingRevision );
+
+        // If we have already seen a write conflict, fail early.
+        if ( this.newerRevisionItem != null ) {
+            throw new WriteConflictException( this.newerRevisionItem );
+        }
 
     }
 
@@ -95,6 +408,12 @@ public class StmTransaction {
      */
     void addVersionedItemRead( AbstractVersionedItem versionedItem ) {
 
+        // A read-only or irrevocable transaction cannot conflict, and a snapshot isolation transaction validates only
+        // what it is told to, so none of them need remember what it read.
+        if ( this.mode != ETransactionMode.READ_WRITE ) {
+            return;
+        }
+
         // Sanity check the input.
         Objects.requireNonNull( versionedItem );
 
@@ -104,23 +423,84 @@ public class StmTransaction {
     }
 
     /**
-     * Tracks all versioned items written by this transaction. The versions written by this transaction will be cleaned
-     * up after the transaction aborts. Any earlier versions will be cleaned up after all transactions using any
-     * earlier versions and their source have completed.
+     * Tracks a versioned item that must remain unwritten by other transactions until this transaction commits, even
+     * in snapshot isolation mode.
      *
-     * @param versionedItem the item that has been written.
+     * @param versionedItem the item to validate at commit.
      */
-    void addVersionedItemWritten( AbstractVersionedItem versionedItem ) {
+    void addVersionedItemToValidate( AbstractVersionedItem versionedItem ) {
+
+        // A read-only or irrevocable transaction has nothing to validate.
+        if ( this.mode == ETransactionMode.READ_ONLY || this.mode == ETransactionMode.IRREVOCABLE ) {
+            return;
+        }
 
         // Sanity check the input.
         Objects.requireNonNull( versionedItem );
 
-        // Track all versioned items written by this transaction.
-        this.versionedItemsWritten.add( versionedItem );
+        // Validate with the items read.
+        this.versionedItemsRead.add( versionedItem );
 
-        // If we have already seen a write conflict, fail early.
-        if ( this.newerRevisionSeen ) {
-            throw new WriteConflictException();
+    }
+
+    /**
+     * Waits until some item watched for a retry has changed, then stops watching.
+     *
+     * @param waiter the result of watchItemsRead for a transaction that has since been aborted.
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted while waiting.
+     */
+    static void awaitChange( RetryWaiter waiter ) {
+
+        try {
+            waiter.await();
+        }
+        finally {
+            for ( AbstractVersionedItem versionedItem : waiter.getItemsWatched() ) {
+                retryWaiters.computeIfPresent( versionedItem, ( item, waiters ) -> {
+                    waiters.remove( waiter );
+                    return waiters.isEmpty() ? null : waiters;
+                } );
+            }
+        }
+
+    }
+
+    /**
+     * Starts a closed nested transaction within this one. The nested transaction reads and writes through this one;
+     * it tracks its reads separately and marks a savepoint for its writes so that it alone can be rolled back.
+     */
+    void beginNested() {
+        this.nestingLevel = new NestingLevel( this.nestingLevel, this.markSavepoint(), this.versionedItemsRead );
+        this.versionedItemsRead = new HashSet<>();
+    }
+
+    /**
+     * Binds this transaction to the current thread, waiting while another thread is using it. Threads thus take
+     * turns working in a transaction handed off between them. A read-only transaction tracks nothing, so any number
+     * of threads may share it at once.
+     *
+     * @throws IllegalStateException if the transaction has already committed or aborted.
+     */
+    void bindToCurrentThread() {
+
+        // Share a read-only transaction freely.
+        if ( this.mode == ETransactionMode.READ_ONLY ) {
+            if ( this.completed ) {
+                throw new IllegalStateException( "Attempted to resume a completed transaction." );
+            }
+            return;
+        }
+
+        // Claim the transaction, pausing while some other thread is done with it.
+        Thread currentThread = Thread.currentThread();
+        while ( !boundThreadUpdater.compareAndSet( this, null, currentThread ) ) {
+            LockSupport.parkNanos( TOKEN_POLLING_NANOS );
+        }
+
+        // Fail fast on late work for a finished transaction.
+        if ( this.completed ) {
+            this.boundThread = null;
+            throw new IllegalStateException( "Attempted to resume a completed transaction." );
         }
 
     }
@@ -133,208 +513,967 @@ public class StmTransaction {
      */
     void commit() {
 
-        // TBD: notify observers of read & written items inside transaction -- use a callback interface
+        long startNanos = StmMetrics.startTiming();
 
-        // Make the synchronized changed to make the transaction permanent.
-        if ( this.versionedItemsWritten.size() > 0 ) {
-            writeTransaction( this );
+        // No work may resume once the transaction finishes.
+        this.completed = true;
+
+        // A read-only transaction has nothing to validate or publish.
+        if ( this.mode == ETransactionMode.READ_ONLY ) {
+            activeSnapshots.release( this.snapshotSlot );
+            StmMetrics.recordCommit( startNanos );
+            return;
         }
 
-        // TBD: notify observers of read & written items outside the transaction -- use a callback interface
+        // Lock, validate, and publish the changes to make the transaction permanent.
+        boolean written = !this.pendingRevisions.isEmpty();
+        if ( written ) {
+            this.writeTransaction();
+        }
 
         // No longer hang on to the items read.
         this.versionedItemsRead.clear();
 
+        // Let other transactions commit again.
+        this.releaseIrrevocableToken();
+
         // Add this transaction (with its written revisions) to a queue awaiting clean up when no longer needed.
-        this.awaitCleanUp();
+        if ( written ) {
+            this.awaitCleanUp();
+        }
+
+        // We're no longer using the source revision.
+        activeSnapshots.release( this.snapshotSlot );
+
+        // Keep the reclaimer in step with our writes.
+        if ( written ) {
+            paceReclamation();
+        }
 
-        // Trigger any clean up that is possible from no longer needing our source version.
-        this.cleanUpOlderRevisions();
+        StmMetrics.recordCommit( startNanos );
 
     }
 
     /**
-     * @return the revision number of information to be read by this transaction.
+     * Ends the innermost nested transaction successfully: its reads are merged into those of the enclosing
+     * transaction (its writes already are), to be validated when the top-level transaction commits.
      */
-    long getSourceRevisionNumber() {
-        return sourceRevisionNumber;
+    void commitNested() {
+
+        NestingLevel level = this.nestingLevel;
+
+        level.enclosingItemsRead.addAll( this.versionedItemsRead );
+
+        this.versionedItemsRead = level.enclosingItemsRead;
+        this.nestingLevel = level.enclosingLevel;
+
     }
 
     /**
-     * Determines the status of this transaction from its target revision number.
-     * <p>
-     * TBD: this seems to have no use
+     * Changes whether and how commits are grouped.
      *
-     * @return the transaction status (IN_PROGRESS, COMMITTED, or ABORTED).
+     * @param maxGroupSize the most transactions to commit under one revision number (one to commit individually).
+     * @param windowNanos  how long a group stays open for more transactions.
      */
-    ETransactionStatus getStatus() {
-        long targetRevNumber = this.targetRevisionNumber.get();
-        if ( targetRevNumber < 0 ) {
-            return ETransactionStatus.IN_PROGRESS;
-        }
-        if ( targetRevNumber == 0 ) {
-            return ETransactionStatus.ABORTED;
-        }
-        return ETransactionStatus.COMMITTED;
+    static void configureGroupCommit( int maxGroupSize, long windowNanos ) {
+        groupCommitWindowNanos = windowNanos;
+        groupCommitMaxSize = maxGroupSize;
     }
 
     /**
-     * @return the revision number of information written by this transaction (negative while transaction is running; positive after committed.
+     * Changes the deadline given to transactions begun from now on.
+     *
+     * @param deadlineNanos how long a transaction may run (Long.MAX_VALUE for no deadline).
      */
-    AtomicLong getTargetRevisionNumber() {
-        return this.targetRevisionNumber;
+    static void configureDeadline( long deadlineNanos ) {
+        watchdog.configureDefaultDeadline( deadlineNanos );
     }
 
     /**
-     * Takes note that some read operation has seen a newer version and will certainly fail with a write conflict if
-     * this transaction writes anything. Fails immediately if this transaction has already written anything.
+     * Changes the retention of historical revisions.
+     *
+     * @param revisionCount the number of most recent revisions to keep readable (zero to retain no history).
+     * @param maxAgeMillis  the age beyond which revisions need not be kept readable (Long.MAX_VALUE for no limit).
      */
-    void setNewerRevisionSeen() {
-
-        // If we have previously written something, then we've detected a write conflict; fail early.
-        if ( !this.versionedItemsWritten.isEmpty() ) {
-            throw new WriteConflictException();
-        }
-
-        // Track the newer revision number to fail early if we subsequently write something.
-        this.newerRevisionSeen = true;
-
+    static void configureHistory( int revisionCount, long maxAgeMillis ) {
+        history.configure( revisionCount, maxAgeMillis );
     }
 
     /**
-     * Puts this transaction at the head of a list of all transactions awaiting clean up.
+     * Changes the reporting of long-running transactions.
+     *
+     * @param thresholdNanos           how long a transaction may run before being reported (Long.MAX_VALUE never to
+     *                                 report).
+     * @param beginStackTracesCaptured whether transactions begun from now on record where they began.
      */
-    private void awaitCleanUp() {
-
-        // Get the first transaction awaiting clean up.
-        StmTransaction firstTransAwaitingCleanUp = firstTransactionAwaitingCleanUp.get();
+    static void configureLongRunningReports( long thresholdNanos, boolean beginStackTracesCaptured ) {
+        watchdog.configureLongRunningThreshold( thresholdNanos );
+        watchdog.configureBeginStackTraces( beginStackTracesCaptured );
+    }
 
-        // Link this transaction into the head of the list.
-        this.nextTransactionAwaitingCleanUp.set( firstTransAwaitingCleanUp );
+    /**
+     * Changes the backlog of unreclaimed revisions beyond which committing transactions wait for the reclaimer.
+     *
+     * @param revisionCount the number of revisions committed since the last reclamation pass that triggers
+     *                      back-pressure.
+     */
+    static void configureReclamation( long revisionCount ) {
+        reclamationBackPressureThreshold = revisionCount;
+    }
 
-        // Spin until we do both atomically.
-        while ( !firstTransactionAwaitingCleanUp.compareAndSet( firstTransAwaitingCleanUp, this ) ) {
-            firstTransAwaitingCleanUp = firstTransactionAwaitingCleanUp.get();
-            this.nextTransactionAwaitingCleanUp.set( firstTransAwaitingCleanUp );
+    /**
+     * Fails fast if this transaction cannot wait for a change to what it read.
+     *
+     * @throws IllegalStateException if this transaction does not track its reads (or is irrevocable, unless
+     *                               escalated) or has read nothing.
+     */
+    void ensureRetryable() {
+        if ( this.mode == ETransactionMode.READ_ONLY || this.mode == ETransactionMode.SNAPSHOT_ISOLATION ) {
+            throw new IllegalStateException( "Retry is only possible in a serializable transaction." );
+        }
+        if ( this.mode == ETransactionMode.IRREVOCABLE ) {
+            // An escalated attempt gives way to a serializable one, which can wait.
+            if ( this.escalated ) {
+                return;
+            }
+            throw new IllegalStateException( "Retry is not possible in an irrevocable transaction, which holds off the commits it would wait for." );
+        }
+        boolean itemsRead = !this.versionedItemsRead.isEmpty();
+        for ( NestingLevel level = this.nestingLevel; level != null && !itemsRead; level = level.enclosingLevel ) {
+            itemsRead = !level.enclosingItemsRead.isEmpty();
+        }
+        if ( !itemsRead ) {
+            throw new IllegalStateException( "Retrying a transaction that has read nothing would wait forever." );
         }
-
     }
 
     /**
-     * Removes the source revision number of this transaction from those in use. Cleans up older revisions
-     * if not in use by other transactions.
+     * Fails if the watchdog has found this transaction running past its deadline. Called on every access of a
+     * versioned item, so costs just a volatile read otherwise.
+     *
+     * @throws TransactionDeadlineExceededException if this transaction is overdue.
      */
-    private void cleanUpOlderRevisions() {
-
-        // We're no longer using the source revision.
-        final long priorOldestRevisionInUse = sourceRevisionsInUse.peek();
-        sourceRevisionsInUse.remove( this.sourceRevisionNumber );
-
-        // Determine the oldest revision still needed.
-        Long oldestRevisionInUse = sourceRevisionsInUse.peek();
-        if ( oldestRevisionInUse == null ) {
-            oldestRevisionInUse = priorOldestRevisionInUse;
+    void ensureWithinDeadline() {
+        if ( this.overdue ) {
+            throw new TransactionDeadlineExceededException();
         }
+    }
 
-        //  Remove each transaction awaiting clean up that has a target revision number older than needed.
-        AtomicReference<StmTransaction> tref = firstTransactionAwaitingCleanUp;
-        StmTransaction t = tref.get();
-        if ( t == null ) {
-            return;
+    /**
+     * Fails fast if this transaction is not allowed to write.
+     *
+     * @throws IllegalStateException if this is a read-only transaction.
+     */
+    void ensureWritable() {
+        if ( this.mode == ETransactionMode.READ_ONLY ) {
+            throw new IllegalStateException( "Attempted to write inside a read-only transaction." );
         }
+    }
+
+    /**
+     * Moves this transaction's snapshot forward to the latest committed revision, provided that nothing it has read
+     * or written so far has been written by others since its current snapshot. Used after rolling back a nested
+     * transaction for a conflict, so that the nested work can be tried again without redoing the enclosing work. Only
+     * for a serializable transaction, the one mode tracking everything it reads.
+     *
+     * @throws WriteConflictException if the enclosing work itself is in conflict.
+     */
+    void extendSnapshot() {
 
-        AtomicReference<StmTransaction> trefNext = t.nextTransactionAwaitingCleanUp;
-        StmTransaction tNext = trefNext.get();
+        // Note the target first; anything committed up to it is already linked into its chains.
+        long targetRevNumber = lastCommittedRevisionNumber.get();
 
-        while ( true ) {
-            if ( t.targetRevisionNumber.get() <= oldestRevisionInUse ) {
-                if ( tref.compareAndSet( t, tNext ) ) {
-                    // Remove revisions older than the now unused revision number.
-                    t.removeUnusedRevisions();
-                    t.nextTransactionAwaitingCleanUp.set( null );
-                }
+        // Check everything still tracked against the current snapshot (except commutative writes, which cannot
+        // conflict).
+        for ( Map.Entry<AbstractVersionedItem, Object> entry : this.pendingRevisions.entrySet() ) {
+            if ( !entry.getKey().isCommutative( entry.getValue() ) ) {
+                entry.getKey().ensureNotWrittenByOtherTransaction( this );
             }
-            else {
-                tref = trefNext;
-            }
-
-            // Advance through the list of transactions awaiting clean up.
-            t = tref.get();
-            if ( t == null ) {
-                return;
+        }
+        for ( AbstractVersionedItem versionedItem : this.versionedItemsRead ) {
+            versionedItem.ensureNotWrittenByOtherTransaction( this );
+        }
+        for ( NestingLevel level = this.nestingLevel; level != null; level = level.enclosingLevel ) {
+            for ( AbstractVersionedItem versionedItem : level.enclosingItemsRead ) {
+                versionedItem.ensureNotWrittenByOtherTransaction( this );
             }
-            trefNext = t.nextTransactionAwaitingCleanUp;
-            tNext = trefNext.get();
         }
 
+        // Move the snapshot. (Nothing newer than our old source revision has been reclaimed, so no wait is needed.)
+        activeSnapshots.update( this.snapshotSlot, targetRevNumber );
+        this.sourceRevisionNumber = targetRevNumber;
+        this.newerRevisionItem = null;
+
     }
 
     /**
-     * Cleans up all the referenced versioned items written by this transaction.
+     * Finds the latest revision committed at or before a given time.
+     *
+     * @param epochMillis the time of interest.
+     * @return the revision number current at the given time.
+     * @throws IllegalArgumentException if the time is older than the history retained.
+     * @throws IllegalStateException    if no history is retained.
      */
-    private void removeUnusedRevisions() {
-
-        // Remove all revisions older than the one written by this transaction.
-        final long oldestUsableRevisionNumber = this.targetRevisionNumber.get();
-        for ( AbstractVersionedItem versionedItem : this.versionedItemsWritten ) {
-            versionedItem.removeUnusedRevisions( oldestUsableRevisionNumber );
-        }
-
-        // Stop referencing the versioned items.
-        this.versionedItemsWritten.clear();
-
+    static long findRevisionNumberAsOf( long epochMillis ) {
+        return history.findRevisionNumberAsOf( epochMillis, lastCommittedRevisionNumber::get );
     }
 
     /**
-     * Head of a linked list of transactions awaiting clean up.
+     * @return the revision number of the latest committed transaction.
      */
-    private static AtomicReference<StmTransaction> firstTransactionAwaitingCleanUp = new AtomicReference<>( null );
+    static long getLastCommittedRevisionNumber() {
+        return lastCommittedRevisionNumber.get();
+    }
 
     /**
-     * Monotone increasing revision number incremented whenever a transaction is successfully committed.
+     * @return whether this transaction may write.
      */
-    private static AtomicLong lastCommittedRevisionNumber = new AtomicLong( 0 );
+    ETransactionMode getMode() {
+        return this.mode;
+    }
 
     /**
-     * Monotone decreasing revision number decremented whenever a transaction is started. Negative value
-     * indicates a transaction in progress.
+     * @return the oldest revision number still read by some transaction (the last committed one if none).
      */
-    private static AtomicLong lastPendingRevisionNumber = new AtomicLong( 0 );
+    static long getOldestPinnedRevisionNumber() {
+        return activeSnapshots.getOldestRevisionInUse( lastCommittedRevisionNumber.get() );
+    }
 
     /**
-     * Priority queue of revision numbers currently in use as the source revision for some transaction.
+     * @return the oldest revision number that some transaction, running or yet to begin, may still read (the older of
+     * the oldest pinned and the oldest retained).
      */
-    private static Queue<Long> sourceRevisionsInUse = new PriorityBlockingQueue<>();
+    static long getOldestReadableRevisionNumber() {
+        return activeSnapshots.getOldestRevisionInUse( history.getOldestRetainedRevisionNumber() );
+    }
 
     /**
-     * A newer revision number seen during reading will cause a write conflict if anything writes through this transaction.
+     * @return the oldest revision number that can still be read.
      */
-    private boolean newerRevisionSeen;
+    static long getOldestRetainedRevisionNumber() {
+        return history.getOldestRetainedRevisionNumber();
+    }
 
     /**
-     * The next transaction in a linked list of transactions awaiting clean up.
+     * Looks up the revision of a versioned item buffered by this transaction.
+     *
+     * @param versionedItem the item to look up.
+     * @param <R>           the type of revision buffered by the item.
+     * @return the revision written by this transaction or null if the item has not been written.
      */
-    private final AtomicReference<StmTransaction> nextTransactionAwaitingCleanUp;
+    @SuppressWarnings("unchecked")
+    <R> R getPendingRevision( AbstractVersionedItem versionedItem ) {
+
+        // A read-only transaction has written nothing.
+        if ( this.pendingRevisions == null ) {
+            return null;
+        }
+
+        return (R) this.pendingRevisions.get( versionedItem );
+
+    }
 
     /**
-     * The revision number being read by this transaction.
+     * @return the number of revisions committed since the last reclamation pass (the revisions the reclaimer has yet
+     * to consider).
      */
-    private final long sourceRevisionNumber;
+    static long getReclamationBacklog() {
+        return Math.max( 0L, retainedRevisionCount.get() - retainedRevisionCountAfterReclamation );
+    }
 
     /**
-     * The revision number being written by this transaction. Negative while the transaction is running; zero if
-     * the transaction is aborted; positive after the transaction has been committed.
+     * @return the number of superseded revisions written by committed transactions not yet cleaned up.
+     */
+    static long getRetainedRevisionCount() {
+        return retainedRevisionCount.get();
+    }
+
+    /**
+     * @return the revision number of information to be read by this transaction.
+     */
+    long getSourceRevisionNumber() {
+        return sourceRevisionNumber;
+    }
+
+    /**
+     * Determines the status of this transaction from its target revision number.
+     * <p>
+     * TBD: this seems to have no use
+     *
+     * @return the transaction status (IN_PROGRESS, COMMITTED, or ABORTED).
+     */
+    ETransactionStatus getStatus() {
+        long targetRevNumber = this.targetRevisionNumber;
+        if ( targetRevNumber < 0 ) {
+            return ETransactionStatus.IN_PROGRESS;
+        }
+        if ( targetRevNumber == 0 ) {
+            return ETransactionStatus.ABORTED;
+        }
+        return ETransactionStatus.COMMITTED;
+    }
+
+    /**
+     * @return whether a nested transaction is in progress within this one.
+     */
+    boolean isNested() {
+        return this.nestingLevel != null;
+    }
+
+    /**
+     * Notes that this irrevocable transaction is an attempt of a serializable task escalated by its contention policy,
+     * so that the task may still call retry (to be run again serializably).
+     */
+    void markEscalated() {
+        this.escalated = true;
+    }
+
+    /**
+     * Captures the writes of this transaction so far, for rolling back to them later.
+     *
+     * @return the savepoint (null for a read-only transaction, which writes nothing).
+     */
+    Map<AbstractVersionedItem, Object> markSavepoint() {
+
+        if ( this.pendingRevisions == null ) {
+            return null;
+        }
+
+        // Copy the buffered revisions since later writes update them in place.
+        Map<AbstractVersionedItem, Object> result = new HashMap<>();
+        for ( Map.Entry<AbstractVersionedItem, Object> entry : this.pendingRevisions.entrySet() ) {
+            result.put( entry.getKey(), entry.getKey().copyPendingRevision( entry.getValue() ) );
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Cancels a subscription for change sets.
+     *
+     * @param subscription the subscription to cancel.
+     */
+    static void removeCommitSubscription( CommitSubscription subscription ) {
+        commitSubscriptions.remove( subscription );
+    }
+
+    /**
+     * Discards the writes made since a savepoint. (What was read since stays tracked; the transaction still depends on
+     * it.)
+     *
+     * @param savepoint the result of an earlier call to markSavepoint.
+     */
+    void rollBackToSavepoint( Map<AbstractVersionedItem, Object> savepoint ) {
+
+        if ( savepoint == null ) {
+            return;
+        }
+
+        // Restore copies so that the savepoint can be rolled back to again.
+        this.pendingRevisions.clear();
+        for ( Map.Entry<AbstractVersionedItem, Object> entry : savepoint.entrySet() ) {
+            this.pendingRevisions.put( entry.getKey(), entry.getKey().copyPendingRevision( entry.getValue() ) );
+        }
+
+    }
+
+    /**
+     * Overrides the default contention policy for this transaction.
+     *
+     * @param contentionPolicy the policy deciding whether to wait for commit locks.
+     * @param startTime        the time (System.nanoTime()) when the first attempt of the transactional task started.
+     */
+    void setContentionPolicy( IContentionPolicy contentionPolicy, long startTime ) {
+        this.contentionPolicy = contentionPolicy;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Moves the deadline of this transaction to the given time from now, lifting any overdue flag. (An irrevocable
+     * transaction keeps having no deadline.)
+     *
+     * @param timeoutNanos how much longer the transaction may run (Long.MAX_VALUE for no deadline).
+     */
+    void setDeadline( long timeoutNanos ) {
+
+        if ( this.mode == ETransactionMode.IRREVOCABLE ) {
+            return;
+        }
+
+        long runningNanos = System.nanoTime() - this.beginTime;
+
+        // Saturate rather than overflow a very long timeout.
+        this.deadlineNanos = timeoutNanos > Long.MAX_VALUE - runningNanos ? Long.MAX_VALUE : runningNanos + timeoutNanos;
+        this.overdue = false;
+
+    }
+
+    /**
+     * Takes note that some read operation has seen a newer version and will certainly fail with a write conflict if
+     * this transaction writes anything. Fails immediately if this transaction has already written anything.
+     *
+     * @param versionedItem the item with a revision newer than this transaction's source revision.
+     */
+    void setNewerRevisionSeen( AbstractVersionedItem versionedItem ) {
+
+        // A read-only or snapshot isolation transaction reads its snapshot regardless of newer revisions, and an
+        // irrevocable one cannot conflict.
+        if ( this.mode != ETransactionMode.READ_WRITE ) {
+            return;
+        }
+
+        // If we have previously written something, then we've detected a write conflict; fail early.
+        if ( !this.pendingRevisions.isEmpty() ) {
+            throw new WriteConflictException( versionedItem );
+        }
+
+        // Track the newer revision number to fail early if we subsequently write something.
+        this.newerRevisionItem = versionedItem;
+
+    }
+
+    /**
+     * Releases this transaction from the thread it was bound to, letting another thread resume it. (The volatile
+     * write publishes the transaction's bookkeeping to that thread.)
+     */
+    void unbindFromCurrentThread() {
+        if ( this.mode != ETransactionMode.READ_ONLY ) {
+            this.boundThread = null;
+        }
+    }
+
+    /**
+     * Starts watching the items read by this transaction for changes committed by others, before the transaction is
+     * aborted to retry later. A change already committed since our source revision counts at once, so none can slip
+     * by between the reads and the watching.
+     *
+     * @return the waiter to pass to awaitChange once the transaction has been aborted.
+     */
+    RetryWaiter watchItemsRead() {
+
+        RetryWaiter result = new RetryWaiter( this.versionedItemsRead );
+
+        // Register before checking; a committer links and publishes before looking for waiters.
+        for ( AbstractVersionedItem versionedItem : result.getItemsWatched() ) {
+            retryWaiters.compute( versionedItem, ( item, waiters ) -> {
+                Set<RetryWaiter> watchers = waiters != null ? waiters : ConcurrentHashMap.newKeySet();
+                watchers.add( result );
+                return watchers;
+            } );
+        }
+
+        for ( AbstractVersionedItem versionedItem : result.getItemsWatched() ) {
+            if ( versionedItem.getLatestRevisionNumber() > this.sourceRevisionNumber ) {
+                result.wake();
+                break;
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Takes the exclusive commit token, then waits until no other transaction is in the middle of committing.
+     */
+    private void acquireIrrevocableToken() {
+
+        // Wait our turn for the token.
+        while ( !irrevocableTransaction.compareAndSet( null, this ) ) {
+            LockSupport.parkNanos( TOKEN_POLLING_NANOS );
+        }
+
+        // Let commits already under way finish.
+        while ( activeSnapshots.isCommitInProgress() ) {
+            Thread.yield();
+        }
+
+    }
+
+    /**
+     * Puts this transaction at the head of a list of all transactions awaiting clean up.
+     */
+    private void awaitCleanUp() {
+
+        // Count the superseded revisions now retained on our account.
+        retainedRevisionCount.addAndGet( this.pendingRevisions.size() );
+
+        // Get the first transaction awaiting clean up.
+        StmTransaction firstTransAwaitingCleanUp = firstTransactionAwaitingCleanUp.get();
+
+        // Link this transaction into the head of the list.
+        this.nextTransactionAwaitingCleanUp.set( firstTransAwaitingCleanUp );
+
+        // Spin until we do both atomically.
+        while ( !firstTransactionAwaitingCleanUp.compareAndSet( firstTransAwaitingCleanUp, this ) ) {
+            firstTransAwaitingCleanUp = firstTransactionAwaitingCleanUp.get();
+            this.nextTransactionAwaitingCleanUp.set( firstTransAwaitingCleanUp );
+        }
+
+    }
+
+    /**
+     * Flags this transaction as committing, first waiting for any irrevocable transaction other than this one to
+     * finish. (The flag is set before checking the token so that a new token holder is sure to wait for us.)
      */
-    private final AtomicLong targetRevisionNumber;
+    private void enterCommit() {
+
+        while ( true ) {
+
+            activeSnapshots.setCommitting( this.snapshotSlot, true );
+
+            StmTransaction holder = irrevocableTransaction.get();
+            if ( holder == null || holder == this ) {
+                return;
+            }
+
+            // Back out and wait for the token to be released.
+            activeSnapshots.setCommitting( this.snapshotSlot, false );
+            while ( irrevocableTransaction.get() == holder ) {
+                LockSupport.parkNanos( TOKEN_POLLING_NANOS );
+            }
+
+        }
+
+    }
 
     /**
-     * The versioned items read by this transaction.
+     * Completes this transaction's part in a group commit. A member waits for the leader to publish the group's
+     * revision; the leader closes the group and publishes it.
+     *
+     * @param group           the group joined by this transaction.
+     * @param observableItems the observable items written if this transaction committed and anyone subscribes to
+     *                        changes; null otherwise.
+     * @return the group's combined change set if this transaction published it (null otherwise or if none).
+     */
+    private StmChangeSet finishGroupCommit( CommitGroup group, IVersionedItem[] observableItems ) {
+
+        group.finish( observableItems );
+
+        // Members return once their revision is visible.
+        if ( !group.isLedBy( this ) ) {
+            while ( lastCommittedRevisionNumber.get() < group.getRevisionNumber() ) {
+                Thread.yield();
+            }
+            return null;
+        }
+
+        // The leader publishes for all.
+        StmChangeSet result = group.close();
+        publishRevisionNumber( group.getRevisionNumber(), result );
+
+        return result;
+
+    }
+
+    /**
+     * Joins the open commit group if commits are grouped, or else opens a new group. Called after acquiring our
+     * commit locks: the open group's revision number may only be shared while it is still the latest reserved, so
+     * that any commit validated without seeing our locks is still ordered before us.
+     *
+     * @return the group joined or opened (null if this transaction commits alone).
+     */
+    private CommitGroup joinCommitGroup() {
+
+        // Commit alone unless grouping commits (an irrevocable transaction has the commits to itself anyway).
+        int maxGroupSize = groupCommitMaxSize;
+        if ( maxGroupSize <= 1 || this.mode == ETransactionMode.IRREVOCABLE ) {
+            return null;
+        }
+
+        while ( true ) {
+
+            // Join the open group if it is still the latest and has room.
+            CommitGroup group = openCommitGroup.get();
+            if ( group != null && group.awaitRevisionNumber() == lastAllocatedRevisionNumber.get() && group.tryJoin() ) {
+                return group;
+            }
+
+            // Otherwise open a new group for others to join, unless another committer opens one first. (The group is
+            // opened before its number is reserved so that simultaneous arrivals find it.)
+            CommitGroup result = new CommitGroup( this, maxGroupSize, groupCommitWindowNanos );
+            if ( openCommitGroup.compareAndSet( group, result ) ) {
+                result.setRevisionNumber( lastAllocatedRevisionNumber.incrementAndGet() );
+                return result;
+            }
+
+        }
+
+    }
+
+    /**
+     * Prods the reclaimer once a batch of revisions awaits it, or waits for it to catch up if the backlog has grown
+     * past the back-pressure threshold. O(1) unless throttled.
+     */
+    private static void paceReclamation() {
+
+        long backlog = getReclamationBacklog();
+
+        if ( backlog > reclamationBackPressureThreshold ) {
+            reclaimer.awaitPass();
+        }
+        else if ( backlog >= RECLAMATION_BATCH_SIZE ) {
+            reclaimer.wake();
+        }
+
+    }
+
+    /**
+     * Cleans up the revisions that no running transaction needs and that are older than the history retained. Run
+     * only by the reclaimer thread.
+     */
+    private static void reclaimRevisions() {
+
+        // Note the latest revision before looking at those in use; nothing older can be needed by a newcomer.
+        final long lastCommittedRevNumber = lastCommittedRevisionNumber.get();
+
+        // Advance the oldest retained revision first, so that a transaction reading history sees the advance or is
+        // seen among those in use.
+        final long oldestRetainedRevNumber = history.advanceOldestRetainedRevisionNumber( lastCommittedRevNumber );
+
+        // Determine the oldest revision still needed.
+        final long oldestRevisionInUse = activeSnapshots.getOldestRevisionInUse( oldestRetainedRevNumber );
+
+        // Note what the backlog is measured against; revisions counted later are handled by the next pass.
+        final long retainedRevCount = retainedRevisionCount.get();
+
+        //  Remove each transaction awaiting clean up that has a target revision number older than needed. (Committers
+        //  only ever push onto the head of the list concurrently.)
+        AtomicReference<StmTransaction> tref = firstTransactionAwaitingCleanUp;
+        StmTransaction t = tref.get();
+        long reclaimedRevCount = 0L;
+
+        while ( t != null ) {
+            AtomicReference<StmTransaction> trefNext = t.nextTransactionAwaitingCleanUp;
+            if ( t.targetRevisionNumber <= oldestRevisionInUse ) {
+                if ( tref.compareAndSet( t, trefNext.get() ) ) {
+                    // Remove revisions older than the now unused revision number.
+                    reclaimedRevCount += t.removeUnusedRevisions();
+                    trefNext.set( null );
+                }
+            }
+            else {
+                tref = trefNext;
+            }
+
+            // Advance through the list of transactions awaiting clean up.
+            t = tref.get();
+        }
+
+        // Settle the count of retained revisions in one go for the whole batch.
+        retainedRevisionCount.addAndGet( -reclaimedRevCount );
+        retainedRevisionCountAfterReclamation = retainedRevCount - reclaimedRevCount;
+
+    }
+
+    /**
+     * Releases the exclusive commit token if this transaction holds it.
+     */
+    private void releaseIrrevocableToken() {
+        if ( this.mode == ETransactionMode.IRREVOCABLE ) {
+            irrevocableTransaction.compareAndSet( this, null );
+        }
+    }
+
+    /**
+     * Cleans up all the referenced versioned items written by this transaction.
+     *
+     * @return the number of revisions cleaned up.
+     */
+    private int removeUnusedRevisions() {
+
+        // Remove all revisions older than the ones written by this transaction.
+        for ( Map.Entry<AbstractVersionedItem, Object> entry : this.pendingRevisions.entrySet() ) {
+            entry.getKey().removeUnusedRevisions( entry.getValue() );
+        }
+
+        // Stop referencing the versioned items.
+        int result = this.pendingRevisions.size();
+        this.pendingRevisions.clear();
+
+        return result;
+
+    }
+
+    /**
+     * Wakes the transactions waiting for a change to any of the given items.
+     *
+     * @param itemsWritten the items just written by a committed transaction.
+     */
+    private static void wakeRetryWaiters( AbstractVersionedItem[] itemsWritten ) {
+        for ( AbstractVersionedItem versionedItem : itemsWritten ) {
+            Set<RetryWaiter> waiters = retryWaiters.get( versionedItem );
+            if ( waiters != null ) {
+                for ( RetryWaiter waiter : waiters ) {
+                    waiter.wake();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks this running transaction against its deadline and the long-running threshold. Run only by the watchdog
+     * thread.
+     *
+     * @param revisionNumber the source revision number registered for this transaction.
+     * @param now            the time (System.nanoTime()) of the watch pass.
+     * @param thresholdNanos the running time past which a transaction is reported.
+     */
+    private void watch( long revisionNumber, long now, long thresholdNanos ) {
+
+        long runningNanos = now - this.beginTime;
+
+        // Flag an overrunning transaction to fail at its next access of a versioned item.
+        if ( runningNanos > this.deadlineNanos && !this.overdue ) {
+            this.overdue = true;
+            StmMetrics.recordDeadlineExceeded();
+        }
+
+        // Report a transaction pinning an old revision for too long, just once.
+        if ( runningNanos > thresholdNanos && !this.longRunningReported ) {
+            this.longRunningReported = true;
+            StmMetrics.recordLongRunning();
+            watchdog.reportLongRunning( runningNanos, revisionNumber, this.beginStackTrace, this.boundThread );
+        }
+
+    }
+
+    /**
+     * Looks over all running transactions for those overdue or long-running. Run only by the watchdog thread.
+     */
+    private static void watchTransactions() {
+
+        final long now = System.nanoTime();
+        final long thresholdNanos = watchdog.getLongRunningThresholdNanos();
+
+        activeSnapshots.forEachTransaction( ( transaction, revisionNumber ) -> transaction.watch( revisionNumber, now, thresholdNanos ) );
+
+    }
+
+    /**
+     * The state of a transaction enclosing a closed nested transaction, restored when the nested one ends.
+     */
+    private static final class NestingLevel {
+
+        NestingLevel( NestingLevel enclosingLevel, Map<AbstractVersionedItem, Object> savepoint, Set<AbstractVersionedItem> enclosingItemsRead ) {
+            this.enclosingItemsRead = enclosingItemsRead;
+            this.enclosingLevel = enclosingLevel;
+            this.savepoint = savepoint;
+        }
+
+        /**
+         * The versioned items read by the enclosing transaction.
+         */
+        final Set<AbstractVersionedItem> enclosingItemsRead;
+
+        /**
+         * The next level out (null if the enclosing transaction is the top-level one).
+         */
+        final NestingLevel enclosingLevel;
+
+        /**
+         * The writes of the enclosing transaction when the nested one began.
+         */
+        final Map<AbstractVersionedItem, Object> savepoint;
+
+    }
+
+    /**
+     * Registry of revision numbers currently in use as the source revision for some transaction.
+     */
+    private static final ActiveSnapshotRegistry activeSnapshots =
+        new ActiveSnapshotRegistry( 8 * Runtime.getRuntime().availableProcessors() + 64 );
+
+    /**
+     * Atomic updater for claiming a transaction for the current thread.
+     */
+    private static final AtomicReferenceFieldUpdater<StmTransaction, Thread> boundThreadUpdater =
+        AtomicReferenceFieldUpdater.newUpdater( StmTransaction.class, Thread.class, "boundThread" );
+
+    /**
+     * The subscriptions to be notified of committed changes.
+     */
+    private static final CopyOnWriteArrayList<CommitSubscription> commitSubscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Head of a linked list of transactions awaiting clean up.
+     */
+    private static AtomicReference<StmTransaction> firstTransactionAwaitingCleanUp = new AtomicReference<>( null );
+
+    /**
+     * The most transactions committed under one revision number (one when commits are not grouped).
+     */
+    private static volatile int groupCommitMaxSize = 1;
+
+    /**
+     * How long a commit group stays open for more transactions.
+     */
+    private static volatile long groupCommitWindowNanos = 0L;
+
+    /**
+     * The retention of historical revisions for reading as of an earlier revision or time.
+     */
+    private static final RevisionHistory history = new RevisionHistory();
+
+    /**
+     * The irrevocable transaction holding the exclusive commit token (null if none).
+     */
+    private static final AtomicReference<StmTransaction> irrevocableTransaction = new AtomicReference<>( null );
+
+    /**
+     * Monotone increasing revision number incremented whenever a committing transaction reserves its revision.
+     */
+    private static AtomicLong lastAllocatedRevisionNumber = new AtomicLong( 0 );
+
+    /**
+     * Monotone increasing revision number; all revisions up to and including this one have been committed (or
+     * abandoned after a write conflict).
+     */
+    private static AtomicLong lastCommittedRevisionNumber = new AtomicLong( 0 );
+
+    /**
+     * The most recently opened commit group (possibly sealed or full by now).
+     */
+    private static final AtomicReference<CommitGroup> openCommitGroup = new AtomicReference<>( null );
+
+    /**
+     * The background thread cleaning up revisions no longer needed.
+     */
+    private static final RevisionReclaimer reclaimer = new RevisionReclaimer( StmTransaction::reclaimRevisions );
+
+    /**
+     * The number of revisions the reclaimer handles in one batch; committers prod it once that many await it.
+     */
+    private static final long RECLAMATION_BATCH_SIZE = 1024L;
+
+    /**
+     * The backlog of revisions beyond which committing transactions wait for the reclaimer.
+     */
+    private static volatile long reclamationBackPressureThreshold = 1L << 20;
+
+    /**
+     * The number of superseded revisions written by committed transactions not yet cleaned up.
+     */
+    private static final AtomicLong retainedRevisionCount = new AtomicLong( 0L );
+
+    /**
+     * The number of revisions left retained by the last reclamation pass (for measuring the backlog since).
+     */
+    private static volatile long retainedRevisionCountAfterReclamation = 0L;
+
+    /**
+     * The transactions waiting to retry, by the items they wait to see changed.
+     */
+    private static final ConcurrentHashMap<AbstractVersionedItem, Set<RetryWaiter>> retryWaiters = new ConcurrentHashMap<>();
+
+    /**
+     * How long to pause between checks of the exclusive commit token (or of a transaction in use by another thread)
+     * while waiting for it.
+     */
+    private static final long TOKEN_POLLING_NANOS = 50000L;
+
+    /**
+     * The background thread watching for transactions that overrun their deadlines or pin old revisions too long.
+     */
+    private static final TransactionWatchdog watchdog = new TransactionWatchdog( StmTransaction::watchTransactions );
+
+    /**
+     * Where this transaction began (null unless the watchdog captures stack traces).
+     */
+    private final Throwable beginStackTrace;
+
+    /**
+     * The time (System.nanoTime()) when this transaction began.
+     */
+    private final long beginTime;
+
+    /**
+     * The thread currently working in this transaction (null if none).
+     */
+    private volatile Thread boundThread;
+
+    /**
+     * Whether this transaction has committed or aborted.
+     */
+    private boolean completed;
+
+    /**
+     * The policy deciding whether to wait for commit locks held by other transactions.
+     */
+    private IContentionPolicy contentionPolicy;
+
+    /**
+     * How long after it began this transaction may run (Long.MAX_VALUE for no deadline).
+     */
+    private volatile long deadlineNanos;
+
+    /**
+     * Whether this irrevocable transaction is an escalated attempt of a serializable task.
+     */
+    private boolean escalated;
+
+    /**
+     * Whether the watchdog has reported this transaction as long-running (touched only by the watchdog thread).
+     */
+    private boolean longRunningReported;
+
+    /**
+     * Whether this transaction may write, and whether it holds the exclusive commit token.
+     */
+    private final ETransactionMode mode;
+
+    /**
+     * The innermost nested transaction in progress within this one (null if none).
+     */
+    private NestingLevel nestingLevel;
+
+    /**
+     * An item whose newer revision, seen during reading, will cause a write conflict if anything writes through this
+     * transaction (null if none seen).
+     */
+    private AbstractVersionedItem newerRevisionItem;
+
+    /**
+     * The next transaction in a linked list of transactions awaiting clean up.
+     */
+    private final AtomicReference<StmTransaction> nextTransactionAwaitingCleanUp;
+
+    /**
+     * Whether the watchdog has found this transaction running past its deadline.
+     */
+    private volatile boolean overdue;
+
+    /**
+     * The revisions written by this transaction, keyed by versioned item, buffered until commit.
+     */
+    private final Map<AbstractVersionedItem, Object> pendingRevisions;
+
+    /**
+     * The slot of the active snapshot registry that records our source revision number.
+     */
+    private final int snapshotSlot;
+
+    /**
+     * The revision number being read by this transaction (moved forward only when retrying a nested transaction).
+     */
+    private long sourceRevisionNumber;
+
+    /**
+     * The time (System.nanoTime()) when the first attempt of this transaction's task started.
+     */
+    private long startTime;
+
+    /**
+     * The revision number written by this transaction. Negative while the transaction is running; zero if
+     * the transaction is aborted; positive after the transaction has been committed.
      */
-    private final Set<AbstractVersionedItem> versionedItemsRead;
+    private long targetRevisionNumber;
 
     /**
-     * The versioned item written by this transaction.
+     * The versioned items read by this transaction (or, in snapshot isolation mode, just those to be validated);
+     * while a nested transaction is in progress, just those read by the innermost one.
      */
-    private final Set<AbstractVersionedItem> versionedItemsWritten;
+    private Set<AbstractVersionedItem> versionedItemsRead;
 
 }
@@ -1,6 +1,14 @@
 package org.steamflake.utilities.revisions;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Utility class for managing STM transactions.
@@ -11,35 +19,90 @@ public class StmTransactionContext {
         throw new UnsupportedOperationException( "Static utility class only." );
     }
 
+    /**
+     * Aborts the given transaction. If it is nested (see beginTransaction), only the work of the nested transaction
+     * is undone and the enclosing transaction carries on.
+     *
+     * @param transaction the in-progress transaction for the current thread.
+     */
+    public static void abortTransaction( StmTransaction transaction ) {
+
+        // (Look up the transaction directly; an overdue transaction must still be able to finish.)
+        if ( transaction != transactionOfCurrentThread.get() ) {
+            throw new IllegalStateException( "Attempted to abort transaction not set for the current thread." );
+        }
+
+        // Roll back just the innermost nested transaction if there is one.
+        if ( transaction.isNested() ) {
+            transaction.abortNested( true );
+            return;
+        }
+
+        try {
+            transaction.abort();
+        }
+        finally {
+            // Clear the thread's transaction.
+            transactionOfCurrentThread.set( null );
+            transaction.unbindFromCurrentThread();
+        }
+
+    }
+
     /**
      * Creates a new transaction. The lifecycle of the transaction must be managed by the client, which
-     * is responsible for calling either commitTransaction or abortTransaction on the result.
+     * is responsible for calling either commitTransaction or abortTransaction on the result. If a transaction is
+     * already in progress for this thread, the new one is a closed nested transaction within it: its work becomes
+     * part of the enclosing transaction when committed, and aborting it undoes only its own work.
      */
     public static StmTransaction beginTransaction() {
 
-        // Force transactions to be one per thread.
-        if ( transactionOfCurrentThread.get() != null ) {
-            throw new IllegalStateException( "Transaction already in progress for this thread." );
+        // Nest within a transaction already in progress for this thread.
+        StmTransaction enclosingTransaction = transactionOfCurrentThread.get();
+        if ( enclosingTransaction != null ) {
+            if ( enclosingTransaction.getMode() == ETransactionMode.READ_ONLY ) {
+                throw new IllegalStateException( "Read-only transaction already in progress for this thread." );
+            }
+            enclosingTransaction.beginNested();
+            return enclosingTransaction;
         }
 
-        StmTransaction result = new StmTransaction();
+        StmTransaction result = new StmTransaction( ETransactionMode.READ_WRITE );
 
+        result.bindToCurrentThread();
         transactionOfCurrentThread.set( result );
 
         return result;
     }
 
     /**
-     * Commits the given transaction.
+     * Captures the transaction of the current thread so that its work can continue on other threads.
+     *
+     * @return a handle for resuming the transaction.
+     */
+    public static StmTransactionHandle captureTransaction() {
+        return new StmTransactionHandle( getTransactionOfCurrentThread() );
+    }
+
+    /**
+     * Commits the given transaction. If it is nested (see beginTransaction), its work merges into the enclosing
+     * transaction, to be committed with it.
      *
      * @param transaction the in-progress transaction for the current thread.
      */
     public static void commitTransaction( StmTransaction transaction ) {
 
-        if ( transaction != getTransactionOfCurrentThread() ) {
+        // (Look up the transaction directly; an overdue transaction must still be able to finish.)
+        if ( transaction != transactionOfCurrentThread.get() ) {
             throw new IllegalStateException( "Attempted to commit transaction not set for the current thread." );
         }
 
+        // Merge the innermost nested transaction if there is one.
+        if ( transaction.isNested() ) {
+            transaction.commitNested();
+            return;
+        }
+
         try {
             // Commit the changes.
             transaction.commit();
@@ -52,12 +115,15 @@ public class StmTransactionContext {
         finally {
             // Clear the thread's transaction.
             transactionOfCurrentThread.set( null );
+            transaction.unbindFromCurrentThread();
         }
 
     }
 
     /**
-     * Performs the work of the given callback inside a newly created transaction.
+     * Performs the work of the given callback inside a newly created transaction. Write conflicts are resolved by
+     * the default contention policy. Called within a transaction already in progress for this thread, the task runs
+     * as a closed nested transaction (see doInTransaction with a contention policy).
      *
      * @param task       the work to be done inside a transaction.
      * @param maxRetries the maximum number of times to retry the transaction if write conflicts are encountered
@@ -66,8 +132,71 @@ public class StmTransactionContext {
      * @throws Exception                       any exception thrown by the transactional task
      */
     public static void doInTransaction( int maxRetries, Runnable task ) throws Exception {
+        doInTransaction( maxRetries, defaultContentionPolicy, task );
+    }
+
+    /**
+     * Performs the work of the given callback inside a newly created transaction, using the given policy to decide
+     * how to wait between retries, whether to wait for commit locks held by other transactions, and when to give up
+     * on optimism and run the task as the only committing transaction.
+     * <p>
+     * Called within a transaction already in progress for this thread, the task runs as a closed nested transaction
+     * instead. Its reads and writes merge into the enclosing transaction when it finishes and commit with it. When
+     * it runs into a write conflict, only its own work is rolled back; it is tried again against the latest
+     * committed revision if what the enclosing transaction has read and written is still current. Otherwise, or
+     * once the nested retries run out, the conflict passes to the enclosing transaction. (Within a snapshot isolation
+     * or irrevocable transaction, which does not track its reads, the conflict always passes on: its snapshot cannot
+     * move without risking inconsistent reads.) Conflicts found while committing the top-level transaction retry it
+     * as a whole.
+     *
+     * @param maxRetries       the maximum number of times to retry the transaction if write conflicts are
+     *                         encountered (must be zero or more, zero meaning try but don't retry).
+     * @param contentionPolicy the policy for resolving write conflicts.
+     * @param task             the work to be done inside a transaction.
+     * @throws MaximumRetriesExceededException if the transaction fails even after the specified number of retries.
+     * @throws Exception                       any exception thrown by the transactional task
+     */
+    public static void doInTransaction( int maxRetries, IContentionPolicy contentionPolicy, Runnable task ) throws Exception {
+        doWithRetries( ETransactionMode.READ_WRITE, maxRetries, contentionPolicy, task );
+    }
+
+    /**
+     * Performs asynchronous work inside a newly created transaction. The task runs in the calling thread with the
+     * transaction in place; it may capture the transaction (see captureTransaction) to continue its work in the
+     * stages of the returned completion stage on any thread. The transaction commits (or aborts) when that stage
+     * completes, in whichever thread completes it, without occupying a thread while waiting. Write conflicts are
+     * resolved by the default contention policy; a retry runs the task again.
+     *
+     * @param maxRetries the maximum number of times to retry the transaction if write conflicts are encountered
+     *                   (must be zero or more, zero meaning try but don't retry).
+     * @param task       the start of the work to be done inside a transaction.
+     * @param <T>        the type of result computed.
+     * @return a future completed with the result after commit, or exceptionally with the task's failure or with
+     * MaximumRetriesExceededException if the transaction fails even after the specified number of retries.
+     */
+    public static <T> CompletableFuture<T> doInTransactionAsync( int maxRetries, Supplier<CompletionStage<T>> task ) {
+        return doInTransactionAsync( maxRetries, defaultContentionPolicy, task );
+    }
+
+    /**
+     * Performs asynchronous work inside a newly created transaction, using the given policy to resolve write
+     * conflicts. Note that the policy's pauses between retries take place in the thread completing the failed
+     * attempt. An asynchronous attempt never runs irrevocably, whatever the policy asks for (see
+     * IContentionPolicy.beforeAttempt): it would hold the exclusive commit token, stalling every committer, across
+     * stages that may wait on anything.
+     *
+     * @param maxRetries       the maximum number of times to retry the transaction if write conflicts are
+     *                         encountered (must be zero or more, zero meaning try but don't retry).
+     * @param contentionPolicy the policy for resolving write conflicts.
+     * @param task             the start of the work to be done inside a transaction.
+     * @param <T>              the type of result computed.
+     * @return a future completed with the result after commit, or exceptionally with the task's failure or with
+     * MaximumRetriesExceededException if the transaction fails even after the specified number of retries.
+     */
+    public static <T> CompletableFuture<T> doInTransactionAsync( int maxRetries, IContentionPolicy contentionPolicy, Supplier<CompletionStage<T>> task ) {
 
         // Sanity check the input.
+        Objects.requireNonNull( contentionPolicy );
         Objects.requireNonNull( task );
         if ( maxRetries < 0 ) {
             throw new IllegalArgumentException( "Retry count must be greater than or equal to zero." );
@@ -78,59 +207,206 @@ public class StmTransactionContext {
             throw new IllegalStateException( "Transaction already in progress for this thread." );
         }
 
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        attemptAsync( 0, maxRetries, contentionPolicy, System.nanoTime(), task, result );
+
+        return result;
+
+    }
+
+    /**
+     * Performs the work of the given callback inside a newly created irrevocable transaction, which is sure to commit
+     * the first time. It takes the exclusive commit token (waiting for any other irrevocable transaction and for
+     * commits already under way). While it runs, other transactions still run, but every one that tries to commit
+     * blocks until the irrevocable transaction finishes, however long that takes; only then does it validate as usual
+     * (and retry if it read what the irrevocable transaction wrote). The irrevocable transaction has no deadline.
+     * Suited to short bulk loads and warm-ups that would otherwise risk being redone over unrelated small writes. The
+     * task cannot call retry.
+     *
+     * @param task the work to be done inside the transaction.
+     */
+    public static void doInIrrevocableTransaction( Runnable task ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( task );
+
+        // Force transactions to be one per thread.
+        if ( transactionOfCurrentThread.get() != null ) {
+            throw new IllegalStateException( "Transaction already in progress for this thread." );
+        }
+
+        StmTransaction transaction = new StmTransaction( ETransactionMode.IRREVOCABLE );
+
+        transaction.bindToCurrentThread();
+
         try {
+            transactionOfCurrentThread.set( transaction );
 
-            for ( int retry = 0; retry <= maxRetries; retry += 1 ) {
+            // Execute the transactional task.
+            task.run();
 
-                try {
-                    StmTransaction transaction = new StmTransaction();
+            // Commit the changes.
+            transaction.commit();
+        }
+        catch ( Throwable e ) {
+            // On any error abort the transaction.
+            transaction.abort();
+            throw e;
+        }
+        finally {
+            // Clear the thread's transaction.
+            transactionOfCurrentThread.set( null );
+            transaction.unbindFromCurrentThread();
+        }
 
-                    try {
-                        transactionOfCurrentThread.set( transaction );
+    }
 
-                        // Execute the transactional task.
-                        task.run();
+    /**
+     * Performs the work of the given callback inside a newly created read-only snapshot that the task may share with
+     * worker threads, e.g. those of a fork/join task or a parallel stream. Workers read through the snapshot's call or
+     * run methods. The snapshot is released when the task completes, so the task must wait for its workers.
+     *
+     * @param task the work to be done inside the shared snapshot.
+     * @param <T>  the type of result computed.
+     * @return the result of the task.
+     * @throws IllegalStateException if the task attempts to write a versioned item.
+     */
+    public static <T> T doInParallelReadOnlyTransaction( Function<StmSnapshot, T> task ) {
 
-                        // Commit the changes.
-                        transaction.commit();
+        // Sanity check the input.
+        Objects.requireNonNull( task );
 
-                        // If succeeded, no more retries are needed.
-                        return;
-                    }
-                    catch ( Throwable e ) {
-                        // On any error abort the transaction.
-                        transaction.abort();
-                        throw e;
-                    }
-                    finally {
-                        // Clear the thread's transaction.
-                        transactionOfCurrentThread.set( null );
-                    }
-                }
-                catch ( WriteConflictException e ) {
-                    // Ignore the exception; go around the loop again....
+        // Force transactions to be one per thread.
+        if ( transactionOfCurrentThread.get() != null ) {
+            throw new IllegalStateException( "Transaction already in progress for this thread." );
+        }
 
-                    // Increment the thread priority for a better chance on next try.
-                    if ( Thread.currentThread().getPriority() < Thread.MAX_PRIORITY ) {
-                        Thread.currentThread().setPriority( Thread.currentThread().getPriority() + 1 );
-                    }
-                }
+        // Run the task within the snapshot in the calling thread too, then release the snapshot.
+        try ( StmSnapshot snapshot = openSnapshot() ) {
+            return snapshot.call( () -> task.apply( snapshot ) );
+        }
 
-            }
+    }
+
+    /**
+     * Performs the work of the given callback inside a newly created read-only transaction. The task sees a fixed
+     * snapshot of all versioned items; reads are not tracked and there is nothing to validate at the end, so the
+     * transaction can neither conflict nor need a retry. Any attempt to write fails immediately.
+     *
+     * @param task the work to be done inside a read-only transaction.
+     * @throws IllegalStateException if the task attempts to write a versioned item.
+     */
+    public static void doInReadOnlyTransaction( Runnable task ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( task );
+
+        // Force transactions to be one per thread.
+        if ( transactionOfCurrentThread.get() != null ) {
+            throw new IllegalStateException( "Transaction already in progress for this thread." );
+        }
 
-            // If we dropped out of the loop, then we exceeded the retry count.
-            throw new MaximumRetriesExceededException();
+        StmTransaction transaction = new StmTransaction( ETransactionMode.READ_ONLY );
 
+        transaction.bindToCurrentThread();
+
+        try {
+            transactionOfCurrentThread.set( transaction );
+
+            // Execute the transactional task.
+            task.run();
+
+            // Release the snapshot.
+            transaction.commit();
+        }
+        catch ( Throwable e ) {
+            // On any error release the snapshot.
+            transaction.abort();
+            throw e;
         }
         finally {
-            // Restore the thread priority after any retries.
-            Thread.currentThread().setPriority( Thread.NORM_PRIORITY );
+            // Clear the thread's transaction.
+            transactionOfCurrentThread.set( null );
+            transaction.unbindFromCurrentThread();
         }
 
     }
 
+    /**
+     * Performs the work of the given callback inside a newly created snapshot isolation transaction. The task sees a
+     * fixed snapshot of all versioned items, but commit checks only the items written for conflicting changes; items
+     * merely read may change concurrently without causing a retry unless passed to IVersionedItem.ensureUnchanged.
+     * Write conflicts are resolved by the default contention policy.
+     *
+     * @param maxRetries the maximum number of times to retry the transaction if write conflicts are encountered
+     *                   (must be zero or more, zero meaning try but don't retry).
+     * @param task       the work to be done inside a transaction.
+     * @throws MaximumRetriesExceededException if the transaction fails even after the specified number of retries.
+     */
+    public static void doInSnapshotIsolationTransaction( int maxRetries, Runnable task ) throws MaximumRetriesExceededException {
+        doInSnapshotIsolationTransaction( maxRetries, defaultContentionPolicy, task );
+    }
+
+    /**
+     * Performs the work of the given callback inside a newly created snapshot isolation transaction, using the given
+     * policy to resolve write conflicts. An attempt never runs irrevocably, whatever the policy asks for.
+     *
+     * @param maxRetries       the maximum number of times to retry the transaction if write conflicts are
+     *                         encountered (must be zero or more, zero meaning try but don't retry).
+     * @param contentionPolicy the policy for resolving write conflicts.
+     * @param task             the work to be done inside a transaction.
+     * @throws MaximumRetriesExceededException if the transaction fails even after the specified number of retries.
+     */
+    public static void doInSnapshotIsolationTransaction( int maxRetries, IContentionPolicy contentionPolicy, Runnable task ) throws MaximumRetriesExceededException {
+        doWithRetries( ETransactionMode.SNAPSHOT_ISOLATION, maxRetries, contentionPolicy, task );
+    }
+
+    /**
+     * @return the contention policy used by transactions that do not specify their own.
+     */
+    public static IContentionPolicy getDefaultContentionPolicy() {
+        return defaultContentionPolicy;
+    }
+
+    /**
+     * @return the revision number of the latest committed transaction.
+     */
+    public static long getLastCommittedRevisionNumber() {
+        return StmTransaction.getLastCommittedRevisionNumber();
+    }
+
+    /**
+     * @return the oldest revision number that can still be read with openSnapshotAsOfRevision.
+     */
+    public static long getOldestRetainedRevisionNumber() {
+        return StmTransaction.getOldestRetainedRevisionNumber();
+    }
+
+    /**
+     * Reports the backlog of the background revision reclaimer: the number of revisions committed since its last
+     * pass. (Revisions kept for running transactions or as retained history do not count once a pass has considered
+     * them.)
+     *
+     * @return the number of revisions awaiting the next reclamation pass.
+     */
+    public static long getReclamationBacklog() {
+        return StmTransaction.getReclamationBacklog();
+    }
+
+    /**
+     * Reports the memory held by history: the number of superseded revisions written by committed transactions
+     * that have not yet been cleaned up, whether kept for running transactions or as retained history.
+     *
+     * @return the number of revisions awaiting clean up.
+     */
+    public static long getRetainedRevisionCount() {
+        return StmTransaction.getRetainedRevisionCount();
+    }
+
     /**
      * @return the transaction that has been established for the currently running thread
+     * @throws TransactionDeadlineExceededException if the transaction has run past its deadline.
      */
     static StmTransaction getTransactionOfCurrentThread() {
 
@@ -142,6 +418,568 @@ public class StmTransactionContext {
             throw new IllegalStateException( "Attempted to complete a transactional operation without a transaction." );
         }
 
+        // Abandon a transaction found overrunning its deadline.
+        result.ensureWithinDeadline();
+
+        return result;
+
+    }
+
+    /**
+     * @return the transaction that has been established for the currently running thread, which must allow writing
+     */
+    static StmTransaction getWritableTransactionOfCurrentThread() {
+
+        StmTransaction result = getTransactionOfCurrentThread();
+
+        // Fail fast on a write inside a read-only transaction.
+        result.ensureWritable();
+
+        return result;
+
+    }
+
+    /**
+     * Pins the latest committed revision as a read-only snapshot that any number of threads may read at once. The
+     * caller is responsible for closing the snapshot.
+     *
+     * @return the new snapshot.
+     */
+    public static StmSnapshot openSnapshot() {
+        return new StmSnapshot( new StmTransaction( ETransactionMode.READ_ONLY ) );
+    }
+
+    /**
+     * Pins a retained historical revision as a read-only snapshot, e.g. for auditing or comparing model states.
+     * The caller is responsible for closing the snapshot.
+     *
+     * @param revisionNumber the revision to read.
+     * @return the new snapshot.
+     * @throws IllegalArgumentException if the revision has not been committed or is no longer retained.
+     */
+    public static StmSnapshot openSnapshotAsOfRevision( long revisionNumber ) {
+        return new StmSnapshot( new StmTransaction( revisionNumber ) );
+    }
+
+    /**
+     * Pins the revision current at a given time as a read-only snapshot. The caller is responsible for closing the
+     * snapshot.
+     *
+     * @param epochMillis the time (as by System.currentTimeMillis()) to read as of.
+     * @return the new snapshot.
+     * @throws IllegalArgumentException if the time is older than the history retained.
+     * @throws IllegalStateException    if no history is retained.
+     */
+    public static StmSnapshot openSnapshotAsOfTime( long epochMillis ) {
+        return openSnapshotAsOfRevision( StmTransaction.findRevisionNumberAsOf( epochMillis ) );
+    }
+
+    /**
+     * Composes alternatives inside a transaction: performs the first task, but if it calls retry, discards its writes
+     * and performs the second one instead. If the second also retries, the transaction waits for a change to anything
+     * either alternative read.
+     *
+     * @param first  the preferred work.
+     * @param second the fallback work.
+     * @param <T>    the type of result computed.
+     * @return the result of whichever task completed.
+     */
+    public static <T> T orElse( Supplier<T> first, Supplier<T> second ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( first );
+        Objects.requireNonNull( second );
+
+        StmTransaction transaction = getTransactionOfCurrentThread();
+        Map<AbstractVersionedItem, Object> savepoint = transaction.markSavepoint();
+
+        try {
+            return first.get();
+        }
+        catch ( RetryRequestedException e ) {
+            // Undo the first task's writes but keep depending on what it read.
+            transaction.rollBackToSavepoint( savepoint );
+        }
+
+        return second.get();
+
+    }
+
+    /**
+     * Performs the work of the given callback inside the given transaction, binding it to the current thread for
+     * the duration of the callback (after waiting for any other thread working in it, unless it is read-only). Any
+     * transaction of the current thread is set aside meanwhile and then restored.
+     *
+     * @param transaction the transaction to resume.
+     * @param task        the work to be done inside the transaction.
+     * @param <T>         the type of result computed.
+     * @return the result of the task.
+     * @throws IllegalStateException if the transaction has already committed or aborted.
+     */
+    static <T> T resume( StmTransaction transaction, Supplier<T> task ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( task );
+
+        // Resuming the transaction we are already in needs no hand-off.
+        StmTransaction outerTransaction = transactionOfCurrentThread.get();
+        if ( outerTransaction == transaction ) {
+            return task.get();
+        }
+
+        transaction.bindToCurrentThread();
+
+        try {
+            transactionOfCurrentThread.set( transaction );
+
+            // Execute the transactional task.
+            return task.get();
+        }
+        finally {
+            // Restore the thread's own transaction and let other threads resume ours.
+            transactionOfCurrentThread.set( outerTransaction );
+            transaction.unbindFromCurrentThread();
+        }
+
+    }
+
+    /**
+     * Abandons the current attempt of a transactional task and blocks until another transaction commits a change to
+     * some versioned item the attempt has read, then runs the task again. Waiting for a state (e.g. a nonempty
+     * queue) thus costs no CPU and ends as soon as it might have changed. Waits do not count as retries after write
+     * conflicts. Within orElse, a retry instead falls through to the alternative. For use within doInTransaction.
+     *
+     * @throws IllegalStateException if the current transaction is read-only, snapshot isolation, or irrevocable
+     *                               (which do not track their reads) or has read nothing yet. (An attempt made
+     *                               irrevocable by its contention policy instead gives way to one that is not.)
+     */
+    public static void retry() {
+
+        StmTransaction transaction = getTransactionOfCurrentThread();
+
+        // Sanity check the state.
+        transaction.ensureRetryable();
+
+        throw new RetryRequestedException();
+
+    }
+
+    /**
+     * Changes the contention policy used by transactions that do not specify their own.
+     *
+     * @param contentionPolicy the new default policy.
+     */
+    public static void setDefaultContentionPolicy( IContentionPolicy contentionPolicy ) {
+        defaultContentionPolicy = Objects.requireNonNull( contentionPolicy );
+    }
+
+    /**
+     * Changes the deadline given to transactions begun from now on (initially transactionDeadlineMillis in
+     * StmTransactionContext.properties). A transaction still running past its deadline, and thereby pinning
+     * superseded revisions, fails with TransactionDeadlineExceededException at its next access of a versioned item
+     * and is aborted rather than retried. Deadlines are enforced by a watchdog thread, so may be overrun by up to
+     * its interval. Each attempt of a retried task gets its own deadline; nested transactions share the deadline of
+     * the top-level one.
+     *
+     * @param deadline how long a transaction may run (zero for no deadline).
+     * @param unit     the unit of the deadline.
+     */
+    public static void setDefaultTransactionDeadline( long deadline, TimeUnit unit ) {
+
+        // Sanity check the input.
+        if ( deadline < 0 ) {
+            throw new IllegalArgumentException( "Deadline must be zero or more." );
+        }
+
+        StmTransaction.configureDeadline( deadline == 0 ? Long.MAX_VALUE : unit.toNanos( deadline ) );
+
+    }
+
+    /**
+     * Changes the backlog beyond which committing transactions wait for the background revision reclaimer to
+     * complete a pass, bounding the memory held by superseded revisions when commits outpace reclamation.
+     *
+     * @param revisionCount the reclamation backlog (see getReclamationBacklog) that triggers back-pressure.
+     */
+    public static void setReclamationBackPressureThreshold( long revisionCount ) {
+
+        // Sanity check the input.
+        if ( revisionCount < 0 ) {
+            throw new IllegalArgumentException( "Back-pressure threshold must be zero or more." );
+        }
+
+        StmTransaction.configureReclamation( revisionCount );
+
+    }
+
+    /**
+     * Turns group commit on or off. When on, transactions committing at about the same time share one revision
+     * number: each still locks and validates its own writes, but the revision is published once for the group and
+     * commit subscribers receive one change set for the group instead of one per transaction. Grouping saves the
+     * per-revision costs under bursts of small transactions at the price of up to one window of added commit
+     * latency.
+     *
+     * @param maxGroupSize the most transactions to commit under one revision number (one to commit individually).
+     * @param window       how long a group stays open for more transactions (zero to group only the transactions
+     *                     already committing).
+     * @param unit         the unit of the window.
+     */
+    public static void setGroupCommit( int maxGroupSize, long window, TimeUnit unit ) {
+
+        // Sanity check the input.
+        if ( maxGroupSize < 1 || window < 0 ) {
+            throw new IllegalArgumentException( "Group commit needs a positive group size and a window of zero or more." );
+        }
+
+        StmTransaction.configureGroupCommit( maxGroupSize, unit.toNanos( window ) );
+
+    }
+
+    /**
+     * Changes how much history is retained for reading as of an earlier revision or time. Revisions already cleaned
+     * up stay gone; a longer window fills up as transactions commit.
+     *
+     * @param revisionCount the number of most recent revisions to keep readable (zero to retain no history).
+     * @param maxAge        the age beyond which revisions need not be kept readable (Long.MAX_VALUE for no limit).
+     * @param unit          the unit of the age.
+     */
+    public static void setHistoryRetention( int revisionCount, long maxAge, TimeUnit unit ) {
+
+        // Sanity check the input.
+        if ( revisionCount < 0 || maxAge < 0 ) {
+            throw new IllegalArgumentException( "History retention must be zero or more." );
+        }
+
+        StmTransaction.configureHistory( revisionCount, unit.toMillis( maxAge ) );
+
+    }
+
+    /**
+     * Changes the reporting of long-running transactions (initially longRunningTransactionThresholdMillis and
+     * captureTransactionBeginStackTraces in StmTransactionContext.properties). The watchdog thread logs a warning
+     * for each transaction found running past the threshold, since its source revision keeps all later superseded
+     * revisions from being reclaimed, and counts it in StmMetrics. The warning shows where the transaction began if
+     * stack traces are captured, else what its thread is doing now. Capturing costs a stack trace per transaction.
+     *
+     * @param threshold               how long a transaction may run before being reported (zero never to report).
+     * @param unit                    the unit of the threshold.
+     * @param captureBeginStackTraces whether transactions begun from now on record where they began.
+     */
+    public static void setLongRunningTransactionReporting( long threshold, TimeUnit unit, boolean captureBeginStackTraces ) {
+
+        // Sanity check the input.
+        if ( threshold < 0 ) {
+            throw new IllegalArgumentException( "Threshold must be zero or more." );
+        }
+
+        StmTransaction.configureLongRunningReports( threshold == 0 ? Long.MAX_VALUE : unit.toNanos( threshold ), captureBeginStackTraces );
+
+    }
+
+    /**
+     * Changes the deadline of the transaction in progress for the current thread to the given time from now, e.g.
+     * to give a known long task more time than the default (see setDefaultTransactionDeadline). Lifts the deadline
+     * if it has already passed but not yet been enforced.
+     *
+     * @param timeout how much longer the transaction may run (zero for no deadline).
+     * @param unit    the unit of the timeout.
+     */
+    public static void setTransactionDeadline( long timeout, TimeUnit unit ) {
+
+        // Sanity check the input.
+        if ( timeout < 0 ) {
+            throw new IllegalArgumentException( "Timeout must be zero or more." );
+        }
+
+        // Get the thread-local transaction.
+        StmTransaction transaction = transactionOfCurrentThread.get();
+        if ( transaction == null ) {
+            throw new IllegalStateException( "Attempted to set a deadline without a transaction." );
+        }
+
+        transaction.setDeadline( timeout == 0 ? Long.MAX_VALUE : unit.toNanos( timeout ) );
+
+    }
+
+    /**
+     * Starts one attempt of an asynchronous transactional task, arranging for commit or retry when it completes.
+     *
+     * @param retry            the number of earlier attempts.
+     * @param maxRetries       the maximum number of times to retry the transaction.
+     * @param contentionPolicy the policy for resolving write conflicts.
+     * @param startTime        the time (System.nanoTime()) when the first attempt started.
+     * @param task             the start of the work to be done inside a transaction.
+     * @param result           the future to complete after commit or final failure.
+     * @param <T>              the type of result computed.
+     */
+    private static <T> void attemptAsync( int retry, int maxRetries, IContentionPolicy contentionPolicy, long startTime, Supplier<CompletionStage<T>> task, CompletableFuture<T> result ) {
+
+        // Give the policy its turn but never run irrevocably here, even if it asks for it, since the exclusive commit
+        // token would be held across the asynchronous stages.
+        contentionPolicy.beforeAttempt( retry );
+        StmTransaction transaction = new StmTransaction( ETransactionMode.READ_WRITE );
+        transaction.setContentionPolicy( contentionPolicy, startTime );
+
+        // Start the task in the calling thread.
+        CompletionStage<T> stage;
+        try {
+            stage = Objects.requireNonNull( resume( transaction, task ), "Transactional task returned no completion stage." );
+        }
+        catch ( Throwable e ) {
+            CompletableFuture<T> failedStage = new CompletableFuture<>();
+            failedStage.completeExceptionally( e );
+            stage = failedStage;
+        }
+
+        // Finish the transaction in whichever thread completes the work.
+        stage.whenComplete( ( value, error ) -> {
+
+            Throwable failure = error;
+
+            try {
+                resume( transaction, () -> {
+                    if ( error != null ) {
+                        // On any error abort the transaction.
+                        transaction.abort();
+                    }
+                    else {
+                        try {
+                            // Commit the changes.
+                            transaction.commit();
+                        }
+                        catch ( Throwable e ) {
+                            // On any error abort the transaction.
+                            transaction.abort();
+                            throw e;
+                        }
+                    }
+                    return null;
+                } );
+            }
+            catch ( Throwable e ) {
+                failure = e;
+            }
+
+            // If succeeded, no more retries are needed.
+            if ( failure == null ) {
+                result.complete( value );
+                return;
+            }
+
+            // Look past the wrapping of a failed stage.
+            if ( failure instanceof CompletionException && failure.getCause() != null ) {
+                failure = failure.getCause();
+            }
+
+            // Go around again after whatever pause the policy calls for, or give up.
+            if ( failure instanceof WriteConflictException ) {
+                StmMetrics.recordConflict( (WriteConflictException) failure );
+                if ( retry < maxRetries ) {
+                    contentionPolicy.afterWriteConflict( retry );
+                    attemptAsync( retry + 1, maxRetries, contentionPolicy, startTime, task, result );
+                }
+                else {
+                    StmMetrics.recordRetriesExhausted();
+                    result.completeExceptionally( new MaximumRetriesExceededException() );
+                }
+                return;
+            }
+
+            result.completeExceptionally( failure );
+
+        } );
+
+    }
+
+    /**
+     * Performs the work of the given callback as a closed nested transaction within a transaction in progress.
+     *
+     * @param transaction      the enclosing transaction.
+     * @param maxRetries       the maximum number of times to retry the nested work after a write conflict before
+     *                         passing the conflict to the enclosing transaction.
+     * @param contentionPolicy the policy for pausing between retries.
+     * @param task             the work to be done inside the nested transaction.
+     */
+    private static void doNested( StmTransaction transaction, int maxRetries, IContentionPolicy contentionPolicy, Runnable task ) {
+
+        // A read-only transaction cannot conflict; the nested work simply runs in it.
+        if ( transaction.getMode() == ETransactionMode.READ_ONLY ) {
+            task.run();
+            return;
+        }
+
+        for ( int retry = 0; ; retry += 1 ) {
+
+            transaction.beginNested();
+
+            try {
+                // Execute the nested task, then merge its work into the enclosing transaction.
+                task.run();
+                transaction.commitNested();
+                return;
+            }
+            catch ( WriteConflictException e ) {
+                StmMetrics.recordConflict( e );
+
+                // Discard the nested work, including what it read.
+                transaction.abortNested( false );
+
+                // Once out of retries, leave the conflict to the enclosing transaction. So too when the enclosing
+                // transaction does not track its reads: moving its snapshot would go unchecked against them.
+                if ( retry >= maxRetries || transaction.getMode() != ETransactionMode.READ_WRITE ) {
+                    throw e;
+                }
+
+                // Catch up with the latest revision, unless the enclosing work is itself in conflict.
+                transaction.extendSnapshot();
+                contentionPolicy.afterWriteConflict( retry );
+            }
+            catch ( Throwable e ) {
+                // Discard the nested writes but keep depending on what was read (e.g. for a retry).
+                transaction.abortNested( true );
+                throw e;
+            }
+
+        }
+
+    }
+
+    /**
+     * Performs the work of the given callback inside newly created transactions until one commits or the retries
+     * run out (or as a nested transaction if one is already in progress for this thread).
+     *
+     * @param mode             the mode of the transactions unless the contention policy calls for an irrevocable one.
+     * @param maxRetries       the maximum number of times to retry the transaction if write conflicts are
+     *                         encountered (must be zero or more, zero meaning try but don't retry).
+     * @param contentionPolicy the policy for resolving write conflicts.
+     * @param task             the work to be done inside a transaction.
+     * @throws MaximumRetriesExceededException if the transaction fails even after the specified number of retries.
+     */
+    private static void doWithRetries( ETransactionMode mode, int maxRetries, IContentionPolicy contentionPolicy, Runnable task ) throws MaximumRetriesExceededException {
+
+        // Sanity check the input.
+        Objects.requireNonNull( contentionPolicy );
+        Objects.requireNonNull( task );
+        if ( maxRetries < 0 ) {
+            throw new IllegalArgumentException( "Retry count must be greater than or equal to zero." );
+        }
+
+        // Nest within a transaction already in progress for this thread.
+        StmTransaction enclosingTransaction = transactionOfCurrentThread.get();
+        if ( enclosingTransaction != null ) {
+            doNested( enclosingTransaction, maxRetries, contentionPolicy, task );
+            return;
+        }
+
+        // Retries keep the start time of the first attempt so that age-based policies can favor them.
+        final long startTime = System.nanoTime();
+
+        // Whether the next attempt may run irrevocably (not right after an irrevocable attempt asked to retry).
+        boolean escalationAllowed = true;
+
+        for ( int retry = 0; retry <= maxRetries; ) {
+
+            RetryWaiter waiter = null;
+
+            try {
+                // Let the policy decide whether this attempt should run as the only committing transaction. Only a
+                // serializable task is escalated; any other would lose the semantics of its mode.
+                boolean escalated = contentionPolicy.beforeAttempt( retry ) && mode == ETransactionMode.READ_WRITE && escalationAllowed;
+                escalationAllowed = true;
+
+                StmTransaction transaction = new StmTransaction( escalated ? ETransactionMode.IRREVOCABLE : mode );
+                transaction.setContentionPolicy( contentionPolicy, startTime );
+                if ( escalated ) {
+                    transaction.markEscalated();
+                }
+
+                transaction.bindToCurrentThread();
+
+                try {
+                    transactionOfCurrentThread.set( transaction );
+
+                    // Execute the transactional task.
+                    task.run();
+
+                    // Commit the changes.
+                    transaction.commit();
+
+                    // If succeeded, no more retries are needed.
+                    return;
+                }
+                catch ( RetryRequestedException e ) {
+                    // An escalated attempt has tracked nothing to wait for, so give way at once (releasing the commit
+                    // token) to an attempt in the requested mode, which can wait. Otherwise watch what the task read
+                    // before abandoning the attempt.
+                    if ( transaction.getMode() == ETransactionMode.IRREVOCABLE ) {
+                        escalationAllowed = false;
+                    }
+                    else {
+                        waiter = transaction.watchItemsRead();
+                        StmMetrics.recordRetryWait();
+                    }
+                    transaction.abort();
+                }
+                catch ( Throwable e ) {
+                    // On any error abort the transaction.
+                    transaction.abort();
+                    throw e;
+                }
+                finally {
+                    // Clear the thread's transaction.
+                    transactionOfCurrentThread.set( null );
+                    transaction.unbindFromCurrentThread();
+                }
+            }
+            catch ( WriteConflictException e ) {
+                StmMetrics.recordConflict( e );
+
+                // Go around the loop again after whatever pause the policy calls for.
+                if ( retry < maxRetries ) {
+                    contentionPolicy.afterWriteConflict( retry );
+                }
+                retry += 1;
+            }
+
+            // Block until there is something new to see (not counting as a conflict).
+            if ( waiter != null ) {
+                StmTransaction.awaitChange( waiter );
+            }
+
+        }
+
+        // If we dropped out of the loop, then we exceeded the retry count.
+        StmMetrics.recordRetriesExhausted();
+        throw new MaximumRetriesExceededException();
+
+    }
+
+    /**
+     * The contention policy used by transactions that do not specify their own.
+     */
+    private static volatile IContentionPolicy defaultContentionPolicy = new BackoffContentionPolicy();
+
+    /**
+     * Subscribes to the changes of all subsequently committed transactions. The subscriber receives one change set
+     * per transaction (or group commit) that wrote anything, in revision number order, by way of the given executor.
+     * Committing transactions never wait for a subscriber; if more than the given number of change sets await
+     * delivery, later ones are dropped and the subscriber is told how many.
+     *
+     * @param subscriber the callback receiving change sets.
+     * @param executor   the executor for delivering change sets (should not run tasks in the calling thread).
+     * @param capacity   the number of change sets that may await delivery.
+     * @return the subscription, to be closed when notifications are no longer wanted.
+     */
+    public static CommitSubscription subscribe( ICommitSubscriber subscriber, Executor executor, int capacity ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( subscriber );
+        Objects.requireNonNull( executor );
+
+        CommitSubscription result = new CommitSubscription( subscriber, executor, capacity );
+
+        StmTransaction.addCommitSubscription( result );
+
         return result;
 
     }
@@ -0,0 +1,59 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A capturable reference to a transaction in progress, for continuing the transaction's work on other threads, e.g.
+ * in the later stages of a CompletableFuture or on a virtual thread. Work run through the handle sees the transaction
+ * for the duration of the call only (in the style of a scoped value). Threads take turns: a call waits while another
+ * thread is working in the transaction, so a thread must never wait for work resumed elsewhere while it is itself
+ * inside the transaction.
+ */
+public final class StmTransactionHandle {
+
+    /**
+     * Constructs a new handle.
+     *
+     * @param transaction the transaction to resume.
+     */
+    StmTransactionHandle( StmTransaction transaction ) {
+        this.transaction = Objects.requireNonNull( transaction );
+    }
+
+    /**
+     * Performs the work of the given callback inside the captured transaction.
+     *
+     * @param task the work to be done inside the transaction.
+     * @param <T>  the type of result computed.
+     * @return the result of the task.
+     * @throws IllegalStateException if the transaction has already committed or aborted.
+     */
+    public <T> T call( Supplier<T> task ) {
+        return StmTransactionContext.resume( this.transaction, task );
+    }
+
+    /**
+     * Performs the work of the given callback inside the captured transaction.
+     *
+     * @param task the work to be done inside the transaction.
+     * @throws IllegalStateException if the transaction has already committed or aborted.
+     */
+    public void run( Runnable task ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( task );
+
+        StmTransactionContext.resume( this.transaction, () -> {
+            task.run();
+            return null;
+        } );
+
+    }
+
+    /**
+     * The transaction to resume.
+     */
+    private final StmTransaction transaction;
+
+}
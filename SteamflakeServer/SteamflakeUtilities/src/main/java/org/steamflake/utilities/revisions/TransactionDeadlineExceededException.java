@@ -0,0 +1,17 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * Exception thrown when a transaction that has run past its deadline next accesses a versioned item. The transaction
+ * is aborted rather than retried, freeing the old revision it was pinning.
+ */
+public class TransactionDeadlineExceededException
+    extends RuntimeException {
+
+    /**
+     * Constructs a new exception.
+     */
+    public TransactionDeadlineExceededException() {
+        super( "Transaction deadline exceeded." );
+    }
+
+}
@@ -0,0 +1,185 @@
+package org.steamflake.utilities.revisions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.steamflake.utilities.configuration.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated low-priority thread looking over the running transactions at a fixed interval, plus the settings it
+ * enforces. A transaction running past its deadline is flagged to fail at its next access of a versioned item; one
+ * running past the long-running threshold is reported once, since the source revision it pins keeps every later
+ * superseded revision from being reclaimed. The settings start out as configured in StmTransactionContext.properties.
+ */
+final class TransactionWatchdog {
+
+    /**
+     * Constructs and starts a new watchdog.
+     *
+     * @param watchPass the look over all running transactions.
+     */
+    TransactionWatchdog( Runnable watchPass ) {
+
+        Configuration config = new Configuration( StmTransactionContext.class );
+
+        this.beginStackTracesCaptured = Boolean.parseBoolean( config.readString( "captureTransactionBeginStackTraces" ) );
+        this.defaultDeadlineNanos = toNanosOrNever( Long.parseLong( config.readString( "transactionDeadlineMillis" ) ) );
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos( Long.parseLong( config.readString( "watchdogIntervalMillis" ) ) );
+        this.longRunningThresholdNanos = toNanosOrNever( Long.parseLong( config.readString( "longRunningTransactionThresholdMillis" ) ) );
+        this.watchPass = watchPass;
+
+        this.thread = new Thread( this::watchContinually, "steamflake-transaction-watchdog" );
+        this.thread.setDaemon( true );
+        this.thread.setPriority( Thread.MIN_PRIORITY );
+        this.thread.start();
+
+    }
+
+    /**
+     * Changes whether transactions record where they began (applies to transactions begun from now on).
+     *
+     * @param captured whether to capture the stack trace of each transaction's beginning.
+     */
+    void configureBeginStackTraces( boolean captured ) {
+        this.beginStackTracesCaptured = captured;
+    }
+
+    /**
+     * Changes the deadline given to transactions begun from now on.
+     *
+     * @param deadlineNanos the time a transaction may run (Long.MAX_VALUE for no deadline).
+     */
+    void configureDefaultDeadline( long deadlineNanos ) {
+        this.defaultDeadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Changes how long a transaction may run before being reported.
+     *
+     * @param thresholdNanos the running time of a long-running transaction (Long.MAX_VALUE never to report).
+     */
+    void configureLongRunningThreshold( long thresholdNanos ) {
+        this.longRunningThresholdNanos = thresholdNanos;
+    }
+
+    /**
+     * @return the time a newly begun transaction may run (Long.MAX_VALUE for no deadline).
+     */
+    long getDefaultDeadlineNanos() {
+        return this.defaultDeadlineNanos;
+    }
+
+    /**
+     * @return the running time past which a transaction is reported (Long.MAX_VALUE if never).
+     */
+    long getLongRunningThresholdNanos() {
+        return this.longRunningThresholdNanos;
+    }
+
+    /**
+     * @return whether newly begun transactions record where they began.
+     */
+    boolean isBeginStackTracesCaptured() {
+        return this.beginStackTracesCaptured;
+    }
+
+    /**
+     * Logs a long-running transaction.
+     *
+     * @param runningNanos         how long the transaction has run.
+     * @param sourceRevisionNumber the revision the transaction pins.
+     * @param beginStackTrace      where the transaction began (null if not captured).
+     * @param boundThread          the thread working in the transaction (null if none).
+     */
+    void reportLongRunning( long runningNanos, long sourceRevisionNumber, Throwable beginStackTrace, Thread boundThread ) {
+
+        long runningMillis = TimeUnit.NANOSECONDS.toMillis( runningNanos );
+        long revisionsBehind = StmTransaction.getLastCommittedRevisionNumber() - sourceRevisionNumber;
+
+        // Prefer where the transaction began; failing that, show what its thread is doing now.
+        Throwable where = beginStackTrace;
+        if ( where == null && boundThread != null ) {
+            where = new Throwable( "Transaction running in thread " + boundThread.getName() + "." );
+            where.setStackTrace( boundThread.getStackTrace() );
+        }
+
+        String message = "Transaction running for " + runningMillis + " ms pins revision " + sourceRevisionNumber +
+            " (" + revisionsBehind + " revisions behind).";
+
+        if ( where != null ) {
+            LOG.warn( message, where );
+        }
+        else {
+            LOG.warn( message );
+        }
+
+    }
+
+    /**
+     * Converts a configured time in milliseconds.
+     *
+     * @param millis the time in milliseconds (zero or less meaning never).
+     * @return the time in nanoseconds (Long.MAX_VALUE if never).
+     */
+    static long toNanosOrNever( long millis ) {
+        return millis <= 0L ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos( millis );
+    }
+
+    /**
+     * Runs watch passes for the life of the process.
+     */
+    private void watchContinually() {
+
+        while ( true ) {
+
+            try {
+                this.watchPass.run();
+            }
+            catch ( Throwable e ) {
+                LOG.error( "Transaction watch failed.", e );
+            }
+
+            LockSupport.parkNanos( this, this.intervalNanos );
+
+        }
+
+    }
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Whether newly begun transactions record where they began.
+     */
+    private volatile boolean beginStackTracesCaptured;
+
+    /**
+     * The time a newly begun transaction may run.
+     */
+    private volatile long defaultDeadlineNanos;
+
+    /**
+     * The time between watch passes.
+     */
+    private final long intervalNanos;
+
+    /**
+     * The running time past which a transaction is reported.
+     */
+    private volatile long longRunningThresholdNanos;
+
+    /**
+     * The watchdog thread.
+     */
+    private final Thread thread;
+
+    /**
+     * The look over all running transactions.
+     */
+    private final Runnable watchPass;
+
+}
@@ -1,8 +1,9 @@
 package org.steamflake.utilities.revisions;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * A version-managing handle to a value with transactional revisions.
@@ -23,13 +24,33 @@ public class V<T>
         Objects.requireNonNull( value );
 
         // Track everything through the current transaction.
-        StmTransaction currentTransaction = StmTransactionContext.getTransactionOfCurrentThread();
+        StmTransaction currentTransaction = StmTransactionContext.getWritableTransactionOfCurrentThread();
 
-        this.latestRevision = new AtomicReference<>( null );
-        this.latestRevision.set( new Revision<>( value, currentTransaction.getTargetRevisionNumber(), this.latestRevision.get() ) );
+        // The chain stays empty until the transaction commits.
+        this.latestRevision = null;
 
-        // Keep track of everything we've written.
-        currentTransaction.addVersionedItemWritten( this );
+        // Buffer the initial value as a write of the current transaction.
+        currentTransaction.addPendingRevision( this, new Revision<>( value ) );
+
+    }
+
+    /**
+     * Constructs a new versioned handle with given starting value already committed as of the given revision,
+     * without involving any transaction. Lets versioned items be created on demand outside transactions; with
+     * revision zero the value counts as having been there all along, visible to every transaction.
+     *
+     * @param value          the initial value.
+     * @param revisionNumber the revision number as of which the initial value counts as committed.
+     */
+    V( T value, long revisionNumber ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( value );
+
+        // Link the initial value directly; nobody else can see this item yet.
+        Revision<T> revision = new Revision<>( value );
+        revision.revisionNumber = revisionNumber;
+        this.latestRevision = revision;
 
     }
 
@@ -43,28 +64,33 @@ public class V<T>
         // Track everything through the current transaction.
         StmTransaction currentTransaction = StmTransactionContext.getTransactionOfCurrentThread();
 
+        // If written by the current transaction, read back the written value.
+        Revision<T> pendingRevision = currentTransaction.getPendingRevision( this );
+        if ( pendingRevision != null ) {
+
+            // Reading the result of a commutative write makes the transaction depend on the snapshot after all, so
+            // stop merging the write at commit and validate it instead (in every mode, even those that do not track
+            // reads).
+            pendingRevision.deferredOperations = null;
+
+            return pendingRevision.value;
+
+        }
+
         // Work within the transaction of the current thread.
         long sourceRevisionNumber = currentTransaction.getSourceRevisionNumber();
-        long targetRevisionNumber = currentTransaction.getTargetRevisionNumber().get();
 
         // Loop through the revisions.
-        for ( Revision<T> revision = this.latestRevision.get(); revision != null; revision = revision.priorRevision.get() ) {
-
-            final long revisionNumber = revision.revisionNumber.get();
-
-            // If written by the current transaction, read back the written value.
-            if ( revisionNumber == targetRevisionNumber ) {
-                return revision.value;
-            }
+        for ( Revision<T> revision = this.latestRevision; revision != null; revision = revision.priorRevision ) {
 
             // If written and committed by some other transaction, note that our transaction is already poised for
             // a write conflict if it writes anything. I.e. fail early for a write conflict.
-            if ( revisionNumber > sourceRevisionNumber ) {
-                currentTransaction.setNewerRevisionSeen();
+            if ( revision.revisionNumber > sourceRevisionNumber ) {
+                currentTransaction.setNewerRevisionSeen( this );
             }
 
-            // If revision is committed and older or equal to our source revision, read it.
-            if ( revisionNumber <= sourceRevisionNumber && revisionNumber > 0 ) {
+            // If revision is older or equal to our source revision, read it.
+            else {
                 // Keep track of everything we've read.
                 currentTransaction.addVersionedItemRead( this );
 
@@ -78,6 +104,44 @@ public class V<T>
 
     }
 
+    /**
+     * Reads the value as of the latest revision published as committed (the value a transaction beginning now would
+     * read) without joining a transaction. A revision still waiting to be published behind an earlier revision
+     * number is not seen. No revision is pinned and no read is recorded, so successive peeks (even of this one item)
+     * need not come from one consistent snapshot. Suits monitoring and reads that tolerate staleness; costs a couple
+     * of volatile reads.
+     *
+     * @return the value of the latest published revision.
+     * @throws IllegalStateException if the transaction creating the item has not committed.
+     */
+    public T peekCommitted() {
+
+        while ( true ) {
+
+            // Note what has been published as committed before looking at the chain, so that no revision we skip
+            // can have been published (and its predecessors reclaimed) unnoticed.
+            long lastCommittedRevNumber = StmTransaction.getLastCommittedRevisionNumber();
+
+            // Skip revisions already linked by a committing transaction but not yet published.
+            Revision<T> revision = this.latestRevision;
+            while ( revision != null && revision.revisionNumber > lastCommittedRevNumber ) {
+                revision = revision.priorRevision;
+            }
+
+            if ( revision != null ) {
+                return revision.value;
+            }
+
+            // An item only becomes visible to others once its creating transaction commits; if more has been
+            // published meanwhile, look again.
+            if ( StmTransaction.getLastCommittedRevisionNumber() == lastCommittedRevNumber ) {
+                throw new IllegalStateException( "Versioned item not yet committed." );
+            }
+
+        }
+
+    }
+
     /**
      * Writes a new revision of the item managed by this handle.
      *
@@ -89,26 +153,25 @@ public class V<T>
         Objects.requireNonNull( value );
 
         // Work within the transaction of the current thread.
-        StmTransaction currentTransaction = StmTransactionContext.getTransactionOfCurrentThread();
+        StmTransaction currentTransaction = StmTransactionContext.getWritableTransactionOfCurrentThread();
+
+        // If previously written by the current transaction, just update to the newer value (no longer commutative).
+        Revision<T> pendingRevision = currentTransaction.getPendingRevision( this );
+        if ( pendingRevision != null ) {
+            pendingRevision.value = value;
+            pendingRevision.deferredOperations = null;
+            return;
+        }
 
         long sourceRevisionNumber = currentTransaction.getSourceRevisionNumber();
-        long targetRevisionNumber = currentTransaction.getTargetRevisionNumber().get();
 
         // Loop through the revisions ...
-        for ( Revision<T> revision = this.latestRevision.get(); revision != null; revision = revision.priorRevision.get() ) {
-
-            final long revisionNumber = revision.revisionNumber.get();
-
-            // If previously written by the current transaction, just update to the newer value.
-            if ( revisionNumber == targetRevisionNumber ) {
-                revision.value = value;
-                return;
-            }
+        for ( Revision<T> revision = this.latestRevision; revision != null; revision = revision.priorRevision ) {
 
-            // If revision is committed and older or equal to our source revision, need a new one.
-            if ( revisionNumber <= sourceRevisionNumber && revisionNumber > 0 ) {
+            // If revision is older or equal to our source revision, check for no change ...
+            if ( revision.revisionNumber <= sourceRevisionNumber ) {
 
-                // ... except if not changed, treat as a read.
+                // ... and if not changed, treat as a read.
                 if ( value == revision.value ) {
                     currentTransaction.addVersionedItemRead( this );
                     return;
@@ -120,96 +183,143 @@ public class V<T>
 
         }
 
-        // Create the new revision at the front of the chain.
-        this.latestRevision.set( new Revision<>( value, currentTransaction.getTargetRevisionNumber(), this.latestRevision.get() ) );
-
-        // Keep track of everything we've written.
-        currentTransaction.addVersionedItemWritten( this );
+        // Buffer the new revision until the transaction commits.
+        currentTransaction.addPendingRevision( this, new Revision<>( value ) );
 
     }
 
-    @Override
-    void ensureNotWrittenByOtherTransaction() {
+    /**
+     * Writes a new revision of the item computed by a commutative operation. Unlike a read followed by a set, the
+     * operation does not make the transaction depend on the value read: at commit the operation is applied again
+     * to the latest committed value, so concurrent commutative writes merge instead of conflicting.
+     *
+     * @param operation a quick, side-effect-free function from an old value to a new one.
+     */
+    void commute( UnaryOperator<T> operation ) {
 
         // Work within the transaction of the current thread.
-        StmTransaction currentTransaction = StmTransactionContext.getTransactionOfCurrentThread();
+        StmTransaction currentTransaction = StmTransactionContext.getWritableTransactionOfCurrentThread();
+
+        // If previously written by the current transaction, apply the operation to the written value.
+        Revision<T> pendingRevision = currentTransaction.getPendingRevision( this );
+        if ( pendingRevision != null ) {
+            pendingRevision.value = operation.apply( pendingRevision.value );
+            if ( pendingRevision.isCommuted() ) {
+                pendingRevision.deferredOperations.add( operation );
+            }
+            return;
+        }
 
         long sourceRevisionNumber = currentTransaction.getSourceRevisionNumber();
 
-        // Loop through the revisions ...
-        for ( Revision<T> revision = this.latestRevision.get(); revision != null; revision = revision.priorRevision.get() ) {
+        // Find the value in our snapshot without recording a read.
+        for ( Revision<T> revision = this.latestRevision; revision != null; revision = revision.priorRevision ) {
+            if ( revision.revisionNumber <= sourceRevisionNumber ) {
 
-            final long revisionNumber = revision.revisionNumber.get();
+                // Buffer the new revision along with the operation to repeat at commit.
+                pendingRevision = new Revision<>( operation.apply( revision.value ) );
+                pendingRevision.deferredOperations = new ArrayList<>( 1 );
+                pendingRevision.deferredOperations.add( operation );
+                currentTransaction.addPendingRevision( this, pendingRevision );
 
-            // If find something newer, then transaction conflicts.
-            if ( revisionNumber > sourceRevisionNumber ) {
-                throw new WriteConflictException();
-            }
+                return;
 
-            // If revision is committed and older or equal to our source revision, then done.
-            if ( revisionNumber <= sourceRevisionNumber && revisionNumber > 0 ) {
-                break;
             }
-
         }
 
+        throw new NullPointerException( "No revision found for transaction." );
+
     }
 
     @Override
-    void removeAbortedRevision() {
+    @SuppressWarnings("unchecked")
+    Object copyPendingRevision( Object pendingRevision ) {
 
-        // First check the latest revision.
-        Revision<T> revision = this.latestRevision.get();
+        Revision<T> revision = (Revision<T>) pendingRevision;
 
-        while ( revision.revisionNumber.get() == 0L ) {
-            if ( this.latestRevision.compareAndSet( revision, revision.priorRevision.get() ) ) {
-                return;
-            }
+        Revision<T> result = new Revision<>( revision.value );
+        if ( revision.isCommuted() ) {
+            result.deferredOperations = new ArrayList<>( revision.deferredOperations );
         }
 
-        // Loop through the revisions.
-        Revision<T> priorRevision = revision.priorRevision.get();
-        while ( priorRevision != null ) {
+        return result;
 
-            final long revisionNumber = priorRevision.revisionNumber.get();
+    }
 
-            if ( revisionNumber == 0L ) {
-                // If found & removed w/o concurrent change, then done.
-                if ( revision.priorRevision.compareAndSet( priorRevision, priorRevision.priorRevision.get() ) ) {
-                    return;
-                }
+    @Override
+    void ensureNotWrittenByOtherTransaction( StmTransaction currentTransaction ) {
 
-                // If concurrent change, abandon this call and try again from the top.
-                priorRevision = null;
-                this.removeAbortedRevision();
-            }
-            else {
-                // Advance through the list.
-                revision = priorRevision;
-                priorRevision = revision.priorRevision.get();
-            }
+        // Only committing transactions link revisions, so any revision newer than our source is a conflict.
+        Revision<T> revision = this.latestRevision;
+        if ( revision != null && revision.revisionNumber > currentTransaction.getSourceRevisionNumber() ) {
+            throw new WriteConflictException( this );
         }
 
     }
 
+    /**
+     * @return the value of the latest revision linked into the chain (null if none). Stable only while holding the
+     * commit lock of this item.
+     */
+    T getLatestValue() {
+        Revision<T> revision = this.latestRevision;
+        return revision != null ? revision.value : null;
+    }
+
     @Override
-    void removeUnusedRevisions( long oldestUsableRevisionNumber ) {
+    long getLatestRevisionNumber() {
+        Revision<T> revision = this.latestRevision;
+        return revision != null ? revision.revisionNumber : 0L;
+    }
 
-        // Loop through the revisions.
-        for ( Revision<T> revision = this.latestRevision.get(); revision != null; revision = revision.priorRevision.get() ) {
+    @Override
+    boolean isCommutative( Object pendingRevision ) {
+        return ( (Revision<?>) pendingRevision ).isCommuted();
+    }
 
-            final long revisionNumber = revision.revisionNumber.get();
+    @Override
+    void linkRevision( Object pendingRevision, long revisionNumber ) {
 
-            // Truncate revisions older than the oldest usable revision.
-            if ( revisionNumber == oldestUsableRevisionNumber ) {
-                revision.priorRevision.set( null );
-                break;
-            }
+        @SuppressWarnings("unchecked")
+        Revision<T> revision = (Revision<T>) pendingRevision;
+
+        // Stamp the revision before it becomes reachable from the chain.
+        revision.revisionNumber = revisionNumber;
+        revision.priorRevision = this.latestRevision;
+
+        // The committing transaction holds our commit lock, so nobody else changes the head concurrently. (The
+        // volatile write publishes the revision's fields to readers.)
+        this.latestRevision = revision;
 
+    }
+
+    @Override
+    void mergeCommutativeWrite( Object pendingRevision ) {
+
+        @SuppressWarnings("unchecked")
+        Revision<T> revision = (Revision<T>) pendingRevision;
+
+        // Repeat commutative operations against the latest committed value (computing a fresh value, so that the
+        // revision is unchanged if an operation fails).
+        if ( revision.isCommuted() && this.latestRevision != null ) {
+            T value = this.latestRevision.value;
+            for ( UnaryOperator<T> operation : revision.deferredOperations ) {
+                value = operation.apply( value );
+            }
+            revision.value = value;
+            revision.deferredOperations = null;
         }
 
     }
 
+    @Override
+    void removeUnusedRevisions( Object linkedRevision ) {
+
+        // Truncate the revisions older than the given one, wherever it now is in the chain.
+        ( (Revision<?>) linkedRevision ).priorRevision = null;
+
+    }
+
     /**
      * Internal record structure for revisions in the linked list of revisions.
      *
@@ -217,21 +327,37 @@ public class V<T>
      */
     private static class Revision<T> {
 
-        Revision( T value, AtomicLong revisionNumber, Revision<T> priorRevision ) {
-            this.priorRevision = new AtomicReference<>( priorRevision );
-            this.revisionNumber = revisionNumber;
+        Revision( T value ) {
+            this.deferredOperations = null;
+            this.priorRevision = null;
+            this.revisionNumber = 0L;
             this.value = value;
         }
 
         /**
-         * A reference to the previous revision of the versioned item.
+         * @return whether this revision is buffered with commutative operations to repeat at commit.
+         */
+        boolean isCommuted() {
+            return this.deferredOperations != null;
+        }
+
+        /**
+         * The commutative operations that produced this revision from the snapshot, to be repeated at commit
+         * (null for an ordinary write, once the transaction has read the value back, and once merged at commit).
+         */
+        List<UnaryOperator<T>> deferredOperations;
+
+        /**
+         * A reference to the previous revision of the versioned item. Set before the revision is published and
+         * later only cleared when no transaction can need the older revisions, so a plain field suffices.
          */
-        final AtomicReference<Revision<T>> priorRevision;
+        Revision<T> priorRevision;
 
         /**
-         * The revision number of this revision (uniquely from the transaction that wrote it).
+         * The revision number of this revision (uniquely from the transaction that wrote it). Zero while the
+         * revision is buffered in its transaction; assigned before the revision is linked into the chain.
          */
-        final AtomicLong revisionNumber;
+        long revisionNumber;
 
         /**
          * The value of the versioned item at this revision.
@@ -242,8 +368,9 @@ public class V<T>
 
     /**
      * Reference to the latest revision. Revisions are kept in a custom linked list with the newest revision at
-     * the head of the list.
+     * the head of the list. Only committed revisions are ever linked into the list, and only by the transaction
+     * holding the commit lock, so a volatile field suffices.
      */
-    private final AtomicReference<Revision<T>> latestRevision;
+    private volatile Revision<T> latestRevision;
 
 }
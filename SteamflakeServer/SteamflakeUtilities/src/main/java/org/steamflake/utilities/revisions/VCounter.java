@@ -0,0 +1,290 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * A version-managing handle to a long counter with transactional revisions. Additions are commutative: they do not
+ * read the counter, and at commit the transaction's net addition is applied to the latest committed value, so
+ * concurrent transactions counting the same thing do not conflict. (Reading the counter with get does make the
+ * transaction depend on its value.)
+ */
+public class VCounter
+    extends AbstractVersionedItem {
+
+    /**
+     * Constructs a new versioned counter with given starting value for the current transaction's revision.
+     *
+     * @param value the initial value.
+     */
+    public VCounter( long value ) {
+
+        // Track everything through the current transaction.
+        StmTransaction currentTransaction = StmTransactionContext.getWritableTransactionOfCurrentThread();
+
+        // The chain stays empty until the transaction commits.
+        this.latestRevision = null;
+
+        // Buffer the initial value as a write of the current transaction.
+        currentTransaction.addPendingRevision( this, new Revision( value, false ) );
+
+    }
+
+    /**
+     * Constructs a new versioned counter with given starting value already committed as of the given revision,
+     * without involving any transaction (see V).
+     *
+     * @param value          the initial value.
+     * @param revisionNumber the revision number as of which the initial value counts as committed.
+     */
+    VCounter( long value, long revisionNumber ) {
+
+        // Link the initial value directly; nobody else can see this item yet.
+        Revision revision = new Revision( value, false );
+        revision.revisionNumber = revisionNumber;
+        this.latestRevision = revision;
+
+    }
+
+    /**
+     * Adds to the counter without reading it.
+     *
+     * @param delta the amount to add (may be negative).
+     */
+    public void add( long delta ) {
+
+        // Work within the transaction of the current thread.
+        StmTransaction currentTransaction = StmTransactionContext.getWritableTransactionOfCurrentThread();
+
+        // If previously written by the current transaction, accumulate the addition.
+        Revision pendingRevision = currentTransaction.getPendingRevision( this );
+        if ( pendingRevision != null ) {
+            pendingRevision.value += delta;
+            pendingRevision.delta += delta;
+            return;
+        }
+
+        long sourceRevisionNumber = currentTransaction.getSourceRevisionNumber();
+
+        // Find the value in our snapshot without recording a read.
+        for ( Revision revision = this.latestRevision; revision != null; revision = revision.priorRevision ) {
+            if ( revision.revisionNumber <= sourceRevisionNumber ) {
+
+                // Buffer the new revision along with the addition to repeat at commit.
+                pendingRevision = new Revision( revision.value + delta, true );
+                pendingRevision.delta = delta;
+                currentTransaction.addPendingRevision( this, pendingRevision );
+
+                return;
+
+            }
+        }
+
+        throw new NullPointerException( "No revision found for transaction." );
+
+    }
+
+    /**
+     * Reads the version of the counter relevant for the transaction active in the currently running thread.
+     *
+     * @return the value as of the start of the transaction plus any additions by the transaction.
+     */
+    public long get() {
+
+        // Track everything through the current transaction.
+        StmTransaction currentTransaction = StmTransactionContext.getTransactionOfCurrentThread();
+
+        // Include our own additions; the transaction now depends on the snapshot, so stop merging the additions at
+        // commit and validate them as an ordinary write instead (in every mode, even those that do not track reads).
+        Revision pendingRevision = currentTransaction.getPendingRevision( this );
+        if ( pendingRevision != null ) {
+            pendingRevision.commuted = false;
+            return pendingRevision.value;
+        }
+
+        // Work within the transaction of the current thread.
+        long sourceRevisionNumber = currentTransaction.getSourceRevisionNumber();
+
+        // Loop through the revisions.
+        for ( Revision revision = this.latestRevision; revision != null; revision = revision.priorRevision ) {
+
+            // If written and committed by some other transaction, note that our transaction is already poised for
+            // a write conflict if it writes anything. I.e. fail early for a write conflict.
+            if ( revision.revisionNumber > sourceRevisionNumber ) {
+                currentTransaction.setNewerRevisionSeen( this );
+            }
+
+            // If revision is older or equal to our source revision, read it.
+            else {
+                // Keep track of everything we've read.
+                currentTransaction.addVersionedItemRead( this );
+
+                // Return the value found for the source revision or earlier.
+                return revision.value;
+            }
+
+        }
+
+        throw new NullPointerException( "No revision found for transaction." );
+
+    }
+
+    /**
+     * Adds one to the counter without reading it.
+     */
+    public void increment() {
+        this.add( 1L );
+    }
+
+    /**
+     * Reads the value as of the latest revision published as committed without joining a transaction (see
+     * V.peekCommitted).
+     *
+     * @return the value of the latest published revision.
+     * @throws IllegalStateException if the transaction creating the item has not committed.
+     */
+    public long peekCommitted() {
+
+        while ( true ) {
+
+            // Note what has been published as committed before looking at the chain, so that no revision we skip
+            // can have been published (and its predecessors reclaimed) unnoticed.
+            long lastCommittedRevNumber = StmTransaction.getLastCommittedRevisionNumber();
+
+            // Skip revisions already linked by a committing transaction but not yet published.
+            Revision revision = this.latestRevision;
+            while ( revision != null && revision.revisionNumber > lastCommittedRevNumber ) {
+                revision = revision.priorRevision;
+            }
+
+            if ( revision != null ) {
+                return revision.value;
+            }
+
+            // An item only becomes visible to others once its creating transaction commits; if more has been
+            // published meanwhile, look again.
+            if ( StmTransaction.getLastCommittedRevisionNumber() == lastCommittedRevNumber ) {
+                throw new IllegalStateException( "Versioned item not yet committed." );
+            }
+
+        }
+
+    }
+
+    @Override
+    Object copyPendingRevision( Object pendingRevision ) {
+
+        Revision revision = (Revision) pendingRevision;
+
+        Revision result = new Revision( revision.value, revision.commuted );
+        result.delta = revision.delta;
+
+        return result;
+
+    }
+
+    @Override
+    void ensureNotWrittenByOtherTransaction( StmTransaction currentTransaction ) {
+
+        // Only committing transactions link revisions, so any revision newer than our source is a conflict.
+        Revision revision = this.latestRevision;
+        if ( revision != null && revision.revisionNumber > currentTransaction.getSourceRevisionNumber() ) {
+            throw new WriteConflictException( this );
+        }
+
+    }
+
+    @Override
+    long getLatestRevisionNumber() {
+        Revision revision = this.latestRevision;
+        return revision != null ? revision.revisionNumber : 0L;
+    }
+
+    @Override
+    boolean isCommutative( Object pendingRevision ) {
+        return ( (Revision) pendingRevision ).commuted;
+    }
+
+    @Override
+    void linkRevision( Object pendingRevision, long revisionNumber ) {
+
+        Revision revision = (Revision) pendingRevision;
+
+        // Stamp the revision before it becomes reachable from the chain.
+        revision.revisionNumber = revisionNumber;
+        revision.priorRevision = this.latestRevision;
+
+        // The committing transaction holds our commit lock, so nobody else changes the head concurrently. (The
+        // volatile write publishes the revision's fields to readers.)
+        this.latestRevision = revision;
+
+    }
+
+    @Override
+    void mergeCommutativeWrite( Object pendingRevision ) {
+
+        Revision revision = (Revision) pendingRevision;
+
+        // Repeat the net addition against the latest committed value.
+        if ( revision.commuted && this.latestRevision != null ) {
+            revision.value = this.latestRevision.value + revision.delta;
+        }
+
+    }
+
+    @Override
+    void removeUnusedRevisions( Object linkedRevision ) {
+
+        // Truncate the revisions older than the given one, wherever it now is in the chain.
+        ( (Revision) linkedRevision ).priorRevision = null;
+
+    }
+
+    /**
+     * Internal record structure for revisions in the linked list of revisions.
+     */
+    private static class Revision {
+
+        Revision( long value, boolean commuted ) {
+            this.commuted = commuted;
+            this.delta = 0L;
+            this.priorRevision = null;
+            this.revisionNumber = 0L;
+            this.value = value;
+        }
+
+        /**
+         * Whether this revision was produced by additions to be repeated at commit (rather than by construction or
+         * by additions the transaction has since read back).
+         */
+        boolean commuted;
+
+        /**
+         * The net addition made by the transaction writing this revision.
+         */
+        long delta;
+
+        /**
+         * A reference to the previous revision of the versioned item. Set before the revision is published and
+         * later only cleared when no transaction can need the older revisions, so a plain field suffices.
+         */
+        Revision priorRevision;
+
+        /**
+         * The revision number of this revision (uniquely from the transaction that wrote it). Zero while the
+         * revision is buffered in its transaction; assigned before the revision is linked into the chain.
+         */
+        long revisionNumber;
+
+        /**
+         * The value of the versioned item at this revision.
+         */
+        long value;
+
+    }
+
+    /**
+     * Reference to the latest revision. Revisions are kept in a custom linked list with the newest revision at
+     * the head of the list. Only committed revisions are ever linked into the list, and only by the transaction
+     * holding the commit lock, so a volatile field suffices.
+     */
+    private volatile Revision latestRevision;
+
+}
@@ -0,0 +1,80 @@
+package org.steamflake.utilities.revisions;
+
+/**
+ * A version-managing handle to an int value with transactional revisions. Works like V&lt;Integer&gt; but
+ * stores the unboxed value inline in each revision.
+ */
+public class VInt
+    extends AbstractPrimitiveVersionedItem<VInt.Revision> {
+
+    /**
+     * Constructs a new versioned handle with given starting value for the current transaction's revision.
+     *
+     * @param value the initial value.
+     */
+    public VInt( int value ) {
+        super( new Revision( value ) );
+    }
+
+    /**
+     * Reads the version of the item relevant for the transaction active in the currently running thread.
+     *
+     * @return the value as of the start of the transaction or else as written by the transaction
+     */
+    public int get() {
+        return this.readRevision().value;
+    }
+
+    /**
+     * Reads the value as of the latest revision published as committed without joining a transaction (see
+     * V.peekCommitted).
+     *
+     * @return the value of the latest published revision.
+     * @throws IllegalStateException if the transaction creating the item has not committed.
+     */
+    public int peekCommitted() {
+        return this.peekRevision().value;
+    }
+
+    /**
+     * Writes a new revision of the item managed by this handle.
+     *
+     * @param value The new raw value to become the next revision of this item.
+     */
+    public void set( int value ) {
+        this.writeRevision( new Revision( value ) );
+    }
+
+    /**
+     * Internal record structure for revisions in the linked list of revisions.
+     */
+    static final class Revision
+        extends PrimitiveRevision<Revision> {
+
+        Revision( int value ) {
+            this.value = value;
+        }
+
+        @Override
+        void assign( Revision that ) {
+            this.value = that.value;
+        }
+
+        @Override
+        Revision copy() {
+            return new Revision( this.value );
+        }
+
+        @Override
+        boolean hasSameValue( Revision that ) {
+            return this.value == that.value;
+        }
+
+        /**
+         * The value of the versioned item at this revision.
+         */
+        int value;
+
+    }
+
+}
@@ -0,0 +1,372 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Handle to a versioned item that is a map from keys to values. Each key present has its own versioned entry, so
+ * transactions reading and writing different keys never conflict; only a transaction that depends on the size of the
+ * map (size, isEmpty) also conflicts with concurrent additions and removals. A key never put has no entry: looking it
+ * up depends instead on one of a few insert stamps shared by the keys hashing alike, so a lookup adds nothing to the
+ * map and conflicts only with concurrent additions of such keys. Entries left absent are retired once no transaction
+ * can read them any more. The map needs no transaction to be constructed.
+ *
+ * @param <K> the type of the keys.
+ * @param <T> the type of the values.
+ */
+public class VMap<K, T>
+    implements IVersionedItem {
+
+    /**
+     * Constructs a new, empty versioned map. Needs no transaction.
+     */
+    public VMap() {
+
+        this.entries = new ConcurrentHashMap<>();
+        this.retirementCandidates = new ConcurrentLinkedQueue<>();
+
+        // Count the entries commutatively, reporting changes of the count as writes of this map. (Every addition or
+        // removal writes the count, so its commits take care of retiring entries.)
+        this.size = new VCounter( 0L, 0L ) {
+            @Override
+            IVersionedItem getObservableItem() {
+                return VMap.this;
+            }
+
+            @Override
+            void reclaimWhileCommitting( StmTransaction transaction ) {
+                VMap.this.retireAbsentEntries( transaction );
+            }
+        };
+
+        this.insertStamps = new VCounter[INSERT_STAMP_COUNT];
+        for ( int i = 0; i < INSERT_STAMP_COUNT; i += 1 ) {
+            this.insertStamps[i] = new VCounter( 0L, 0L ) {
+                @Override
+                IVersionedItem getObservableItem() {
+                    return VMap.this;
+                }
+            };
+        }
+
+    }
+
+    /**
+     * Determines whether the map contains a given key in the revision relevant for the current transaction.
+     *
+     * @param key the key to look for.
+     * @return true if the key is present.
+     */
+    public boolean containsKey( K key ) {
+        return this.get( key ) != null;
+    }
+
+    @Override
+    public void ensureUnchanged() {
+        this.size.ensureUnchanged();
+        for ( Entry entry : this.entries.values() ) {
+            entry.ensureUnchanged();
+        }
+    }
+
+    /**
+     * Reads the value for a key in the revision relevant for the current transaction.
+     *
+     * @param key the key to look up.
+     * @return the value found or null if the key is not present.
+     */
+    @SuppressWarnings("unchecked")
+    public T get( K key ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( key );
+
+        // Without an entry, the key is absent until some transaction adds it.
+        Entry entry = this.entries.get( key );
+        if ( entry == null || entry.retired ) {
+            this.getInsertStamp( key ).get();
+            return null;
+        }
+
+        // Read the key's own entry, so that only changes to this key conflict (including its addition).
+        Object value = entry.get();
+
+        return value != ABSENT ? (T) value : null;
+
+    }
+
+    /**
+     * @return whether the map is empty in the revision relevant for the current transaction.
+     */
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * Reads the latest published value for a key without joining a transaction (see V.peekCommitted).
+     *
+     * @param key the key to look up.
+     * @return the value found or null if the key is not present.
+     */
+    @SuppressWarnings("unchecked")
+    public T peekCommitted( K key ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( key );
+
+        // A key without an entry is absent.
+        Entry entry = this.entries.get( key );
+        if ( entry == null ) {
+            return null;
+        }
+
+        Object value = entry.peekCommitted();
+
+        return value != ABSENT ? (T) value : null;
+
+    }
+
+    /**
+     * Adds or replaces an entry of the map.
+     *
+     * @param key   the key of the entry.
+     * @param value the new value for the key.
+     */
+    public void put( K key, T value ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( key );
+        Objects.requireNonNull( value );
+
+        // Fail before adding an entry if the transaction cannot write.
+        StmTransactionContext.getWritableTransactionOfCurrentThread();
+
+        Entry entry = this.getEntryForWriting( key );
+
+        // Count a new key and let transactions that found it missing conflict.
+        if ( entry.get() == ABSENT ) {
+            this.size.increment();
+            this.getInsertStamp( key ).increment();
+        }
+
+        entry.set( value );
+
+    }
+
+    /**
+     * Removes an entry from the map.
+     *
+     * @param key the key of the entry to remove.
+     */
+    public void remove( K key ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( key );
+
+        // Removing an absent key changes nothing (but depends on the key staying absent).
+        Entry entry = this.entries.get( key );
+        if ( entry == null || entry.retired ) {
+            this.getInsertStamp( key ).get();
+        }
+        else if ( entry.get() != ABSENT ) {
+            this.size.add( -1L );
+            entry.set( ABSENT );
+        }
+
+    }
+
+    /**
+     * @return the number of entries in the revision relevant for the current transaction.
+     */
+    public int size() {
+        return (int) this.size.get();
+    }
+
+    /**
+     * Finds or creates the versioned entry for a key about to be written. A new entry counts as absent since revision
+     * zero, so every transaction, whatever its snapshot, finds the key absent until some transaction puts it. (If the
+     * writing transaction aborts, the entry is retired later.)
+     *
+     * @param key the key of the entry.
+     * @return the one live versioned entry for the key.
+     */
+    private Entry getEntryForWriting( K key ) {
+
+        Entry result = this.entries.get( key );
+
+        if ( result == null || result.retired ) {
+            result = this.entries.compute( key, ( k, entry ) -> {
+                if ( entry != null && !entry.retired ) {
+                    return entry;
+                }
+
+                // Keep the new entry until no snapshot that could be writing it remains.
+                Entry newEntry = new Entry( k );
+                this.retirementCandidates.add( new RetirementCandidate( newEntry, StmTransaction.getLastCommittedRevisionNumber() + 1 ) );
+                return newEntry;
+            } );
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Finds the insert stamp shared by the keys hashing alike to a given key.
+     *
+     * @param key the key of interest.
+     * @return the stamp written whenever such a key is added.
+     */
+    private VCounter getInsertStamp( K key ) {
+        int hash = key.hashCode();
+        return this.insertStamps[( hash ^ ( hash >>> 16 ) ) & ( INSERT_STAMP_COUNT - 1 )];
+    }
+
+    /**
+     * Retires the entries left absent since before the oldest revision any transaction may still read. Runs while a
+     * transaction commits a change of the size of this map, which holds off irrevocable transactions (they write
+     * without validating, so must not be handed a retired entry); other transactions holding a retired entry
+     * conflict at commit.
+     *
+     * @param transaction the committing transaction.
+     */
+    private void retireAbsentEntries( StmTransaction transaction ) {
+
+        long oldestReadableRevNumber = StmTransaction.getOldestReadableRevisionNumber();
+
+        // Candidates are queued roughly in revision order, so stop at the first too recent.
+        for ( Iterator<RetirementCandidate> iterator = this.retirementCandidates.iterator(); iterator.hasNext(); ) {
+
+            RetirementCandidate candidate = iterator.next();
+            if ( candidate.revisionNumber > oldestReadableRevNumber ) {
+                break;
+            }
+
+            // Leave an entry being committed by another transaction for a later pass.
+            Entry entry = candidate.entry;
+            if ( !entry.tryLockForCommit( transaction ) ) {
+                continue;
+            }
+
+            // Retire the entry if still absent in every readable revision.
+            if ( entry.getLatestValue() == ABSENT && entry.getLatestRevisionNumber() <= oldestReadableRevNumber ) {
+                entry.retired = true;
+                this.entries.remove( entry.key, entry );
+            }
+
+            entry.unlockForCommit( transaction );
+            iterator.remove();
+
+        }
+
+    }
+
+    /**
+     * The versioned entry holding the value of one key.
+     */
+    private final class Entry
+        extends V<Object> {
+
+        Entry( K key ) {
+            super( ABSENT, 0L );
+            this.key = key;
+            this.retired = false;
+        }
+
+        @Override
+        void ensureNotWrittenByOtherTransaction( StmTransaction currentTransaction ) {
+
+            // A retired entry may have been replaced by a new one for the same key.
+            if ( this.retired ) {
+                throw new WriteConflictException( this );
+            }
+
+            super.ensureNotWrittenByOtherTransaction( currentTransaction );
+
+        }
+
+        @Override
+        IVersionedItem getObservableItem() {
+            return VMap.this;
+        }
+
+        @Override
+        void linkRevision( Object pendingRevision, long revisionNumber ) {
+
+            super.linkRevision( pendingRevision, revisionNumber );
+
+            // A removal makes the entry a candidate for retirement.
+            if ( this.getLatestValue() == ABSENT ) {
+                VMap.this.retirementCandidates.add( new RetirementCandidate( this, revisionNumber ) );
+            }
+
+        }
+
+        /**
+         * The key of the entry.
+         */
+        final K key;
+
+        /**
+         * Whether the entry has been removed from the map for good (set while holding its commit lock).
+         */
+        volatile boolean retired;
+
+    }
+
+    /**
+     * An entry that may be retired once no transaction can read a revision before a given one.
+     */
+    private final class RetirementCandidate {
+
+        RetirementCandidate( Entry entry, long revisionNumber ) {
+            this.entry = entry;
+            this.revisionNumber = revisionNumber;
+        }
+
+        /**
+         * The entry found absent.
+         */
+        final Entry entry;
+
+        /**
+         * The revision from which on the entry is absent, or else after which any transaction that may still write
+         * a new entry began.
+         */
+        final long revisionNumber;
+
+    }
+
+    /**
+     * The value of an entry whose key is not in the map.
+     */
+    private static final Object ABSENT = new Object();
+
+    /**
+     * The number of insert stamps (a power of two).
+     */
+    private static final int INSERT_STAMP_COUNT = 16;
+
+    /**
+     * The live versioned entries of the map, one per key present (or recently present or being put).
+     */
+    private final ConcurrentHashMap<K, Entry> entries;
+
+    /**
+     * Counters written whenever a key is added, striped by the hash of the key.
+     */
+    private final VCounter[] insertStamps;
+
+    /**
+     * The entries found absent, waiting until they can be retired.
+     */
+    private final ConcurrentLinkedQueue<RetirementCandidate> retirementCandidates;
+
+    /**
+     * The number of keys present.
+     */
+    private final VCounter size;
+
+}
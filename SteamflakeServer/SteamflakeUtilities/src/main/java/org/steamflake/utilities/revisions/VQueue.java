@@ -0,0 +1,164 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.Objects;
+
+/**
+ * Handle to a versioned first-in, first-out queue for passing work between transactions. The queue is a linked list
+ * of versioned cells with separate head and tail, so producers contend only with each other (at the tail) and
+ * consumers only with each other (at the head), except when the queue is empty. A consumer taking from an empty queue
+ * retries: it blocks without spinning until a producer commits.
+ *
+ * @param <T> the type of the items in the queue.
+ */
+public class VQueue<T>
+    implements IVersionedItem {
+
+    /**
+     * Constructs a new empty versioned queue for the current transaction's revision.
+     */
+    public VQueue() {
+
+        this.end = new Node<>( null, null );
+
+        // Start with a sentinel node standing for the last item taken.
+        Node<T> sentinel = new Node<>( null, this.newCell() );
+
+        this.head = this.newCell( sentinel );
+        this.tail = this.newCell( sentinel );
+
+    }
+
+    @Override
+    public void ensureUnchanged() {
+        this.head.ensureUnchanged();
+        this.tail.ensureUnchanged();
+    }
+
+    /**
+     * Determines whether the queue is empty in the transaction active in the currently running thread.
+     *
+     * @return true if there is nothing to take.
+     */
+    public boolean isEmpty() {
+        return this.head.get().next.get() == this.end;
+    }
+
+    /**
+     * Removes the item at the head of the queue if there is one.
+     *
+     * @return the item taken or null if the queue is empty.
+     */
+    public T poll() {
+
+        Node<T> first = this.head.get().next.get();
+
+        if ( first == this.end ) {
+            return null;
+        }
+
+        // The node taken becomes the new sentinel.
+        this.head.set( first );
+
+        return first.value;
+
+    }
+
+    /**
+     * Adds an item at the tail of the queue.
+     *
+     * @param value the item to add.
+     */
+    public void put( T value ) {
+
+        // Sanity check the input.
+        Objects.requireNonNull( value );
+
+        Node<T> node = new Node<>( value, this.newCell() );
+
+        this.tail.get().next.set( node );
+        this.tail.set( node );
+
+    }
+
+    /**
+     * Removes the item at the head of the queue, retrying the transaction (see StmTransactionContext.retry) while the
+     * queue is empty.
+     *
+     * @return the item taken.
+     */
+    public T take() {
+
+        T result = this.poll();
+
+        if ( result == null ) {
+            StmTransactionContext.retry();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Creates a versioned cell for the link to the next node, reporting writes as writes of this queue.
+     *
+     * @return the new cell, initially at the end of the queue.
+     */
+    private V<Node<T>> newCell() {
+        return this.newCell( this.end );
+    }
+
+    /**
+     * Creates a versioned cell referencing a node, reporting writes as writes of this queue.
+     *
+     * @param node the node initially referenced.
+     * @return the new cell.
+     */
+    private V<Node<T>> newCell( Node<T> node ) {
+        return new V<Node<T>>( node ) {
+            @Override
+            IVersionedItem getObservableItem() {
+                return VQueue.this;
+            }
+        };
+    }
+
+    /**
+     * Immutable node of the linked list holding an item and a versioned link to the node after it.
+     *
+     * @param <T> the type of the item.
+     */
+    private static final class Node<T> {
+
+        Node( T value, V<Node<T>> next ) {
+            this.next = next;
+            this.value = value;
+        }
+
+        /**
+         * The link to the next node (the queue's end marker if none).
+         */
+        final V<Node<T>> next;
+
+        /**
+         * The item (null for the end marker and the initial sentinel).
+         */
+        final T value;
+
+    }
+
+    /**
+     * Marker for the absence of a next node (versioned cells cannot hold null).
+     */
+    private final Node<T> end;
+
+    /**
+     * The sentinel node whose successor is the next item to take.
+     */
+    private final V<Node<T>> head;
+
+    /**
+     * The last node in the queue (the sentinel when empty).
+     */
+    private final V<Node<T>> tail;
+
+}
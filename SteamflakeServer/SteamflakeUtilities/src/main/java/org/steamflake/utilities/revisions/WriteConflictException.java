@@ -9,8 +9,23 @@ class WriteConflictException
 
     /**
      * Constructs a new exception.
+     *
+     * @param versionedItem the item found in conflict.
      */
-    WriteConflictException() {
+    WriteConflictException( AbstractVersionedItem versionedItem ) {
+        this.versionedItem = versionedItem;
     }
 
+    /**
+     * @return the item found in conflict.
+     */
+    AbstractVersionedItem getVersionedItem() {
+        return this.versionedItem;
+    }
+
+    /**
+     * The item found in conflict.
+     */
+    private final AbstractVersionedItem versionedItem;
+
 }
@@ -2,6 +2,11 @@ package org.steamflake.utilities.revisions
 
 import spock.lang.Specification
 
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
 /**
  * Simple exercising of Transactions.
  */
@@ -27,6 +32,38 @@ class TransactionSpec extends Specification {
 
     }
 
+    def "Transactions allow primitive versioned items to be created and changed"() {
+
+        given:
+        VBoolean flag
+        VInt count
+        VLong total
+        VDouble ratio
+        StmTransactionContext.doInTransaction(1) {
+            flag = new VBoolean(false);
+            count = new VInt(1);
+            total = new VLong(1L);
+            ratio = new VDouble(0.5);
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            flag.set(true);
+            count.set(count.get() + 1);
+            total.set(total.get() + 1L);
+            ratio.set(ratio.get() * 3);
+        }
+
+        then:
+        StmTransactionContext.doInTransaction(1) {
+            assert flag.get()
+            assert count.get() == 2
+            assert total.get() == 2L
+            assert ratio.get() == 1.5d
+        }
+
+    }
+
     def "Transactions allow a versioned list to be created and changed"() {
 
         given:
@@ -65,4 +102,870 @@ class TransactionSpec extends Specification {
 
     }
 
+    def "Transactions allow a versioned set to be created and changed"() {
+
+        given:
+        VSet<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new VSet<>();
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            stuff.add(2);
+            stuff.add(3);
+        }
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            stuff.remove(2);
+            stuff.add(4);
+        }
+
+        then:
+        def stSet = null;
+        StmTransactionContext.doInTransaction(1) {
+            stSet = stuff.get();
+        }
+        assert stSet == [3, 4] as Set;
+
+        when:
+        stSet.add(5);
+
+        then:
+        thrown(UnsupportedOperationException)
+
+    }
+
+    def "Read-only transactions read committed values and refuse writes"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+        }
+
+        when:
+        def value = null
+        StmTransactionContext.doInReadOnlyTransaction {
+            value = stuff.get();
+        }
+
+        then:
+        value == 1
+
+        when:
+        StmTransactionContext.doInReadOnlyTransaction {
+            stuff.set(2);
+        }
+
+        then:
+        thrown(IllegalStateException)
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            assert stuff.get() == 1
+        }
+
+    }
+
+    def "A serializing contention policy runs a conflicting task irrevocably"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+        }
+        def policy = new SerializingContentionPolicy(1, new BackoffContentionPolicy())
+        def attempts = 0
+
+        when:
+        StmTransactionContext.doInTransaction(2, policy) {
+            attempts += 1;
+            def value = stuff.get();
+
+            // Provoke a write conflict on the first attempt only.
+            if (attempts == 1) {
+                Thread.start {
+                    StmTransactionContext.doInTransaction(1) {
+                        stuff.set(10);
+                    }
+                }.join();
+            }
+
+            stuff.set(value + 1);
+        }
+
+        then:
+        attempts == 2
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            assert stuff.get() == 11
+        }
+
+    }
+
+    def "A task escalated by a serializing contention policy can still wait by calling retry"() {
+
+        given:
+        VQueue<String> queue
+        StmTransactionContext.doInTransaction(1) {
+            queue = new VQueue<>();
+        }
+        def policy = new SerializingContentionPolicy(0, new BackoffContentionPolicy())
+        def taken = new CompletableFuture<String>()
+
+        when: "every attempt is escalated from the start"
+        def consumer = Thread.start {
+            StmTransactionContext.doInTransaction(1, policy) {
+                taken.complete(queue.take());
+            }
+        }
+        Thread.sleep(100)
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            queue.put("work");
+        }
+        consumer.join(5000)
+
+        then: "the escalated attempt gives way to one that waits for the item"
+        taken.get(5, TimeUnit.SECONDS) == "work"
+
+    }
+
+    def "A serializing contention policy does not escalate a snapshot isolation task"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+        }
+        def policy = new SerializingContentionPolicy(0, new BackoffContentionPolicy())
+        def committed = new CompletableFuture<Boolean>()
+
+        when: "another transaction commits while the task runs"
+        StmTransactionContext.doInSnapshotIsolationTransaction(0, policy) {
+            stuff.get();
+            Thread.start {
+                StmTransactionContext.doInTransaction(1) {
+                    stuff.set(10);
+                }
+                committed.complete(true);
+            }.join(5000)
+        }
+
+        then: "it is not held off"
+        committed.getNow(false)
+
+    }
+
+    def "Aborted transactions leave no trace of their writes"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            stuff.set(2);
+            assert stuff.get() == 2
+            throw new IllegalArgumentException("Abandon the write.");
+        }
+
+        then:
+        thrown(IllegalArgumentException)
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            assert stuff.get() == 1
+        }
+
+    }
+
+    def "Commit subscribers receive a change set per committed transaction"() {
+
+        given:
+        def executor = Executors.newSingleThreadExecutor()
+        def changeSets = new LinkedBlockingQueue<StmChangeSet>()
+        def subscription = StmTransactionContext.subscribe(new ICommitSubscriber() {
+            @Override
+            void onCommit(StmChangeSet changeSet) {
+                changeSets.add(changeSet)
+            }
+
+            @Override
+            void onChangeSetsDropped(long droppedCount) {
+            }
+        }, executor, 16)
+
+        when:
+        V<Integer> stuff
+        VSet<Integer> things
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+            things = new VSet<>();
+        }
+        StmTransactionContext.doInTransaction(1) {
+            things.add(2);
+        }
+
+        then:
+        def first = changeSets.poll(5, TimeUnit.SECONDS)
+        first.itemsWritten as Set == [stuff, things] as Set
+
+        and:
+        def second = changeSets.poll(5, TimeUnit.SECONDS)
+        second.itemsWritten == [things]
+        second.revisionNumber > first.revisionNumber
+
+        cleanup:
+        subscription.close()
+        executor.shutdown()
+
+    }
+
+    def "Snapshot isolation transactions validate only writes and items ensured unchanged"() {
+
+        given:
+        V<Integer> source
+        V<Integer> target
+        StmTransactionContext.doInTransaction(1) {
+            source = new V<>(1000);
+            target = new V<>(0);
+        }
+        def bumpSource = {
+            Thread.start {
+                StmTransactionContext.doInTransaction(1) {
+                    source.set(source.get() + 1);
+                }
+            }.join()
+        }
+
+        when: "a value read changes concurrently"
+        def attempts = 0
+        StmTransactionContext.doInSnapshotIsolationTransaction(2) {
+            attempts += 1;
+            def value = source.get();
+            if (attempts == 1) {
+                bumpSource();
+            }
+            target.set(value + attempts);
+        }
+
+        then: "the transaction commits anyway"
+        attempts == 1
+
+        when: "the value read must stay unchanged"
+        attempts = 0
+        StmTransactionContext.doInSnapshotIsolationTransaction(2) {
+            attempts += 1;
+            source.ensureUnchanged();
+            def value = source.get();
+            if (attempts == 1) {
+                bumpSource();
+            }
+            target.set(value + attempts);
+        }
+
+        then: "the transaction is retried"
+        attempts == 2
+
+    }
+
+    def "Counter additions and blind set additions merge instead of conflicting"() {
+
+        given:
+        VCounter counter
+        VSet<Integer> things
+        StmTransactionContext.doInTransaction(1) {
+            counter = new VCounter(0);
+            things = new VSet<>();
+        }
+        def addConcurrently = { int value ->
+            Thread.start {
+                StmTransactionContext.doInTransaction(0) {
+                    counter.increment();
+                    things.addWithoutReading(value);
+                }
+            }.join()
+        }
+
+        when: "a transaction adds while another commits additions"
+        def attempts = 0
+        StmTransactionContext.doInTransaction(0) {
+            attempts += 1;
+            counter.add(10);
+            things.addWithoutReading(1);
+            addConcurrently(2);
+        }
+
+        then: "both commit on the first attempt"
+        attempts == 1
+        StmTransactionContext.doInTransaction(1) {
+            assert counter.get() == 11
+            assert things.get() == [1, 2] as Set
+        }
+
+        when: "a transaction reads the counter after adding"
+        attempts = 0
+        StmTransactionContext.doInTransaction(2) {
+            attempts += 1;
+            counter.add(10);
+            def value = counter.get();
+            if (attempts == 1) {
+                addConcurrently(3);
+            }
+        }
+
+        then: "the transaction is retried"
+        attempts == 2
+        StmTransactionContext.doInTransaction(1) {
+            assert counter.get() == 22
+        }
+
+        when: "a snapshot isolation transaction reads the set after adding"
+        attempts = 0
+        StmTransactionContext.doInSnapshotIsolationTransaction(2) {
+            attempts += 1;
+            things.addWithoutReading(4);
+            def size = things.get().size();
+            if (attempts == 1) {
+                addConcurrently(5);
+            }
+            counter.add(size);
+        }
+
+        then: "the transaction is retried too"
+        attempts == 2
+        StmTransactionContext.doInTransaction(1) {
+            assert things.get() == [1, 2, 3, 4, 5] as Set
+            assert counter.get() == 28
+        }
+
+    }
+
+    def "A commutative operation failing at commit leaves every write of the transaction uncommitted"() {
+
+        given:
+        V<Integer> before
+        VSet<FragileElement> things
+        V<Integer> after
+        StmTransactionContext.doInTransaction(1) {
+            before = new V<>(1);
+            things = new VSet<>();
+            after = new V<>(1);
+        }
+        def element = new FragileElement()
+
+        when: "the element cannot be hashed again when the addition is repeated at commit"
+        StmTransactionContext.doInTransaction(0) {
+            before.set(2);
+            things.addWithoutReading(element);
+            after.set(2);
+            element.failing = true;
+        }
+
+        then:
+        thrown(IllegalStateException)
+        before.peekCommitted() == 1
+        after.peekCommitted() == 1
+
+        and: "later transactions commit as usual"
+        StmTransactionContext.doInTransaction(1) {
+            before.set(3);
+        }
+        StmTransactionContext.doInTransaction(1) {
+            assert before.get() == 3
+            assert after.get() == 1
+            assert things.get().isEmpty()
+        }
+
+    }
+
+    def "Asynchronous transactions continue on other threads and commit when their work completes"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+        }
+        def executor = Executors.newSingleThreadExecutor()
+
+        when:
+        def future = StmTransactionContext.doInTransactionAsync(1) {
+            def handle = StmTransactionContext.captureTransaction()
+            return CompletableFuture.supplyAsync({ 10 }, executor).thenApply { increment ->
+                handle.call {
+                    stuff.set(stuff.get() + increment);
+                    return stuff.get()
+                }
+            }
+        }
+
+        then:
+        future.get(5, TimeUnit.SECONDS) == 11
+        StmTransactionContext.doInTransaction(1) {
+            assert stuff.get() == 11
+        }
+
+        cleanup:
+        executor.shutdown()
+
+    }
+
+    def "Parallel read-only transactions share one snapshot among worker threads"() {
+
+        given:
+        List<V<Integer>> cells = []
+        StmTransactionContext.doInTransaction(1) {
+            (1..100).each { cells.add(new V<>(it)) }
+        }
+
+        when:
+        def sum = StmTransactionContext.doInParallelReadOnlyTransaction { snapshot ->
+            cells.parallelStream().mapToLong { cell -> snapshot.call { cell.get() as long } }.sum()
+        }
+
+        then:
+        sum == 5050
+
+    }
+
+    def "Peeking reads the latest committed value without a transaction"() {
+
+        given:
+        V<Integer> stuff
+        VSet<Integer> things
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+            things = new VSet<>();
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            stuff.set(2);
+            things.add(3);
+            assert stuff.peekCommitted() == 1
+        }
+
+        then:
+        stuff.peekCommitted() == 2
+        things.peekCommitted() == [3] as Set
+
+    }
+
+    def "Retained history can be read as of an earlier revision"() {
+
+        given:
+        StmTransactionContext.setHistoryRetention(100, Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(1);
+        }
+        def firstRevision = StmTransactionContext.lastCommittedRevisionNumber
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            stuff.set(2);
+        }
+        def snapshot = StmTransactionContext.openSnapshotAsOfRevision(firstRevision)
+
+        then:
+        snapshot.call { stuff.get() } == 1
+        stuff.peekCommitted() == 2
+
+        cleanup:
+        snapshot?.close()
+        StmTransactionContext.setHistoryRetention(0, Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+
+    }
+
+    def "Group commit publishes transactions committing together as one revision with one change set"() {
+
+        given:
+        V<Integer>[] stuff = new V<Integer>[3]
+        StmTransactionContext.doInTransaction(1) {
+            for (int i = 0; i < 3; i += 1) {
+                stuff[i] = new V<>(0);
+            }
+        }
+        def executor = Executors.newSingleThreadExecutor()
+        def changeSets = new LinkedBlockingQueue<StmChangeSet>()
+        def subscription = StmTransactionContext.subscribe(new ICommitSubscriber() {
+            @Override
+            void onCommit(StmChangeSet changeSet) {
+                changeSets.add(changeSet)
+            }
+
+            @Override
+            void onChangeSetsDropped(long droppedCount) {
+            }
+        }, executor, 16)
+        StmTransactionContext.setGroupCommit(3, 5, TimeUnit.SECONDS)
+        def priorRevision = StmTransactionContext.lastCommittedRevisionNumber
+
+        when:
+        def threads = (0..2).collect { i ->
+            Thread.start {
+                StmTransactionContext.doInTransaction(1) {
+                    stuff[i].set(i + 1);
+                }
+            }
+        }
+        threads.each { it.join() }
+
+        then:
+        StmTransactionContext.lastCommittedRevisionNumber == priorRevision + 1
+        stuff.collect { it.peekCommitted() } == [1, 2, 3]
+
+        and:
+        def changeSet = changeSets.poll(5, TimeUnit.SECONDS)
+        changeSet.revisionNumber == priorRevision + 1
+        changeSet.itemsWritten as Set == stuff as Set
+
+        cleanup:
+        StmTransactionContext.setGroupCommit(1, 0, TimeUnit.SECONDS)
+        subscription.close()
+        executor.shutdown()
+
+    }
+
+    def "Committing transactions wait for the background reclaimer once its backlog passes the threshold"() {
+
+        given:
+        StmTransactionContext.setReclamationBackPressureThreshold(0)
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(0);
+        }
+        def backlogs = []
+
+        when:
+        for (int i = 1; i <= 20; i += 1) {
+            StmTransactionContext.doInTransaction(1) {
+                stuff.set(stuff.get() + 1);
+            }
+            backlogs.add(StmTransactionContext.reclamationBacklog)
+        }
+
+        then:
+        backlogs.every { it == 0 }
+        stuff.peekCommitted() == 20
+
+        cleanup:
+        StmTransactionContext.setReclamationBackPressureThreshold(1L << 20)
+
+    }
+
+    def "Taking from an empty versioned queue blocks until another transaction puts an item"() {
+
+        given:
+        VQueue<String> queue
+        StmTransactionContext.doInTransaction(1) {
+            queue = new VQueue<>();
+        }
+        def taken = new CompletableFuture<String>()
+
+        when:
+        def consumer = Thread.start {
+            StmTransactionContext.doInTransaction(1) {
+                taken.complete(queue.take());
+            }
+        }
+        Thread.sleep(100)
+
+        then:
+        !taken.isDone()
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            queue.put("work");
+        }
+        consumer.join(5000)
+
+        then:
+        taken.get(5, TimeUnit.SECONDS) == "work"
+        StmTransactionContext.doInTransaction(1) {
+            assert queue.isEmpty()
+        }
+
+    }
+
+    def "orElse rolls back a retrying alternative and runs the next one"() {
+
+        given:
+        VQueue<String> empty
+        VQueue<String> full
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            empty = new VQueue<>();
+            full = new VQueue<>();
+            full.put("work");
+            stuff = new V<>(0);
+        }
+        String taken
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            taken = StmTransactionContext.orElse({
+                stuff.set(1);
+                empty.take()
+            }, {
+                full.take()
+            });
+        }
+
+        then:
+        taken == "work"
+        stuff.peekCommitted() == 0
+
+    }
+
+    def "A nested transaction in conflict retries only its own work"() {
+
+        given:
+        V<Integer> outerStuff
+        V<Integer> innerStuff
+        StmTransactionContext.doInTransaction(1) {
+            outerStuff = new V<>(0);
+            innerStuff = new V<>(0);
+        }
+        def outerAttempts = 0
+        def innerAttempts = 0
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            outerAttempts += 1
+            outerStuff.set(outerStuff.get() + 1);
+            StmTransactionContext.doInTransaction(1) {
+                innerAttempts += 1
+                if (innerAttempts == 1) {
+                    Thread.start {
+                        StmTransactionContext.doInTransaction(1) {
+                            innerStuff.set(100);
+                        }
+                    }.join()
+                }
+                innerStuff.set(innerStuff.get() + 1);
+            }
+        }
+
+        then:
+        outerAttempts == 1
+        innerAttempts == 2
+        outerStuff.peekCommitted() == 1
+        innerStuff.peekCommitted() == 101
+
+    }
+
+    def "A nested conflict within a snapshot isolation transaction retries the whole transaction"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(0);
+        }
+        def outerAttempts = 0
+        def innerAttempts = 0
+        def seen = []
+
+        when:
+        StmTransactionContext.doInSnapshotIsolationTransaction(1) {
+            outerAttempts += 1
+            def before = stuff.get()
+            StmTransactionContext.doInTransaction(1) {
+                innerAttempts += 1
+                if (innerAttempts == 1) {
+                    Thread.start {
+                        StmTransactionContext.doInTransaction(1) {
+                            stuff.set(100);
+                        }
+                    }.join()
+                    throw new WriteConflictException(stuff)
+                }
+                seen << [before, stuff.get()]
+            }
+        }
+
+        then: "the retry reads one consistent snapshot"
+        outerAttempts == 2
+        innerAttempts == 2
+        seen == [[100, 100]]
+
+    }
+
+    def "Aborting a nested transaction undoes only its own writes"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(0);
+        }
+
+        when:
+        def transaction = StmTransactionContext.beginTransaction()
+        stuff.set(1);
+        def nestedTransaction = StmTransactionContext.beginTransaction()
+        stuff.set(2);
+        StmTransactionContext.abortTransaction(nestedTransaction)
+        StmTransactionContext.commitTransaction(transaction)
+
+        then:
+        nestedTransaction.is(transaction)
+        stuff.peekCommitted() == 1
+
+    }
+
+    def "Metrics count commits and conflicts and report the items in conflict"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(0);
+        }
+        StmMetrics.reset()
+        StmMetrics.conflictSamplingInterval = 1
+
+        when:
+        StmTransactionContext.doInTransaction(0) {
+            stuff.get();
+            Thread.start {
+                StmTransactionContext.doInTransaction(1) {
+                    stuff.set(-1);
+                }
+            }.join()
+            stuff.set(1);
+        }
+
+        then:
+        thrown(MaximumRetriesExceededException)
+        StmMetrics.committedCount == 1
+        StmMetrics.abortedCount == 1
+        StmMetrics.conflictCount == 1
+        StmMetrics.retriesExhaustedCount == 1
+        StmMetrics.getConflictHotSpots(10) == [(stuff): 1L]
+
+        cleanup:
+        StmMetrics.conflictSamplingInterval = 8
+
+    }
+
+    def "Randomized concurrent transactions commit a serializable history without reclaiming snapshot revisions"() {
+
+        when: "a short run of at most a window or two (each holding a bounded number of transactions)"
+        def report = SerializabilityStressTest.run(2, 1000, 20141017L)
+
+        then:
+        report.violations.isEmpty()
+        report.committedCount > 0
+
+    }
+
+    def "An irrevocable transaction holds off other commits until it commits"() {
+
+        given:
+        V<Integer> x
+        V<Integer> y
+        StmTransactionContext.doInTransaction(1) {
+            x = new V<>(0);
+            y = new V<>(0);
+        }
+        def writer
+        def writerStillWaiting
+
+        when:
+        StmTransactionContext.doInIrrevocableTransaction {
+            def value = x.get();
+            writer = Thread.start {
+                StmTransactionContext.doInTransaction(1) {
+                    x.set(1);
+                }
+            }
+            Thread.sleep(200)
+            writerStillWaiting = writer.alive
+            y.set(value + 10);
+        }
+        writer.join()
+
+        then:
+        writerStillWaiting
+        y.peekCommitted() == 10
+        x.peekCommitted() == 1
+
+    }
+
+    def "A transaction running past its deadline fails at its next access and is not retried"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(0);
+        }
+        StmTransactionContext.setDefaultTransactionDeadline(100, TimeUnit.MILLISECONDS)
+        def attempts = 0
+
+        when:
+        StmTransactionContext.doInTransaction(3) {
+            attempts += 1
+            stuff.get();
+            Thread.sleep(500)
+            stuff.set(1);
+        }
+
+        then:
+        thrown(TransactionDeadlineExceededException)
+        attempts == 1
+        stuff.peekCommitted() == 0
+        StmMetrics.oldestPinnedRevisionNumber == StmTransactionContext.lastCommittedRevisionNumber
+
+        cleanup:
+        StmTransactionContext.setDefaultTransactionDeadline(60, TimeUnit.SECONDS)
+
+    }
+
+    def "An irrevocable transaction has no deadline"() {
+
+        given:
+        V<Integer> stuff
+        StmTransactionContext.doInTransaction(1) {
+            stuff = new V<>(0);
+        }
+        StmTransactionContext.setDefaultTransactionDeadline(100, TimeUnit.MILLISECONDS)
+
+        when:
+        StmTransactionContext.doInIrrevocableTransaction {
+            stuff.get();
+            Thread.sleep(500)
+            stuff.set(1);
+        }
+
+        then:
+        stuff.peekCommitted() == 1
+
+        cleanup:
+        StmTransactionContext.setDefaultTransactionDeadline(60, TimeUnit.SECONDS)
+
+    }
+
+    /**
+     * A set element whose hash code fails on demand.
+     */
+    static class FragileElement {
+
+        @Override
+        int hashCode() {
+            if (failing) {
+                throw new IllegalStateException("Hash code failed.")
+            }
+            return 1
+        }
+
+        boolean failing = false
+
+    }
+
 }
@@ -0,0 +1,245 @@
+package org.steamflake.utilities.revisions
+
+import spock.lang.Specification
+
+/**
+ * Specification for versioned maps.
+ */
+class VMapSpec extends Specification {
+
+    def "A versioned map can be created and changed"() {
+
+        given:
+        VMap<String, Integer> map
+        StmTransactionContext.doInTransaction(1) {
+            map = new VMap<>();
+            map.put("a", 1);
+            map.put("b", 2);
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            map.put("a", 10);
+            map.remove("b");
+            map.put("c", 3);
+        }
+
+        then:
+        StmTransactionContext.doInTransaction(1) {
+            assert map.get("a") == 10
+            assert !map.containsKey("b")
+            assert map.get("b") == null
+            assert map.get("c") == 3
+            assert map.size() == 2
+        }
+
+    }
+
+    def "Entries put by an aborted transaction vanish"() {
+
+        given:
+        VMap<String, Integer> map
+        StmTransactionContext.doInTransaction(1) {
+            map = new VMap<>();
+            map.put("a", 1);
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            map.put("b", 2);
+            throw new IllegalStateException("Abort");
+        }
+
+        then:
+        thrown(IllegalStateException)
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            assert map.containsKey("a")
+            assert !map.containsKey("b")
+            assert map.size() == 1
+        }
+
+    }
+
+    def "A versioned map holds many entries"() {
+
+        given:
+        VMap<Integer, Integer> map
+        StmTransactionContext.doInTransaction(1) {
+            map = new VMap<>();
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            for (int i = 0; i < 10000; i += 1) {
+                map.put(i, i * 2);
+            }
+        }
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            for (int i = 0; i < 10000; i += 2) {
+                map.remove(i);
+            }
+        }
+
+        then:
+        StmTransactionContext.doInTransaction(1) {
+            assert map.size() == 5000
+            assert map.get(9999) == 19998
+            assert !map.containsKey(5000)
+        }
+
+    }
+
+    def "Transactions writing different keys do not conflict"() {
+
+        given:
+        VMap<String, Integer> map = new VMap<>()
+        def attempts = 0
+
+        when:
+        StmTransactionContext.doInTransaction(2) {
+            attempts += 1;
+            map.put("a", map.containsKey("a") ? 2 : 1);
+
+            // Write another key concurrently on the first attempt only.
+            if (attempts == 1) {
+                Thread.start {
+                    StmTransactionContext.doInTransaction(1) {
+                        map.put("b", 10);
+                    }
+                }.join();
+            }
+        }
+
+        then:
+        attempts == 1
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            assert map.get("a") == 1
+            assert map.get("b") == 10
+            assert map.size() == 2
+        }
+
+    }
+
+    def "Transactions writing the same key conflict"() {
+
+        given:
+        VMap<String, Integer> map = new VMap<>()
+        def attempts = 0
+
+        when:
+        StmTransactionContext.doInTransaction(2) {
+            attempts += 1;
+            def value = map.get("a");
+
+            // Add the same key concurrently on the first attempt only.
+            if (attempts == 1) {
+                Thread.start {
+                    StmTransactionContext.doInTransaction(1) {
+                        map.put("a", 10);
+                    }
+                }.join();
+            }
+
+            map.put("a", value == null ? 1 : value + 1);
+        }
+
+        then:
+        attempts == 2
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            assert map.get("a") == 11
+            assert map.size() == 1
+        }
+
+    }
+
+    def "A versioned map needs no transaction to be created"() {
+
+        when:
+        VMap<String, Integer> map = new VMap<>()
+
+        then:
+        map.peekCommitted("a") == null
+
+        and:
+        StmTransactionContext.doInReadOnlyTransaction {
+            assert !map.containsKey("a")
+            assert map.isEmpty()
+        }
+
+    }
+
+    def "Looking up missing keys does not grow a versioned map"() {
+
+        given:
+        VMap<Integer, Integer> map = new VMap<>()
+        StmTransactionContext.doInTransaction(1) {
+            map.put(-1, 1);
+        }
+
+        when:
+        StmTransactionContext.doInReadOnlyTransaction {
+            for (int i = 0; i < 1000; i += 1) {
+                assert !map.containsKey(i)
+            }
+        }
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            for (int i = 0; i < 1000; i += 1) {
+                assert map.get(i) == null
+                map.remove(i);
+            }
+        }
+
+        then:
+        map.entries.size() == 1
+
+    }
+
+    def "Entries of removed keys are retired once no transaction can read them"() {
+
+        given:
+        VMap<Integer, Integer> map = new VMap<>()
+        StmTransactionContext.doInTransaction(1) {
+            for (int i = 0; i < 1000; i += 1) {
+                map.put(i, i);
+            }
+        }
+
+        when:
+        StmTransactionContext.doInTransaction(1) {
+            for (int i = 0; i < 1000; i += 1) {
+                map.remove(i);
+            }
+        }
+
+        and: "the reclaimer passes the removal and the map changes size twice more"
+        Thread.sleep(100);
+        StmTransactionContext.doInTransaction(1) {
+            map.put(-1, 1);
+        }
+        Thread.sleep(100);
+        StmTransactionContext.doInTransaction(1) {
+            map.put(-2, 2);
+        }
+
+        then:
+        map.entries.size() == 2
+
+        and:
+        StmTransactionContext.doInTransaction(1) {
+            assert !map.containsKey(0)
+            assert map.size() == 2
+        }
+
+    }
+
+}
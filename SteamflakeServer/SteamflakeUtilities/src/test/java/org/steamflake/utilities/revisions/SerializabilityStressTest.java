@@ -0,0 +1,587 @@
+package org.steamflake.utilities.revisions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Main program stress tests the STM with many threads running randomized mixes of transactions (read-modify-writes,
+ * read-only transactions, nested transactions, commutative increments, and deliberate aborts) while other threads
+ * hold snapshots open for a while. The run is divided into windows of at most a second and a bounded number of
+ * transactions, with all threads stopped between windows, so that the history can be checked window by window in
+ * bounded memory: every transaction of a window serializes after every transaction of the windows before it, and
+ * reads from before the window must read the latest versions as of its start. For each window it checks:
+ * <ul>
+ * <li>Every value read was written by a committed transaction (no dirty reads).</li>
+ * <li>No two committed transactions overwrote the same version of an item (no lost updates).</li>
+ * <li>The direct serialization graph of read and write dependencies has no cycle (the history is serializable).</li>
+ * <li>Every snapshot reads the same values for as long as it is open, so no revision it needs has been reclaimed.</li>
+ * </ul>
+ * At the end it checks that the commutative increments all count.
+ * Every write stores the id of its transaction, so each read identifies the transaction it reads from, and each
+ * write (always preceded by a read of the same item) identifies the version it overwrites.
+ * <p>
+ * Usage: SerializabilityStressTest [threads [seconds [seed]]]
+ */
+public class SerializabilityStressTest {
+
+    public static void main( String... args ) throws Exception {
+
+        int threadCount = args.length > 0 ? Integer.parseInt( args[0] ) : 8;
+        long durationMillis = args.length > 1 ? Long.parseLong( args[1] ) * 1000L : 10000L;
+        long seed = args.length > 2 ? Long.parseLong( args[2] ) : System.nanoTime();
+
+        System.out.println( "threads " + threadCount + ", seconds " + durationMillis / 1000L + ", seed " + seed );
+
+        Report report = run( threadCount, durationMillis, seed );
+
+        System.out.println( "committed " + report.committedCount + ", aborted attempts " + report.abortedCount + ", snapshot reads " + report.snapshotReadCount );
+
+        for ( String violation : report.violations ) {
+            System.out.println( "VIOLATION: " + violation );
+        }
+
+        if ( !report.violations.isEmpty() ) {
+            System.exit( 1 );
+        }
+
+        System.out.println( "History is serializable." );
+
+    }
+
+    /**
+     * Runs the stress test and checks the history.
+     *
+     * @param threadCount    the number of threads running transactions (plus half as many holding snapshots).
+     * @param durationMillis how long to run.
+     * @param seed           the seed for the random choices of the threads.
+     * @return the counts and any violations found.
+     */
+    static Report run( int threadCount, long durationMillis, long seed ) throws Exception {
+
+        Report result = new Report();
+
+        // Create the items, all written by "transaction" zero.
+        List<V<Long>> items = new ArrayList<>( ITEM_COUNT );
+        VCounter[] counter = new VCounter[1];
+        StmTransactionContext.doInTransaction( 0, () -> {
+            for ( int i = 0; i < ITEM_COUNT; i += 1 ) {
+                items.add( new V<>( 0L ) );
+            }
+            counter[0] = new VCounter( 0L );
+        } );
+
+        ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+        AtomicLong abortedCount = new AtomicLong( 0L );
+        AtomicLong incrementCount = new AtomicLong( 0L );
+        AtomicLong nextTransactionId = new AtomicLong( 1L );
+        AtomicLong snapshotReadCount = new AtomicLong( 0L );
+
+        // Keep one source of random choices per thread across the windows.
+        List<Random> transactionRandoms = new ArrayList<>();
+        for ( int t = 0; t < threadCount; t += 1 ) {
+            transactionRandoms.add( new Random( seed + t ) );
+        }
+        List<Random> snapshotRandoms = new ArrayList<>();
+        for ( int t = 0; t < threadCount / 2 + 1; t += 1 ) {
+            snapshotRandoms.add( new Random( seed - t - 1 ) );
+        }
+
+        // The writers of the latest versions of the items as of the start of the window.
+        long[] latestWriters = new long[ITEM_COUNT];
+
+        long deadline = System.nanoTime() + durationMillis * 1000000L;
+        while ( System.nanoTime() < deadline && violations.isEmpty() ) {
+
+            Window window = new Window( Math.min( deadline, System.nanoTime() + WINDOW_MILLIS * 1000000L ) );
+            CountDownLatch doneSignal = new CountDownLatch( transactionRandoms.size() + snapshotRandoms.size() );
+            List<Thread> threads = new ArrayList<>();
+
+            // Start the threads running transactions.
+            for ( Random random : transactionRandoms ) {
+                threads.add( new Thread( () -> {
+                    try {
+                        while ( window.isOpen() ) {
+                            runRandomTransaction( random, items, counter[0], nextTransactionId, window, abortedCount, incrementCount );
+                        }
+                    }
+                    catch ( Throwable e ) {
+                        violations.add( "Transaction thread failed: " + e );
+                    }
+                    finally {
+                        doneSignal.countDown();
+                    }
+                } ) );
+            }
+
+            // Start the threads holding snapshots open.
+            for ( Random random : snapshotRandoms ) {
+                threads.add( new Thread( () -> {
+                    try {
+                        while ( window.isOpen() ) {
+                            holdSnapshot( random, items, window, violations, snapshotReadCount );
+                        }
+                    }
+                    catch ( Throwable e ) {
+                        violations.add( "Snapshot thread failed: " + e );
+                    }
+                    finally {
+                        doneSignal.countDown();
+                    }
+                } ) );
+            }
+
+            for ( Thread thread : threads ) {
+                thread.start();
+            }
+            doneSignal.await();
+
+            // Check the history of the window, then note where the next one starts.
+            checkHistory( latestWriters, new ArrayList<>( window.committed ), violations );
+
+            for ( int i = 0; i < ITEM_COUNT; i += 1 ) {
+                latestWriters[i] = items.get( i ).peekCommitted();
+            }
+
+            result.committedCount += window.committedCount.get();
+
+        }
+
+        if ( counter[0].peekCommitted() != incrementCount.get() ) {
+            violations.add( "Counter is " + counter[0].peekCommitted() + " after " + incrementCount.get() + " committed increments." );
+        }
+
+        result.abortedCount = abortedCount.get();
+        result.snapshotReadCount = snapshotReadCount.get();
+        result.violations.addAll( violations );
+
+        return result;
+
+    }
+
+    /**
+     * Checks the committed history of one window for dirty reads, lost updates, and dependency cycles. The versions
+     * current at the start of the window count as written by "transaction" zero, which precedes the whole window.
+     *
+     * @param latestWriters the writers of the latest versions of the items as of the start of the window.
+     * @param committed     the transactions committed in the window.
+     * @param violations    where to report problems found.
+     */
+    private static void checkHistory( long[] latestWriters, List<TransactionRecord> committed, ConcurrentLinkedQueue<String> violations ) {
+
+        Map<Long, TransactionRecord> transactionsById = new HashMap<>();
+        for ( TransactionRecord transaction : committed ) {
+            transactionsById.put( transaction.id, transaction );
+        }
+
+        // Find the transaction that overwrote each version of each item (keyed by item and prior writer).
+        Map<Long, Long> nextWriters = new HashMap<>();
+        for ( TransactionRecord transaction : committed ) {
+            for ( int item : transaction.itemsWritten ) {
+                long priorWriter = transaction.itemsRead.get( item );
+                Long otherWriter = nextWriters.put( versionKey( item, priorWriter ), transaction.id );
+                if ( otherWriter != null ) {
+                    violations.add( "Lost update: transactions " + otherWriter + " and " + transaction.id + " both overwrote item " + item + " as written by " + priorWriter + "." );
+                }
+            }
+        }
+
+        // Build the direct serialization graph.
+        Map<Long, List<Long>> successors = new HashMap<>();
+        successors.put( 0L, new ArrayList<>() );
+        for ( TransactionRecord transaction : committed ) {
+            successors.put( transaction.id, new ArrayList<>() );
+        }
+
+        for ( TransactionRecord transaction : committed ) {
+
+            if ( transaction.unrepeatableRead ) {
+                violations.add( "Transaction " + transaction.id + " read different values of one item." );
+            }
+
+            for ( Map.Entry<Integer, Long> read : transaction.itemsRead.entrySet() ) {
+
+                int item = read.getKey();
+                long writer = read.getValue();
+
+                // The writer must have committed a write of the item in the window, unless the version read is the
+                // one current at the start of the window.
+                long predecessor = 0L;
+                if ( writer != latestWriters[item] ) {
+                    TransactionRecord writerTransaction = transactionsById.get( writer );
+                    if ( writerTransaction == null || !writerTransaction.itemsWritten.contains( item ) ) {
+                        violations.add( "Dirty or stale read: transaction " + transaction.id + " read item " + item + " from transaction " + writer + ", neither committed in its window nor latest before it." );
+                        continue;
+                    }
+                    predecessor = writer;
+                }
+
+                // Write-read dependency: the writer comes first.
+                successors.get( predecessor ).add( transaction.id );
+
+                // Anti-dependency (or write-write dependency): whoever overwrote the version read comes after.
+                Long nextWriter = nextWriters.get( versionKey( item, writer ) );
+                if ( nextWriter != null && nextWriter != transaction.id ) {
+                    successors.get( transaction.id ).add( nextWriter );
+                }
+
+            }
+
+        }
+
+        // Look for cycles by repeatedly removing transactions with no predecessors.
+        Map<Long, Integer> predecessorCounts = new HashMap<>();
+        for ( Long id : successors.keySet() ) {
+            predecessorCounts.put( id, 0 );
+        }
+        for ( List<Long> ids : successors.values() ) {
+            for ( Long id : ids ) {
+                predecessorCounts.merge( id, 1, Integer::sum );
+            }
+        }
+
+        Deque<Long> ready = new ArrayDeque<>();
+        for ( Map.Entry<Long, Integer> entry : predecessorCounts.entrySet() ) {
+            if ( entry.getValue() == 0 ) {
+                ready.add( entry.getKey() );
+            }
+        }
+
+        int orderedCount = 0;
+        while ( !ready.isEmpty() ) {
+            Long id = ready.poll();
+            orderedCount += 1;
+            for ( Long successor : successors.get( id ) ) {
+                if ( predecessorCounts.merge( successor, -1, Integer::sum ) == 0 ) {
+                    ready.add( successor );
+                }
+            }
+        }
+
+        if ( orderedCount < successors.size() ) {
+            violations.add( "Not serializable: " + ( successors.size() - orderedCount ) + " transactions are in or behind dependency cycles." );
+        }
+
+    }
+
+    /**
+     * Opens a snapshot, then re-reads it for a while, checking that it always reads the same values while other
+     * threads commit (and the reclaimer cleans up behind them).
+     *
+     * @param random            the source of random choices.
+     * @param items             the items to read.
+     * @param window            the window of the run, closing the snapshot when it closes.
+     * @param violations        where to report problems found.
+     * @param snapshotReadCount the count of snapshot reads to add to.
+     */
+    private static void holdSnapshot( Random random, List<V<Long>> items, Window window, ConcurrentLinkedQueue<String> violations, AtomicLong snapshotReadCount ) throws InterruptedException {
+
+        try ( StmSnapshot snapshot = StmTransactionContext.openSnapshot() ) {
+
+            long[] firstValues = snapshot.call( () -> readAll( items ) );
+
+            long closeTime = Math.min( window.endTime, System.nanoTime() + ( 1 + random.nextInt( 50 ) ) * 1000000L );
+            while ( System.nanoTime() < closeTime && window.isOpen() ) {
+
+                Thread.sleep( 1L );
+
+                long[] values = snapshot.call( () -> readAll( items ) );
+                snapshotReadCount.incrementAndGet();
+
+                for ( int i = 0; i < ITEM_COUNT; i += 1 ) {
+                    if ( values[i] != firstValues[i] ) {
+                        violations.add( "Snapshot at revision " + snapshot.getRevisionNumber() + " read item " + i + " as written by " + firstValues[i] + ", later by " + values[i] + "." );
+                        return;
+                    }
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Reads every item in the current transaction.
+     *
+     * @param items the items to read.
+     * @return the ids of the transactions that wrote the values read.
+     */
+    private static long[] readAll( List<V<Long>> items ) {
+
+        long[] result = new long[items.size()];
+
+        for ( int i = 0; i < result.length; i += 1 ) {
+            result[i] = items.get( i ).get();
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Performs a few random reads and read-modify-writes in the current transaction, recording them.
+     *
+     * @param random the source of random choices.
+     * @param items  the items to work on.
+     * @param record the record of the current attempt.
+     * @param write  whether to write as well as read.
+     */
+    private static void readAndWrite( Random random, List<V<Long>> items, TransactionRecord record, boolean write ) {
+
+        int operationCount = 1 + random.nextInt( MAX_OPERATIONS );
+
+        for ( int i = 0; i < operationCount; i += 1 ) {
+
+            int item = random.nextInt( ITEM_COUNT );
+
+            // Read the item, noting the writer unless it is ourselves.
+            long writer = items.get( item ).get();
+            if ( !record.itemsWritten.contains( item ) ) {
+                Long priorRead = record.itemsRead.putIfAbsent( item, writer );
+                if ( priorRead != null && priorRead != writer ) {
+                    record.unrepeatableRead = true;
+                }
+            }
+
+            // Overwrite it with our own id half the time.
+            if ( write && random.nextBoolean() ) {
+                items.get( item ).set( record.id );
+                record.itemsWritten.add( item );
+            }
+
+        }
+
+    }
+
+    /**
+     * Runs one randomly chosen transaction, recording it if it commits.
+     *
+     * @param random            the source of random choices.
+     * @param items             the items to work on.
+     * @param counter           the counter for commutative increments.
+     * @param nextTransactionId the source of ids for attempts.
+     * @param window            the window of the run, where to record committed transactions.
+     * @param abortedCount      the count of aborted attempts to add to.
+     * @param incrementCount    the count of committed increments to add to.
+     */
+    private static void runRandomTransaction( Random random, List<V<Long>> items, VCounter counter, AtomicLong nextTransactionId, Window window, AtomicLong abortedCount, AtomicLong incrementCount ) throws Exception {
+
+        int kind = random.nextInt( 10 );
+
+        // Read-only transaction.
+        if ( kind < 2 ) {
+            TransactionRecord record = new TransactionRecord( nextTransactionId.getAndIncrement() );
+            StmTransactionContext.doInReadOnlyTransaction( () -> readAndWrite( random, items, record, false ) );
+            window.addCommitted( record );
+            return;
+        }
+
+        boolean nested = kind >= 7;
+        boolean increment = kind == 6;
+        boolean abort = kind == 5 && random.nextBoolean();
+
+        TransactionRecord[] attempt = new TransactionRecord[1];
+
+        try {
+            StmTransactionContext.doInTransaction( MAX_RETRIES, () -> {
+
+                // Each attempt writes under a new id so that reads of aborted attempts would show up.
+                if ( attempt[0] != null ) {
+                    abortedCount.incrementAndGet();
+                }
+                TransactionRecord record = new TransactionRecord( nextTransactionId.getAndIncrement() );
+                attempt[0] = record;
+
+                readAndWrite( random, items, record, true );
+
+                // Do more work in a nested transaction, rolling back its part of the record when it retries.
+                if ( nested ) {
+                    Map<Integer, Long> itemsReadBefore = new HashMap<>( record.itemsRead );
+                    Set<Integer> itemsWrittenBefore = new HashSet<>( record.itemsWritten );
+                    try {
+                        StmTransactionContext.doInTransaction( 2, () -> {
+                            record.itemsRead.clear();
+                            record.itemsRead.putAll( itemsReadBefore );
+                            record.itemsWritten.clear();
+                            record.itemsWritten.addAll( itemsWrittenBefore );
+                            readAndWrite( random, items, record, true );
+                        } );
+                    }
+                    catch ( RuntimeException e ) {
+                        throw e;
+                    }
+                    catch ( Exception e ) {
+                        throw new IllegalStateException( e );
+                    }
+                }
+
+                if ( increment ) {
+                    counter.increment();
+                }
+
+                if ( abort ) {
+                    throw new AbortRequested();
+                }
+
+            } );
+        }
+        catch ( AbortRequested e ) {
+            abortedCount.incrementAndGet();
+            return;
+        }
+
+        window.addCommitted( attempt[0] );
+        if ( increment ) {
+            incrementCount.incrementAndGet();
+        }
+
+    }
+
+    /**
+     * Makes a key for a version of an item.
+     *
+     * @param item   the index of the item.
+     * @param writer the id of the transaction that wrote the version.
+     * @return the key.
+     */
+    private static long versionKey( int item, long writer ) {
+        return writer * ITEM_COUNT + item;
+    }
+
+    /**
+     * Deliberate failure of a transactional task, to exercise aborts.
+     */
+    private static class AbortRequested
+        extends RuntimeException {
+    }
+
+    /**
+     * The outcome of a stress run.
+     */
+    static class Report {
+
+        long abortedCount;
+
+        long committedCount;
+
+        long snapshotReadCount;
+
+        final List<String> violations = new ArrayList<>();
+
+    }
+
+    /**
+     * The reads and writes of one transaction attempt.
+     */
+    private static class TransactionRecord {
+
+        TransactionRecord( long id ) {
+            this.id = id;
+            this.itemsRead = new HashMap<>();
+            this.itemsWritten = new HashSet<>();
+            this.unrepeatableRead = false;
+        }
+
+        /**
+         * The id of the attempt (the value it writes).
+         */
+        final long id;
+
+        /**
+         * The writer of the value first read from each item (before writing it).
+         */
+        final Map<Integer, Long> itemsRead;
+
+        /**
+         * The items written.
+         */
+        final Set<Integer> itemsWritten;
+
+        /**
+         * Whether some item read twice had different values.
+         */
+        boolean unrepeatableRead;
+
+    }
+
+    /**
+     * One window of a stress run: the transactions committed in it, up to a bounded number.
+     */
+    private static class Window {
+
+        Window( long endTime ) {
+            this.committed = new ConcurrentLinkedQueue<>();
+            this.committedCount = new AtomicLong( 0L );
+            this.endTime = endTime;
+        }
+
+        /**
+         * Records a committed transaction.
+         *
+         * @param record the record of the transaction.
+         */
+        void addCommitted( TransactionRecord record ) {
+            this.committed.add( record );
+            this.committedCount.incrementAndGet();
+        }
+
+        /**
+         * @return whether the threads should keep going: the window has neither timed out nor filled up.
+         */
+        boolean isOpen() {
+            return System.nanoTime() < this.endTime && this.committedCount.get() < MAX_WINDOW_TRANSACTIONS;
+        }
+
+        /**
+         * The transactions committed in the window.
+         */
+        final ConcurrentLinkedQueue<TransactionRecord> committed;
+
+        /**
+         * The number of transactions committed in the window.
+         */
+        final AtomicLong committedCount;
+
+        /**
+         * When the window closes (System.nanoTime()).
+         */
+        final long endTime;
+
+    }
+
+    /**
+     * The number of items; few enough for frequent conflicts.
+     */
+    private static final int ITEM_COUNT = 16;
+
+    /**
+     * The most items touched per transaction (or nested transaction).
+     */
+    private static final int MAX_OPERATIONS = 4;
+
+    /**
+     * Retries allowed per transaction.
+     */
+    private static final int MAX_RETRIES = 1000;
+
+    /**
+     * The most transactions committed per window, bounding the history kept for checking.
+     */
+    private static final long MAX_WINDOW_TRANSACTIONS = 50000L;
+
+    /**
+     * The longest duration of a window.
+     */
+    private static final long WINDOW_MILLIS = 1000L;
+
+}